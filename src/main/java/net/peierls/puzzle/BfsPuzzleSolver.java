@@ -29,6 +29,14 @@ public class BfsPuzzleSolver<T extends PuzzleState<T>> extends CachingPuzzleSolv
         super(cacheSupplier);
     }
 
+    /**
+     * Constructs a BFS solver that will use caches from the given supplier
+     * and will consult and update the given solution store.
+     */
+    public BfsPuzzleSolver(Supplier<PuzzleStateCache<T>> cacheSupplier, SolutionStore<T> store) {
+        super(cacheSupplier, store);
+    }
+
 
     @Override
     protected Optional<T> solutionState(T initialState, PuzzleStateCache<T> cache) {
@@ -38,11 +46,12 @@ public class BfsPuzzleSolver<T extends PuzzleState<T>> extends CachingPuzzleSolv
                 //.peek(this::trace)
                 .findAny(PuzzleState::isSolution);
         } finally {
-            System.out.printf("BFS queue size: %d%n", queue.size());
+            Diagnostics.printf("BFS queue size: %d%n", queue.size());
         }
     }
 
     private StreamEx<T> bfs(T initialState, PuzzleStateCache<T> cache, Deque<T> queue) {
+        Levels levels = new Levels(this);
         queue.offerLast(initialState);
         return StreamEx.produce(action -> {
             T state = queue.pollFirst();
@@ -51,10 +60,48 @@ public class BfsPuzzleSolver<T extends PuzzleState<T>> extends CachingPuzzleSolv
             }
             state = filterState(state, cache);
             if (state != null) {
+                levels.expanded();
                 action.accept(state);
                 state.successors().forEach(queue::offerLast);
             }
+            levels.polled(queue.size());
             return true;
         });
     }
+
+
+    /**
+     * Tracks the levels of a search for Flight Recorder events. Since the
+     * queue is FIFO, the next level is exactly what the queue holds when
+     * the last state of the current level has been polled.
+     */
+    private static final class Levels {
+        private final Object solver;
+        private final PuzzleEvents.FrontierWatch frontier;
+        private long level;
+        private long levelEnd = 1L;
+        private long polled;
+        private long expanded;
+        private Object event = PuzzleEvents.beginLevel();
+
+        Levels(Object solver) {
+            this.solver = solver;
+            this.frontier = new PuzzleEvents.FrontierWatch(solver);
+        }
+
+        void expanded() {
+            ++expanded;
+        }
+
+        void polled(int queueSize) {
+            frontier.observe(queueSize);
+            if (++polled == levelEnd) {
+                PuzzleEvents.endLevel(event, solver, level, expanded, queueSize);
+                ++level;
+                levelEnd = polled + queueSize;
+                expanded = 0L;
+                event = PuzzleEvents.beginLevel();
+            }
+        }
+    }
 }
@@ -13,10 +13,14 @@ public class BloomPuzzleStateCache<T extends PuzzleState<T>>
         implements PuzzleStateCache<T> {
 
     private final BloomFilter<T> cache;
+    private final long bytes;
 
 
     public BloomPuzzleStateCache(Funnel<T> funnel, long expectedInsertions, double fpp) {
         this.cache = BloomFilter.create(funnel, expectedInsertions, fpp);
+        // Guava doesn't expose the size of the bit array, so repeat its calculation.
+        long bits = (long) (-Math.max(1L, expectedInsertions) * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bytes = (bits + Long.SIZE - 1) / Long.SIZE * Long.BYTES;
     }
 
 
@@ -40,9 +44,14 @@ public class BloomPuzzleStateCache<T extends PuzzleState<T>>
         return cache.expectedFpp();
     }
 
+    @Override
+    public long memoryFootprintBytes() {
+        return bytes;
+    }
+
     @Override
     public void close() {
-        System.out.printf("Cache holds approx. %d elements with expected FPP %f:%n",
+        Diagnostics.printf("Cache holds approx. %d elements with expected FPP %f:%n",
             approximateElementCount(), expectedFalsePositiveProbability());
     }
 }
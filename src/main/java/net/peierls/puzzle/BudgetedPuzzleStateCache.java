@@ -0,0 +1,143 @@
+package net.peierls.puzzle;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A {@link PuzzleStateCache} that wraps another to count the states put
+ * in it and to end a search that runs over budget. A put throws {@link
+ * BudgetExceededException} once the search has seen the maximum number of
+ * distinct states, or once the time allowed has passed, which is checked
+ * every {@value #TIME_CHECK_INTERVAL} puts. Everything else is delegated,
+ * so the wrapper is exact iff the wrapped cache is.
+ * <p>
+ * Its counts are not synchronized, so it should be used by one
+ * search thread at a time.
+ */
+public class BudgetedPuzzleStateCache<T extends PuzzleState<T>>
+        implements PuzzleStateCache<T> {
+
+    /**
+     * Thrown by {@link BudgetedPuzzleStateCache#put} to end a search that
+     * has exceeded its budget.
+     */
+    public static final class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final String budget;
+
+        BudgetExceededException(String budget) {
+            super(budget + " budget exceeded", null, false, false);
+            this.budget = budget;
+        }
+
+        /** The budget exceeded, "states" or "millis". */
+        public String budget() {
+            return budget;
+        }
+    }
+
+
+    static final int TIME_CHECK_INTERVAL = 1 << 10;
+
+    private final PuzzleStateCache<T> cache;
+    private final long maxStates;
+    private final long maxMillis;
+    private final long deadline;
+    private long generated;
+    private long added;
+    private long closedFootprintBytes = -1L;
+    private boolean closed;
+
+
+    /**
+     * Constructs a cache that delegates to the given one, allowing a
+     * search to put at most maxStates distinct states and to run for
+     * at most maxMillis milliseconds from startNanos, a value of
+     * {@link System#nanoTime}; either limit is unbounded if 0.
+     */
+    public BudgetedPuzzleStateCache(PuzzleStateCache<T> cache, long maxStates, long startNanos, long maxMillis) {
+        if (cache == null) {
+            throw new NullPointerException("cache must not be null");
+        }
+        if (maxStates < 0 || maxMillis < 0) {
+            throw new IllegalArgumentException("limits must not be negative");
+        }
+        this.cache = cache;
+        this.maxStates = maxStates == 0 ? Long.MAX_VALUE : maxStates;
+        this.maxMillis = maxMillis;
+        this.deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    }
+
+
+    @Override
+    public boolean mightContain(T state) {
+        return cache.mightContain(state);
+    }
+
+    @Override
+    public boolean put(T state) {
+        ++generated;
+        if (added >= maxStates) {
+            PuzzleEvents.budgetExhausted("states", maxStates, added);
+            throw new BudgetExceededException("states");
+        }
+        if (maxMillis > 0 && generated % TIME_CHECK_INTERVAL == 0 && System.nanoTime() - deadline > 0) {
+            PuzzleEvents.budgetExhausted("millis", maxMillis,
+                maxMillis + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - deadline));
+            throw new BudgetExceededException("millis");
+        }
+        boolean result = cache.put(state);
+        if (result) {
+            ++added;
+        }
+        return result;
+    }
+
+    @Override
+    public long approximateElementCount() {
+        return cache.approximateElementCount();
+    }
+
+    @Override
+    public double expectedFalsePositiveProbability() {
+        return cache.expectedFalsePositiveProbability();
+    }
+
+    @Override
+    public boolean isExact() {
+        return cache.isExact();
+    }
+
+    /**
+     * The wrapped cache's footprint or, once this cache is closed,
+     * the footprint it had when closed.
+     */
+    @Override
+    public long memoryFootprintBytes() {
+        return closed ? closedFootprintBytes : cache.memoryFootprintBytes();
+    }
+
+    @Override
+    public void close() {
+        closedFootprintBytes = cache.memoryFootprintBytes();
+        closed = true;
+        cache.close();
+    }
+
+
+    /**
+     * Number of states put, including those already seen and the one,
+     * if any, whose put exceeded the budget.
+     */
+    public long generatedCount() {
+        return generated;
+    }
+
+    /**
+     * Number of states put for the first time, i.e., expanded.
+     */
+    public long addedCount() {
+        return added;
+    }
+}
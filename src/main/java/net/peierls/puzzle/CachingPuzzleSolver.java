@@ -30,10 +30,20 @@ import one.util.streamex.StreamEx;
  * The {@link #solution} method is final; subclasses should implement
  * {@link #solutionState solutionState(initialState, cache)} and use the
  * {@link #filterState filterState(state, cache)} method before searching a state.
+ * <p>
+ * A solver may also be given a {@link SolutionStore} to share what it learns
+ * with other solves of the same puzzle: states it knows to be hopeless are
+ * filtered out, states it knows to be solvable are resolved immediately by
+ * replaying the remembered path, and each solve records its solution path,
+ * or, if a search with an {@link PuzzleStateCache#isExact exact} cache finds
+ * no solution, the hopelessness of its initial state.
+ * <p>
+ * Each solve is recorded as a Flight Recorder event; see {@link PuzzleEvents}.
  */
 public abstract class CachingPuzzleSolver<T extends PuzzleState<T>> implements PuzzleSolver<T> {
 
     private final Supplier<PuzzleStateCache<T>> cacheSupplier;
+    private final SolutionStore<T> store;
 
 
     /**
@@ -42,7 +52,7 @@ public abstract class CachingPuzzleSolver<T extends PuzzleState<T>> implements P
      * whether a state has been seen.
      */
     protected CachingPuzzleSolver() {
-        this.cacheSupplier = ExactPuzzleStateCache::new;
+        this(ExactPuzzleStateCache::new);
     }
 
     /**
@@ -50,7 +60,17 @@ public abstract class CachingPuzzleSolver<T extends PuzzleState<T>> implements P
      * caches for puzzle states.
      */
     protected CachingPuzzleSolver(Supplier<PuzzleStateCache<T>> cacheSupplier) {
+        this(cacheSupplier, null);
+    }
+
+    /**
+     * Constructs a solver that will use the cache supplier to provide
+     * caches for puzzle states, and that will consult and update the
+     * given store, if it is not null.
+     */
+    protected CachingPuzzleSolver(Supplier<PuzzleStateCache<T>> cacheSupplier, SolutionStore<T> store) {
         this.cacheSupplier = cacheSupplier;
+        this.store = store;
     }
 
 
@@ -63,9 +83,23 @@ public abstract class CachingPuzzleSolver<T extends PuzzleState<T>> implements P
             if (cache == null) {
                 throw new IllegalStateException("cache supplier must not return null");
             }
-            return solutionState(initialState, cache)
-                .map(this::toSolution)
-                .orElseGet(Collections::emptyList);
+            Object event = PuzzleEvents.beginSolve();
+            List<T> solution = null;
+            try {
+                solution = solutionState(initialState, cache)
+                    .map(this::toSolution)
+                    .orElseGet(Collections::emptyList);
+                if (store != null) {
+                    if (!solution.isEmpty()) {
+                        store.recordSolution(solution);
+                    } else if (cache.isExact()) {
+                        store.recordHopeless(initialState);
+                    }
+                }
+                return solution;
+            } finally {
+                PuzzleEvents.endSolve(event, this, cache, solution);
+            }
         }
     }
 
@@ -83,7 +117,9 @@ public abstract class CachingPuzzleSolver<T extends PuzzleState<T>> implements P
      * been seen by the cache, returns an initialized copy of state
      * (and as a side-effect marks state as seen in the cache),
      * otherwise returns null. The test for hopelessness is made
-     * on the initialized copy.
+     * on the initialized copy. If this solver has a {@link SolutionStore}
+     * and the state is known to be solvable, returns the solution state
+     * reached by replaying the remembered path from it instead.
      */
     protected T filterState(T state, PuzzleStateCache<T> cache) {
         if (state == null || !cache.put(state)) {
@@ -96,6 +132,9 @@ public abstract class CachingPuzzleSolver<T extends PuzzleState<T>> implements P
 
         if (state.isHopeless()) {
             return null;
+        } else if (store != null) {
+            T known = store.consult(state);
+            return known == state || known == null ? known : known.initialized();
         } else {
             return state;
         }
@@ -133,7 +172,7 @@ public abstract class CachingPuzzleSolver<T extends PuzzleState<T>> implements P
      * For debugging.
      */
     protected void trace(T state) {
-        System.out.printf("searching %s, pred %s%n",
+        Diagnostics.printf("searching %s, pred %s%n",
             state,
             state.predecessor().map(Object::toString).orElse("-"));
     }
@@ -0,0 +1,78 @@
+package net.peierls.puzzle;
+
+
+/**
+ * Ranking of combinations with the combinatorial number system, for use
+ * by {@link RankablePuzzleState} implementations.
+ * <p>
+ * A k-subset of {0, ..., 63}, as a bit set in a long, with elements
+ * c<sub>1</sub> &lt; ... &lt; c<sub>k</sub>, has rank
+ * C(c<sub>1</sub>, 1) + ... + C(c<sub>k</sub>, k). The ranks of the
+ * k-subsets of {0, ..., n-1} are exactly [0, C(n, k)), in the colexicographic
+ * order of the subsets, whatever n is.
+ */
+public final class Combinations {
+
+    private static final long[][] BINOMIAL = new long[Long.SIZE + 1][];
+    static {
+        for (int n = 0; n <= Long.SIZE; ++n) {
+            BINOMIAL[n] = new long[n + 1];
+            BINOMIAL[n][0] = BINOMIAL[n][n] = 1L;
+            for (int k = 1; k < n; ++k) {
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+            }
+        }
+    }
+
+    private Combinations() { /* uninstantiable */ }
+
+
+    /**
+     * The number of k-subsets of an n-set, C(n, k), for n at most 64.
+     * @throws IllegalArgumentException if n is not in [0, 64]
+     */
+    public static long count(int n, int k) {
+        if (n < 0 || n > Long.SIZE) {
+            throw new IllegalArgumentException("n must be in [0, 64]");
+        }
+        return k < 0 || k > n ? 0L : BINOMIAL[n][k];
+    }
+
+    private static long binomial(int n, int k) {
+        return k > n ? 0L : BINOMIAL[n][k];
+    }
+
+    /**
+     * The rank of the given subset among the subsets of the same size.
+     */
+    public static long rank(long subset) {
+        long rank = 0L;
+        int k = 0;
+        for (long bits = subset; bits != 0L; bits &= bits - 1) {
+            int c = Long.numberOfTrailingZeros(bits);
+            rank += binomial(c, ++k);
+        }
+        return rank;
+    }
+
+    /**
+     * The k-subset with the given rank, the inverse of {@link #rank}.
+     * @throws IllegalArgumentException if k is not in [0, 64] or the
+     * rank is not in [0, C(64, k))
+     */
+    public static long unrank(long rank, int k) {
+        if (k < 0 || k > Long.SIZE || rank < 0 || rank >= count(Long.SIZE, k)) {
+            throw new IllegalArgumentException("no " + k + "-subset has rank " + rank);
+        }
+        long subset = 0L;
+        int c = Long.SIZE;
+        for (int i = k; i > 0; --i) {
+            do {
+                --c;
+            } while (binomial(c, i) > rank);
+            rank -= binomial(c, i);
+            subset |= 1L << c;
+        }
+        return subset;
+    }
+}
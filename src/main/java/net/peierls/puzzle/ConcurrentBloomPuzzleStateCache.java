@@ -0,0 +1,64 @@
+package net.peierls.puzzle;
+
+import com.google.common.hash.*;
+
+
+/**
+ * An implementation of {@link PuzzleStateCache} with approximate containment
+ * that is designed for many concurrent writers. Unlike {@link BloomPuzzleStateCache},
+ * it sets bits with lock-free compare-and-set on individual words of a
+ * {@code long} array, so put throughput scales with the number of threads.
+ * <p>
+ * The contract is that of {@link PuzzleStateCache}, except that two
+ * threads putting the same state at the same time might both be told
+ * that it was the first time.
+ */
+public class ConcurrentBloomPuzzleStateCache<T extends PuzzleState<T>>
+        implements PuzzleStateCache<T> {
+
+    private final Funnel<T> funnel;
+    private final LongBloomFilter cache;
+
+
+    public ConcurrentBloomPuzzleStateCache(Funnel<T> funnel, long expectedInsertions, double fpp) {
+        this.funnel = funnel;
+        this.cache = new LongBloomFilter(expectedInsertions, fpp);
+    }
+
+
+    @Override
+    public boolean mightContain(T state) {
+        return cache.mightContain(hash(state));
+    }
+
+    @Override
+    public boolean put(T state) {
+        return cache.put(hash(state));
+    }
+
+    @Override
+    public long approximateElementCount() {
+        return cache.approximateElementCount();
+    }
+
+    @Override
+    public double expectedFalsePositiveProbability() {
+        return cache.expectedFpp();
+    }
+
+    @Override
+    public long memoryFootprintBytes() {
+        return cache.bitSize() / Byte.SIZE;
+    }
+
+    @Override
+    public void close() {
+        Diagnostics.printf("Cache holds approx. %d elements with expected FPP %f:%n",
+            approximateElementCount(), expectedFalsePositiveProbability());
+    }
+
+
+    private long hash(T state) {
+        return Hashing.murmur3_128().hashObject(state, funnel).asLong();
+    }
+}
@@ -0,0 +1,210 @@
+package net.peierls.puzzle;
+
+import com.google.common.hash.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * An implementation of {@link PuzzleStateCache} with approximate containment
+ * that uses a cuckoo filter (Fan et al., "Cuckoo Filter: Practically Better
+ * Than Bloom", 2014) instead of a Bloom filter. Each state is represented
+ * by a short fingerprint stored in one of two buckets of four slots, so
+ * a lookup touches at most two buckets rather than k scattered bits.
+ * <p>
+ * A fingerprint of f bits gives a false positive probability of about
+ * 8/2<sup>f</sup>, for a cost of f/&alpha; bits per state, where &alpha;
+ * is the load factor (sized here at 0.94). That is fewer bits per state
+ * than the 1.44&nbsp;log<sub>2</sub>(1/fpp) that a Bloom filter needs once
+ * the false positive probability is below about 0.002, which is where this
+ * class is most useful.
+ * <p>
+ * Unlike a Bloom filter, a cuckoo filter can fill up. This one is sized for
+ * the expected number of insertions and throws {@link IllegalStateException}
+ * from {@link #put} if it cannot find room for a new fingerprint. Methods
+ * are synchronized, so it is safe but not scalable for concurrent use.
+ */
+public class CuckooPuzzleStateCache<T extends PuzzleState<T>>
+        implements PuzzleStateCache<T> {
+
+    static final int BUCKET_SIZE = 4;
+    static final double LOAD_FACTOR = 0.94;
+    private static final int MAX_KICKS = 500;
+
+    private final Funnel<T> funnel;
+    private final int fingerprintBits;
+    private final long fingerprintMask;
+    private final long numBuckets;
+    private final long[] table;
+    private long count;
+    private long victim; // fingerprint that could not be placed, or 0
+
+
+    public CuckooPuzzleStateCache(Funnel<T> funnel, long expectedInsertions, double fpp) {
+        if (!(fpp > 0.0 && fpp < 1.0)) {
+            throw new IllegalArgumentException("false positive probability must be in (0, 1)");
+        }
+        this.funnel = funnel;
+        this.fingerprintBits = Math.max(4, Math.min(32,
+            (int) Math.ceil(Math.log(2.0 * BUCKET_SIZE / fpp) / Math.log(2))));
+        this.fingerprintMask = (1L << fingerprintBits) - 1;
+        this.numBuckets = Math.max(1L,
+            (long) Math.ceil(Math.max(1L, expectedInsertions) / (BUCKET_SIZE * LOAD_FACTOR)));
+        long words = (numBuckets * BUCKET_SIZE * fingerprintBits + Long.SIZE - 1) / Long.SIZE;
+        if (words > Integer.MAX_VALUE - 1 || numBuckets > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("cuckoo filter would be too large");
+        }
+        this.table = new long[(int) words + 1]; // extra word simplifies straddling reads
+    }
+
+
+    @Override
+    public synchronized boolean mightContain(T state) {
+        long hash = hash(state);
+        long fp = fingerprint(hash);
+        long i1 = index(hash);
+        return victim == fp || contains(i1, fp) || contains(altIndex(i1, fp), fp);
+    }
+
+    @Override
+    public synchronized boolean put(T state) {
+        long hash = hash(state);
+        long fp = fingerprint(hash);
+        long i1 = index(hash);
+        long i2 = altIndex(i1, fp);
+        if (victim == fp || contains(i1, fp) || contains(i2, fp)) {
+            return false;
+        }
+        if (insert(i1, fp) || insert(i2, fp)) {
+            ++count;
+            return true;
+        }
+        if (victim != 0L) {
+            PuzzleEvents.cacheSaturated(this, count, numBuckets * BUCKET_SIZE, "failing");
+            throw new IllegalStateException("cuckoo filter is full");
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long i = random.nextBoolean() ? i1 : i2;
+        for (int kick = 0; kick < MAX_KICKS; ++kick) {
+            long slot = i * BUCKET_SIZE + random.nextInt(BUCKET_SIZE);
+            long evicted = get(slot);
+            set(slot, fp);
+            fp = evicted;
+            i = altIndex(i, fp);
+            if (insert(i, fp)) {
+                ++count;
+                return true;
+            }
+        }
+        // The new state is recorded, but some earlier one has no home.
+        victim = fp;
+        ++count;
+        PuzzleEvents.cacheSaturated(this, count, numBuckets * BUCKET_SIZE, "holding a victim");
+        return true;
+    }
+
+    @Override
+    public synchronized long approximateElementCount() {
+        return count;
+    }
+
+    /**
+     * Probability that a state not put shares a fingerprint with one of
+     * the fingerprints in its two candidate buckets, given the current load.
+     */
+    @Override
+    public synchronized double expectedFalsePositiveProbability() {
+        double entriesProbed = 2.0 * count / numBuckets;
+        return 1.0 - Math.pow(1.0 - 1.0 / fingerprintMask, entriesProbed);
+    }
+
+    @Override
+    public long memoryFootprintBytes() {
+        return (long) table.length * Long.BYTES;
+    }
+
+    @Override
+    public void close() {
+        Diagnostics.printf("Cache holds approx. %d elements with expected FPP %f using %d-bit fingerprints%n",
+            approximateElementCount(), expectedFalsePositiveProbability(), fingerprintBits);
+    }
+
+
+    int fingerprintBits() {
+        return fingerprintBits;
+    }
+
+    long bitSize() {
+        return numBuckets * BUCKET_SIZE * fingerprintBits;
+    }
+
+
+    private long hash(T state) {
+        return Hashing.murmur3_128().hashObject(state, funnel).asLong();
+    }
+
+    /** High bits of hash, never zero, since zero marks an empty slot. */
+    private long fingerprint(long hash) {
+        long fp = hash >>> (Long.SIZE - fingerprintBits);
+        return fp == 0L ? 1L : fp;
+    }
+
+    /** Low 32 bits of hash reduced to a bucket index without division. */
+    private long index(long hash) {
+        return ((hash & 0xffffffffL) * numBuckets) >>> 32;
+    }
+
+    /**
+     * The other bucket for fp, given one of its buckets. Since this is
+     * (h(fp) - i) mod numBuckets, applying it twice gives back i, and
+     * numBuckets need not be a power of two.
+     */
+    private long altIndex(long i, long fp) {
+        long h = (LongHashSet.mix(fp) & Long.MAX_VALUE) % numBuckets;
+        long alt = h - i;
+        return alt < 0 ? alt + numBuckets : alt;
+    }
+
+    private boolean contains(long bucket, long fp) {
+        long slot = bucket * BUCKET_SIZE;
+        for (int j = 0; j < BUCKET_SIZE; ++j) {
+            if (get(slot + j) == fp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean insert(long bucket, long fp) {
+        long slot = bucket * BUCKET_SIZE;
+        for (int j = 0; j < BUCKET_SIZE; ++j) {
+            if (get(slot + j) == 0L) {
+                set(slot + j, fp);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long get(long slot) {
+        long bit = slot * fingerprintBits;
+        int word = (int) (bit >>> 6);
+        int offset = (int) (bit & 63);
+        long value = table[word] >>> offset;
+        if (offset + fingerprintBits > Long.SIZE) {
+            value |= table[word + 1] << (Long.SIZE - offset);
+        }
+        return value & fingerprintMask;
+    }
+
+    private void set(long slot, long fp) {
+        long bit = slot * fingerprintBits;
+        int word = (int) (bit >>> 6);
+        int offset = (int) (bit & 63);
+        table[word] = (table[word] & ~(fingerprintMask << offset)) | (fp << offset);
+        if (offset + fingerprintBits > Long.SIZE) {
+            int shift = Long.SIZE - offset;
+            table[word + 1] = (table[word + 1] & ~(fingerprintMask >>> shift)) | (fp >>> shift);
+        }
+    }
+}
@@ -31,6 +31,14 @@ public class DfsPuzzleSolver<T extends PuzzleState<T>> extends CachingPuzzleSolv
         super(cacheSupplier);
     }
 
+    /**
+     * Constructs a DFS solver that will use caches from the given supplier
+     * and will consult and update the given solution store.
+     */
+    public DfsPuzzleSolver(Supplier<PuzzleStateCache<T>> cacheSupplier, SolutionStore<T> store) {
+        super(cacheSupplier, store);
+    }
+
 
     @Override
     protected Optional<T> solutionState(T initialState, PuzzleStateCache<T> cache) {
@@ -40,11 +48,12 @@ public class DfsPuzzleSolver<T extends PuzzleState<T>> extends CachingPuzzleSolv
                 //.peek(this::trace)
                 .findAny(PuzzleState::isSolution);
         } finally {
-            System.out.printf("DFS stack size: %d%n", stack.size());
+            Diagnostics.printf("DFS stack size: %d%n", stack.size());
         }
     }
 
     private StreamEx<T> dfs(T initialState, PuzzleStateCache<T> cache, Deque<T> stack) {
+        PuzzleEvents.FrontierWatch frontier = new PuzzleEvents.FrontierWatch(this);
         stack.offerFirst(initialState);
         return StreamEx.produce(action -> {
             T state = stack.pollFirst();
@@ -55,6 +64,7 @@ public class DfsPuzzleSolver<T extends PuzzleState<T>> extends CachingPuzzleSolv
             if (state != null) {
                 action.accept(state);
                 state.successors().forEach(stack::offerFirst);
+                frontier.observe(stack.size());
             }
             return true;
         });
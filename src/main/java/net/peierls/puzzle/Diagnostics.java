@@ -0,0 +1,44 @@
+package net.peierls.puzzle;
+
+
+/**
+ * Prints the diagnostics of solvers and caches, such as the size of a
+ * search's frontier or what a cache holds when it is closed, to standard
+ * output, unless they have been made quiet. A program whose standard
+ * output is data, such as a batch solver writing results, makes them
+ * quiet, rather than replacing standard output. They start out quiet if
+ * the system property {@code net.peierls.puzzle.quiet} is true.
+ */
+public final class Diagnostics {
+
+    private static volatile boolean quiet = Boolean.getBoolean("net.peierls.puzzle.quiet");
+
+    private Diagnostics() { /* uninstantiable */ }
+
+
+    /**
+     * Returns true if diagnostics are not being printed.
+     */
+    public static boolean isQuiet() {
+        return quiet;
+    }
+
+    /**
+     * Stops or resumes the printing of diagnostics.
+     */
+    public static void setQuiet(boolean quiet) {
+        Diagnostics.quiet = quiet;
+    }
+
+    /**
+     * Prints a diagnostic, formatted as by {@link String#format},
+     * unless diagnostics are quiet. Implementations of {@link
+     * PuzzleStateCache} and solvers outside this package should print
+     * their diagnostics with this method.
+     */
+    public static void printf(String format, Object... args) {
+        if (!quiet) {
+            System.out.printf(format, args);
+        }
+    }
+}
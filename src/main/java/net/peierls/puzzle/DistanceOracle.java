@@ -0,0 +1,196 @@
+package net.peierls.puzzle;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongFunction;
+import java.util.stream.LongStream;
+
+
+/**
+ * A solver for small puzzles that are solved over and over, which answers
+ * from a precomputed table of each state's distance, in moves, to the
+ * nearest solution state, with no search and no cache: a solution is found
+ * by greedy descent, choosing at each step a successor one move closer to a
+ * solution, in time proportional to the length of the solution.
+ * <p>
+ * The table is built once, over the whole state space of a {@link
+ * RankablePuzzleState} type, with one byte per rank, by a breadth-first
+ * search backward from every solution state. States know only their
+ * successors, not their predecessors, so the search goes by levels: each
+ * pass over the state space gives distance d + 1 to every state not yet
+ * reached that has a successor at distance d, and the search ends when a
+ * pass reaches no new states. Passes are made in parallel, and need
+ * nothing but the table, whatever the number of moves.
+ * <p>
+ * The table is kept in a memory-mapped file: a 16-byte header, with a magic
+ * number and the rank count, followed by a byte for each rank, the distance
+ * of the state with that rank, or 255 if no solution is reachable from it.
+ * Distances are therefore limited to 254 moves, and, since the file is
+ * mapped in one piece, the rank count to a little less than 2^31.
+ */
+public final class DistanceOracle<T extends RankablePuzzleState<T>> implements PuzzleSolver<T> {
+
+    /**
+     * The distance of states from which no solution state can be reached.
+     */
+    public static final int UNREACHABLE = -1;
+
+    private static final long MAGIC = 0x50_7a_6c_44_69_73_74_31L;
+    private static final int HEADER = 2 * Long.BYTES;
+    private static final int MAX_DISTANCE = 254;
+    private static final byte NONE = (byte) 0xFF;
+
+    private final long rankCount;
+    private final ByteBuffer distances;
+
+
+    private DistanceOracle(long rankCount, ByteBuffer distances) {
+        this.rankCount = rankCount;
+        this.distances = distances;
+    }
+
+
+    /**
+     * Builds the distance table of the state space of the states returned
+     * by unrank, which returns the state with the given rank, in the given
+     * file, which is created or replaced, and returns an oracle that uses it.
+     * @throws IllegalArgumentException if the state space is too large
+     * @throws IllegalStateException if some state is more than 254 moves
+     * from the nearest solution state
+     * @throws UncheckedIOException if the file cannot be written
+     */
+    public static <T extends RankablePuzzleState<T>> DistanceOracle<T> build(Path file, LongFunction<T> unrank) {
+        long rankCount = unrank.apply(0L).rankCount();
+        if (rankCount > Integer.MAX_VALUE - HEADER) {
+            throw new IllegalArgumentException("state space too large for distance table: " + rankCount);
+        }
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + rankCount);
+            mapped.order(ByteOrder.LITTLE_ENDIAN).putLong(0, MAGIC).putLong(Long.BYTES, rankCount);
+            ByteBuffer distances = slice(mapped);
+
+            LongStream.range(0, rankCount).parallel().forEach(rank -> {
+                distances.put((int) rank, unrank.apply(rank).isSolution() ? 0 : NONE);
+            });
+            for (int d = 0; pass(distances, rankCount, unrank, d, true); ++d) {
+                if (d + 1 == MAX_DISTANCE && pass(distances, rankCount, unrank, d + 1, false)) {
+                    throw new IllegalStateException("distances exceed " + MAX_DISTANCE + " moves");
+                }
+            }
+            mapped.force();
+            return new DistanceOracle<>(rankCount, distances);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns an oracle that uses the distance table in the given file.
+     * @throws UncheckedIOException if the file cannot be read or is not
+     * a distance table
+     */
+    public static <T extends RankablePuzzleState<T>> DistanceOracle<T> open(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER) {
+                throw new IOException("not a distance table: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            long rankCount = mapped.getLong(Long.BYTES);
+            if (mapped.getLong(0) != MAGIC || channel.size() != HEADER + rankCount) {
+                throw new IOException("not a distance table: " + file);
+            }
+            return new DistanceOracle<>(rankCount, slice(mapped));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long rankCount() {
+        return rankCount;
+    }
+
+    /**
+     * The number of moves from state to the nearest solution state,
+     * or {@link #UNREACHABLE} if no solution state can be reached.
+     * @throws IllegalArgumentException if the state's rank is out of range
+     */
+    public int distance(T state) {
+        long rank = state.rank();
+        if (rank < 0 || rank >= rankCount) {
+            throw new IllegalArgumentException("rank " + rank + " not in [0, " + rankCount + ")");
+        }
+        byte d = distances.get((int) rank);
+        return d == NONE ? UNREACHABLE : d & 0xFF;
+    }
+
+    /**
+     * Returns a shortest solution from initialState, found by greedy
+     * descent of the distance table.
+     * @throws IllegalStateException if the table is inconsistent with
+     * the states' moves, e.g., if it was built for another puzzle
+     */
+    @Override
+    public List<T> solution(T initialState) {
+        int d = distance(initialState);
+        if (d == UNREACHABLE) {
+            return ImmutableList.of();
+        }
+        ImmutableList.Builder<T> solution = ImmutableList.builder();
+        T state = initialState;
+        solution.add(state);
+        for (; d > 0; --d) {
+            int closer = d - 1;
+            state = state.successors()
+                .filter(s -> distance(s) == closer)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("distance table does not match puzzle"));
+            solution.add(state);
+        }
+        if (!state.isSolution()) {
+            throw new IllegalStateException("distance table does not match puzzle");
+        }
+        return solution.build();
+    }
+
+    /**
+     * Makes a pass over the state space, finding the states not yet reached
+     * that have a successor at distance d, and giving them distance d + 1
+     * if assign is true, returning whether there were any.
+     */
+    private static <T extends RankablePuzzleState<T>> boolean pass(
+            ByteBuffer distances, long rankCount, LongFunction<T> unrank, int d, boolean assign) {
+        byte current = (byte) d;
+        byte next = (byte) (d + 1);
+        AtomicBoolean reached = new AtomicBoolean();
+        LongStream.range(0, rankCount).parallel().forEach(rank -> {
+            if (distances.get((int) rank) == NONE
+                    && unrank.apply(rank).successors()
+                        .anyMatch(s -> distances.get((int) s.rank()) == current)) {
+                if (assign) {
+                    distances.put((int) rank, next);
+                }
+                reached.lazySet(true);
+            }
+        });
+        return reached.get();
+    }
+
+    private static ByteBuffer slice(MappedByteBuffer mapped) {
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position(HEADER);
+        return buffer.slice();
+    }
+}
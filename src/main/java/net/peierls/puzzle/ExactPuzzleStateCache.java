@@ -25,10 +25,19 @@ import java.util.concurrent.ConcurrentHashMap;
  * distinct elements added.
  * </li>
  * </ul>
+ * Its {@link #memoryFootprintBytes} is an estimate that does not include
+ * the states themselves, which this cache keeps reachable.
  */
 public class ExactPuzzleStateCache<T extends PuzzleState<T>>
         implements PuzzleStateCache<T> {
 
+    /**
+     * Estimated bytes per entry of a ConcurrentHashMap with compressed
+     * references: a 32-byte node plus its share of the table. The boxed
+     * counts are small enough to be cached by {@link Long#valueOf}.
+     */
+    static final long ENTRY_BYTES = 40L;
+
     private final Map<T, Long> seen = new ConcurrentHashMap<>();
 
 
@@ -52,8 +61,18 @@ public class ExactPuzzleStateCache<T extends PuzzleState<T>>
         return 0.0;
     }
 
+    @Override
+    public boolean isExact() {
+        return true;
+    }
+
+    @Override
+    public long memoryFootprintBytes() {
+        return seen.size() * ENTRY_BYTES;
+    }
+
     @Override
     public void close() {
-        System.out.printf("Cache holds %d elements%n", seen.size());
+        Diagnostics.printf("Cache holds %d elements%n", seen.size());
     }
 }
@@ -0,0 +1,123 @@
+package net.peierls.puzzle;
+
+import com.google.common.hash.*;
+
+import java.util.function.ToLongFunction;
+
+
+/**
+ * An implementation of {@link PuzzleStateCache} for states of any type,
+ * with containment that is exact except for fingerprint collisions.
+ * Each state is reduced through its {@link Funnel} to a 64-bit or 96-bit
+ * murmur3 fingerprint, and only fingerprints are kept, in a primitive
+ * open-addressing table, at about 11 or 16 bytes per state respectively
+ * &mdash; roughly a tenth of what {@link ExactPuzzleStateCache} needs, and
+ * without keeping states reachable.
+ * <p>
+ * The fingerprint width is chosen so that, after the expected number of
+ * insertions, the probability of a new state colliding with a stored one
+ * is no greater than the requested collision probability (if 96 bits
+ * suffice). {@link #expectedFalsePositiveProbability} reports that
+ * probability for the current number of states, and
+ * {@link #approximateElementCount} is the number of distinct fingerprints.
+ */
+public class FingerprintPuzzleStateCache<T extends PuzzleState<T>>
+        implements PuzzleStateCache<T> {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Funnel<T> funnel;
+    private final LongHashSet seen;
+    private final int fingerprintBits;
+
+
+    /**
+     * Constructs a cache with fingerprints wide enough that the
+     * probability of a false positive after the expected number of
+     * insertions is at most collisionProbability.
+     */
+    public FingerprintPuzzleStateCache(Funnel<T> funnel, long expectedInsertions, double collisionProbability) {
+        if (funnel == null) {
+            throw new NullPointerException("funnel must not be null");
+        }
+        if (!(collisionProbability > 0.0 && collisionProbability < 1.0)) {
+            throw new IllegalArgumentException("collision probability must be in (0, 1)");
+        }
+        this.funnel = funnel;
+        this.fingerprintBits = Math.max(1L, expectedInsertions) / Math.pow(2, 64) <= collisionProbability
+            ? 64 : 96;
+        this.seen = new LongHashSet(expectedInsertions, false, fingerprintBits > 64);
+    }
+
+
+    @Override
+    public boolean mightContain(T state) {
+        HashCode hash = HASH.hashObject(state, funnel);
+        return fingerprintBits > 64
+            ? seen.contains(nonZero(hash.asLong()), tag(hash))
+            : seen.contains(hash.asLong());
+    }
+
+    @Override
+    public boolean put(T state) {
+        HashCode hash = HASH.hashObject(state, funnel);
+        return fingerprintBits > 64
+            ? seen.add(nonZero(hash.asLong()), tag(hash))
+            : seen.add(hash.asLong());
+    }
+
+    @Override
+    public long approximateElementCount() {
+        return seen.size();
+    }
+
+    /**
+     * The probability that a state not yet put has the same fingerprint
+     * as one of the states in this cache.
+     */
+    @Override
+    public double expectedFalsePositiveProbability() {
+        return seen.size() / Math.pow(2, fingerprintBits);
+    }
+
+    @Override
+    public long memoryFootprintBytes() {
+        return seen.memoryFootprintBytes();
+    }
+
+    @Override
+    public void close() {
+        Diagnostics.printf("Cache holds %d %d-bit fingerprints with expected FPP %g%n",
+            approximateElementCount(), fingerprintBits, expectedFalsePositiveProbability());
+    }
+
+
+    /**
+     * The width of this cache's fingerprints, 64 or 96.
+     */
+    public int fingerprintBits() {
+        return fingerprintBits;
+    }
+
+    /**
+     * Returns a function giving the 64-bit murmur3 fingerprint of a state, for
+     * use as a key function with primitive-keyed caches when a state type has no
+     * natural 64-bit key and occasional collisions are acceptable.
+     */
+    public static <T> ToLongFunction<T> fingerprintFunction(Funnel<? super T> funnel) {
+        return state -> HASH.hashObject(state, funnel).asLong();
+    }
+
+
+    private static long nonZero(long fingerprint) {
+        return fingerprint == 0L ? 1L : fingerprint;
+    }
+
+    private static int tag(HashCode hash) {
+        byte[] bytes = hash.asBytes();
+        return (bytes[8] & 0xff)
+            | (bytes[9] & 0xff) << 8
+            | (bytes[10] & 0xff) << 16
+            | (bytes[11] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,119 @@
+package net.peierls.puzzle;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.graph.SuccessorsFunction;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+import one.util.streamex.StreamEx;
+
+
+/**
+ * A puzzle state for searching any graph given as a Guava
+ * {@link SuccessorsFunction}, such as a {@link com.google.common.graph.Graph},
+ * for a node satisfying a goal predicate, with any of the framework's
+ * solvers and caches. A state is a node of the graph and the state from
+ * which it was reached; states are equal iff their nodes are.
+ * <p>
+ * Nodes with a natural 64-bit key (or 32-bit, widened) should be tracked
+ * with a primitive cache from {@link #longKeyCaches}, which stores only
+ * the keys. Nodes that <em>are</em> longs or ints are better searched
+ * with {@link LongGraphSolver}, which needs no states at all.
+ */
+public final class GraphPuzzleState<N> implements PuzzleState<GraphPuzzleState<N>> {
+
+    private final N node;
+    private final Problem<N> problem;
+    private final GraphPuzzleState<N> predecessor;
+
+
+    private GraphPuzzleState(N node, Problem<N> problem, GraphPuzzleState<N> predecessor) {
+        this.node = node;
+        this.problem = problem;
+        this.predecessor = predecessor;
+    }
+
+    /**
+     * The initial state of a search of graph from start for
+     * a node satisfying goal.
+     */
+    public static <N> GraphPuzzleState<N> of(N start, SuccessorsFunction<N> graph, Predicate<? super N> goal) {
+        if (start == null || graph == null || goal == null) {
+            throw new NullPointerException("start, graph, and goal must not be null");
+        }
+        return new GraphPuzzleState<>(start, new Problem<>(graph, goal), null);
+    }
+
+    /**
+     * Returns the nodes of a path found by solver in graph from start
+     * to a node satisfying goal, or an empty list if it found none.
+     */
+    public static <N> List<N> path(N start, SuccessorsFunction<N> graph, Predicate<? super N> goal,
+            PuzzleSolver<GraphPuzzleState<N>> solver) {
+        return solver.solution(of(start, graph, goal)).stream()
+            .map(GraphPuzzleState::node)
+            .collect(ImmutableList.toImmutableList());
+    }
+
+    /**
+     * Returns a supplier of exact caches of graph states that store only
+     * the keys of their nodes, given by keyFunction, which must be
+     * injective on the nodes searched.
+     */
+    public static <N> Supplier<PuzzleStateCache<GraphPuzzleState<N>>> longKeyCaches(
+            ToLongFunction<? super N> keyFunction) {
+        ToLongFunction<GraphPuzzleState<N>> stateKey = state -> keyFunction.applyAsLong(state.node);
+        return () -> new LongKeyPuzzleStateCache<>(stateKey);
+    }
+
+
+    public N node() {
+        return node;
+    }
+
+    @Override public boolean isSolution() {
+        return problem.goal.test(node);
+    }
+
+    @Override public Stream<GraphPuzzleState<N>> successors() {
+        return StreamEx.of(problem.graph.successors(node).iterator())
+            .map(n -> new GraphPuzzleState<>(n, problem, this));
+    }
+
+    @Override public Optional<GraphPuzzleState<N>> predecessor() {
+        return Optional.ofNullable(predecessor);
+    }
+
+    @Override public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof GraphPuzzleState)) return false;
+        return node.equals(((GraphPuzzleState<?>) obj).node);
+    }
+
+    @Override public int hashCode() {
+        return node.hashCode();
+    }
+
+    @Override public String toString() {
+        return String.valueOf(node);
+    }
+
+
+    /**
+     * The graph and goal, shared by all states of a search.
+     */
+    private static final class Problem<N> {
+        final SuccessorsFunction<N> graph;
+        final Predicate<? super N> goal;
+
+        Problem(SuccessorsFunction<N> graph, Predicate<? super N> goal) {
+            this.graph = graph;
+            this.goal = goal;
+        }
+    }
+}
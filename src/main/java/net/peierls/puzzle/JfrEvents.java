@@ -0,0 +1,91 @@
+package net.peierls.puzzle;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+
+
+/**
+ * The Flight Recorder event types of the framework, which are only
+ * loaded, by {@link PuzzleEvents}, if the JVM supports them. This is the
+ * only class that refers to {@code jdk.jfr} types, but because it does,
+ * compiling the framework needs a JDK with Flight Recorder, JDK 8u262
+ * or a later update of JDK 8.
+ */
+final class JfrEvents {
+
+    private JfrEvents() { /* uninstantiable */ }
+
+
+    @Name("net.peierls.puzzle.Solve")
+    @Label("Puzzle Solve")
+    @Category({ "Puzzle", "Solver" })
+    @Description("A solve by a caching puzzle solver, from start to end")
+    static final class SolveEvent extends Event {
+        @Label("Solver") String solver;
+        @Label("Cache") String cache;
+        @Label("Outcome") @Description("solved, unsolved, or failed with an exception") String outcome;
+        @Label("Solution Length") int solutionLength;
+        @Label("States Seen") long statesSeen;
+        @Label("False Positive Probability") @Percentage double falsePositiveProbability;
+        @Label("Cache Size") @DataAmount long cacheBytes;
+    }
+
+    @Name("net.peierls.puzzle.Level")
+    @Label("Search Level")
+    @Category({ "Puzzle", "Solver" })
+    @Description("A level of a breadth-first search, all states a given number of moves from the initial state")
+    static final class LevelEvent extends Event {
+        @Label("Solver") String solver;
+        @Label("Level") long level;
+        @Label("States Expanded") long statesExpanded;
+        @Label("Frontier Size") long frontierSize;
+    }
+
+    @Name("net.peierls.puzzle.FrontierHighWater")
+    @Label("Frontier High-Water Mark")
+    @Category({ "Puzzle", "Solver" })
+    @Description("The frontier of a search has reached a new size, about double the last one recorded")
+    static final class FrontierEvent extends Event {
+        @Label("Solver") String solver;
+        @Label("Frontier Size") long frontierSize;
+    }
+
+    @Name("net.peierls.puzzle.TierSwitch")
+    @Label("Cache Tier Switch")
+    @Category({ "Puzzle", "Cache" })
+    @Description("A tiered cache has moved from its exact tier to its Bloom tier")
+    static final class TierSwitchEvent extends Event {
+        @Label("Cache") String cache;
+        @Label("Element Count") long elementCount;
+        @Label("Hot Tier Size") @DataAmount long hotTierBytes;
+        @Label("Byte Budget") @DataAmount long byteBudget;
+        @Label("Overflow Expected Insertions") long overflowExpectedInsertions;
+        @Label("Overflow False Positive Probability") @Percentage double overflowFpp;
+    }
+
+    @Name("net.peierls.puzzle.CacheSaturation")
+    @Label("Cache Saturation")
+    @Category({ "Puzzle", "Cache" })
+    @Description("A cache, or part of one, has filled to the capacity it was sized for")
+    static final class CacheSaturationEvent extends Event {
+        @Label("Cache") String cache;
+        @Label("Element Count") long elementCount;
+        @Label("Capacity") long capacity;
+        @Label("Consequence") String consequence;
+    }
+
+    @Name("net.peierls.puzzle.BudgetExhausted")
+    @Label("Budget Exhausted")
+    @Category({ "Puzzle" })
+    @Description("A search has used up a budget of states or time")
+    static final class BudgetExhaustedEvent extends Event {
+        @Label("Budget") String budget;
+        @Label("Limit") long limit;
+        @Label("Used") long used;
+    }
+}
@@ -0,0 +1,140 @@
+package net.peierls.puzzle;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A thread-safe Bloom filter over 64-bit hashes, with its bits held in
+ * an {@link AtomicLongArray} and set with lock-free compare-and-set, so
+ * that concurrent writers only contend when they touch the same word.
+ * <p>
+ * Element hashes are expanded to the required number of bit indices
+ * by double hashing, as Guava's BloomFilter does, with the second hash
+ * derived from the first.
+ */
+final class LongBloomFilter {
+
+    private static final double LN2 = Math.log(2);
+
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int numHashFunctions;
+    private final LongAdder bitCount = new LongAdder();
+
+
+    LongBloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions < 0) {
+            throw new IllegalArgumentException("expected insertions must not be negative");
+        }
+        if (!(fpp > 0.0 && fpp < 1.0)) {
+            throw new IllegalArgumentException("false positive probability must be in (0, 1)");
+        }
+        long n = Math.max(1L, expectedInsertions);
+        long words = (optimalNumOfBits(n, fpp) + Long.SIZE - 1) / Long.SIZE;
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter would be too large");
+        }
+        this.bits = new AtomicLongArray((int) words);
+        this.bitSize = words * Long.SIZE;
+        this.numHashFunctions = optimalNumOfHashFunctions(n, bitSize);
+    }
+
+
+    /**
+     * Sets the bits for hash, returning true iff any of them changed,
+     * in which case the element was definitely not already present.
+     * Two threads concurrently putting the same element might both
+     * see changes.
+     */
+    boolean put(long hash) {
+        long combined = hash;
+        long step = secondHash(hash);
+        boolean changed = false;
+        for (int i = 0; i < numHashFunctions; ++i, combined += step) {
+            changed |= set((combined & Long.MAX_VALUE) % bitSize);
+        }
+        return changed;
+    }
+
+    boolean mightContain(long hash) {
+        long combined = hash;
+        long step = secondHash(hash);
+        for (int i = 0; i < numHashFunctions; ++i, combined += step) {
+            if (!get((combined & Long.MAX_VALUE) % bitSize)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimate of the number of distinct elements put, based on
+     * the fraction of bits set.
+     */
+    long approximateElementCount() {
+        double fractionOfBitsSet = (double) bitCount.sum() / bitSize;
+        return Math.round(-Math.log1p(-fractionOfBitsSet) * bitSize / numHashFunctions);
+    }
+
+    double expectedFpp() {
+        return Math.pow((double) bitCount.sum() / bitSize, numHashFunctions);
+    }
+
+    long bitSize() {
+        return bitSize;
+    }
+
+    int numHashFunctions() {
+        return numHashFunctions;
+    }
+
+
+    static long optimalNumOfBits(long n, double fpp) {
+        return (long) Math.ceil(-n * Math.log(fpp) / (LN2 * LN2));
+    }
+
+    /**
+     * The lowest false positive probability achievable for n
+     * elements with m bits, but no higher than one half.
+     */
+    static double optimalFpp(long n, long m) {
+        return Math.min(0.5, Math.exp(-(double) m / Math.max(1L, n) * LN2 * LN2));
+    }
+
+    /**
+     * The most elements for which a filter with false positive
+     * probability fpp fits in m bits.
+     */
+    static long maxInsertions(long m, double fpp) {
+        long n = (long) Math.floor((m / Long.SIZE * Long.SIZE) * LN2 * LN2 / -Math.log(fpp));
+        while (n > 0 && optimalNumOfBits(n, fpp) > m / Long.SIZE * Long.SIZE) {
+            --n;
+        }
+        return n;
+    }
+
+    static int optimalNumOfHashFunctions(long n, long m) {
+        return Math.max(1, (int) Math.round((double) m / n * LN2));
+    }
+
+    private static long secondHash(long hash) {
+        return LongHashSet.mix(hash ^ 0x9e3779b97f4a7c15L) | 1L;
+    }
+
+    private boolean get(long bitIndex) {
+        return (bits.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) != 0;
+    }
+
+    private boolean set(long bitIndex) {
+        int i = (int) (bitIndex >>> 6);
+        long mask = 1L << bitIndex;
+        for (long word; ((word = bits.get(i)) & mask) == 0; ) {
+            if (bits.compareAndSet(i, word, word | mask)) {
+                bitCount.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,140 @@
+package net.peierls.puzzle;
+
+import com.google.common.graph.SuccessorsFunction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+
+/**
+ * Breadth-first search of a graph whose nodes are longs, or ints
+ * widened to longs, with no boxing and no per-node objects: each level
+ * of the frontier is a pair of primitive arrays, of nodes and of the
+ * indexes of their parents in the previous level, and nodes already seen
+ * are tracked in a primitive hash set, so a search costs about 20 to 30
+ * bytes per node seen.
+ * <p>
+ * The graph is given by a {@link Graph} function, which can be adapted
+ * from a Guava {@link SuccessorsFunction} with {@link #of} or {@link
+ * #ofInts}, though a primitive implementation avoids boxing successors,
+ * too. For graphs of other node types, see {@link GraphPuzzleState}.
+ */
+public final class LongGraphSolver {
+
+    /**
+     * The successors function of a graph with long nodes.
+     */
+    @FunctionalInterface
+    public interface Graph {
+        /**
+         * Performs the given action on each successor of node.
+         */
+        void forEachSuccessor(long node, LongConsumer action);
+    }
+
+
+    private final Graph graph;
+
+
+    public LongGraphSolver(Graph graph) {
+        if (graph == null) {
+            throw new NullPointerException("graph must not be null");
+        }
+        this.graph = graph;
+    }
+
+    /**
+     * Adapts a Guava successors function on boxed longs.
+     */
+    public static Graph of(SuccessorsFunction<Long> graph) {
+        return (node, action) -> {
+            for (Long successor : graph.successors(node)) {
+                action.accept(successor);
+            }
+        };
+    }
+
+    /**
+     * Adapts a Guava successors function on boxed ints; nodes
+     * passed to it are always in int range.
+     */
+    public static Graph ofInts(SuccessorsFunction<Integer> graph) {
+        return (node, action) -> {
+            for (Integer successor : graph.successors((int) node)) {
+                action.accept(successor);
+            }
+        };
+    }
+
+
+    /**
+     * Returns the nodes of a shortest path from start to a node satisfying
+     * goal, or an empty array if no such node can be reached. The search
+     * does not end if the graph reachable from start is infinite and has
+     * no such node.
+     */
+    public long[] path(long start, LongPredicate goal) {
+        if (goal.test(start)) {
+            return new long[] { start };
+        }
+        LongHashSet seen = new LongHashSet(1L << 10, false);
+        seen.add(start);
+        List<Level> levels = new ArrayList<>();
+        Level level = new Level();
+        level.add(start, -1);
+        while (level.size > 0) {
+            levels.add(level);
+            Level next = new Level();
+            for (int i = 0; i < level.size && next.found < 0; ++i) {
+                int parent = i;
+                graph.forEachSuccessor(level.nodes[i], successor -> {
+                    if (seen.add(successor)) {
+                        if (next.found < 0 && goal.test(successor)) {
+                            next.found = next.size;
+                        }
+                        next.add(successor, parent);
+                    }
+                });
+            }
+            if (next.found >= 0) {
+                long[] path = new long[levels.size() + 1];
+                int index = next.found;
+                path[levels.size()] = next.nodes[index];
+                index = next.parents[index];
+                for (int d = levels.size() - 1; d >= 0; --d) {
+                    Level l = levels.get(d);
+                    path[d] = l.nodes[index];
+                    index = l.parents[index];
+                }
+                return path;
+            }
+            level = next;
+        }
+        return new long[0];
+    }
+
+
+    /**
+     * The nodes of one level of the search, with the index of each
+     * node's parent in the previous level.
+     */
+    private static final class Level {
+        long[] nodes = new long[16];
+        int[] parents = new int[16];
+        int size;
+        int found = -1;
+
+        void add(long node, int parent) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                parents = Arrays.copyOf(parents, size * 2);
+            }
+            nodes[size] = node;
+            parents[size] = parent;
+            ++size;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package net.peierls.puzzle;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+
+/**
+ * A thread-safe, insert-only set of primitive longs, used by the
+ * primitive-keyed cache implementations.
+ * <p>
+ * The set is split into independently locked segments, each of which
+ * is an open-addressing table with linear probing, doubled when it
+ * becomes too full. A segment's table can live on the heap as a
+ * {@code long[]} or off the heap in a direct buffer, so that each
+ * element costs 8 bytes (divided by the load factor) either way.
+ * Zero is used to mark empty slots, so it is tracked separately.
+ * <p>
+ * A <em>tagged</em> set, which must be on the heap, pairs each key with
+ * a 32-bit tag that also takes part in equality, for 96-bit elements.
+ * Tagged keys must not be zero.
+ */
+final class LongHashSet {
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 27;
+    private static final double MAX_LOAD = 0.75;
+
+    /** Bytes taken by the table of an empty untagged set. */
+    static final long MIN_FOOTPRINT_BYTES = (long) SEGMENTS * MIN_SEGMENT_CAPACITY * Long.BYTES;
+
+    /** Results of {@link #add(long, long)}. */
+    static final int PRESENT = 0, ADDED = 1, FULL = -1;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicBoolean containsZero = new AtomicBoolean();
+    private final AtomicLong capacity = new AtomicLong();
+    private final boolean offHeap;
+    private final boolean tagged;
+
+
+    LongHashSet(long expectedInsertions, boolean offHeap) {
+        this(expectedInsertions, offHeap, false);
+    }
+
+    LongHashSet(long expectedInsertions, boolean offHeap, boolean tagged) {
+        if (expectedInsertions < 0) {
+            throw new IllegalArgumentException("expected insertions must not be negative");
+        }
+        if (offHeap && tagged) {
+            throw new IllegalArgumentException("tagged sets must be on the heap");
+        }
+        this.offHeap = offHeap;
+        this.tagged = tagged;
+        int initial = segmentCapacity(expectedInsertions / SEGMENTS + 1);
+        for (int i = 0; i < SEGMENTS; ++i) {
+            segments[i] = new Segment(initial, offHeap, tagged, capacity);
+        }
+    }
+
+
+    /**
+     * Adds key to this set, returning true iff it was not already present.
+     */
+    boolean add(long key) {
+        if (key == 0L) {
+            return containsZero.compareAndSet(false, true);
+        }
+        long hash = mix(key);
+        return segment(hash).add(key, 0, hash, Long.MAX_VALUE) == ADDED;
+    }
+
+    /**
+     * Adds key to this set unless that would make a segment grow to more
+     * than maxCapacity slots in all, counting both the old and the new
+     * table of the segment while it is being doubled. Returns {@link
+     * #ADDED} or {@link #PRESENT}, or {@link #FULL} if key is absent but
+     * was not added.
+     */
+    int add(long key, long maxCapacity) {
+        if (key == 0L) {
+            return containsZero.compareAndSet(false, true) ? ADDED : PRESENT;
+        }
+        long hash = mix(key);
+        return segment(hash).add(key, 0, hash, maxCapacity);
+    }
+
+    boolean contains(long key) {
+        if (key == 0L) {
+            return containsZero.get();
+        }
+        long hash = mix(key);
+        return segment(hash).contains(key, 0, hash);
+    }
+
+    /**
+     * Adds the pair of non-zero key and tag to this tagged set,
+     * returning true iff it was not already present.
+     */
+    boolean add(long key, int tag) {
+        long hash = mix(key);
+        return segment(hash).add(key, tag, hash, Long.MAX_VALUE) == ADDED;
+    }
+
+    boolean contains(long key, int tag) {
+        long hash = mix(key);
+        return segment(hash).contains(key, tag, hash);
+    }
+
+    long size() {
+        long size = containsZero.get() ? 1L : 0L;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Total number of slots allocated, each of which takes 8 bytes,
+     * or 12 in a tagged set.
+     */
+    long capacity() {
+        return capacity.get();
+    }
+
+    boolean isTagged() {
+        return tagged;
+    }
+
+    long memoryFootprintBytes() {
+        return capacity() * (tagged ? Long.BYTES + Integer.BYTES : Long.BYTES);
+    }
+
+    boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Calls action for each key in this set. Keys added concurrently
+     * might or might not be seen.
+     */
+    void forEach(LongConsumer action) {
+        if (containsZero.get()) {
+            action.accept(0L);
+        }
+        for (Segment segment : segments) {
+            segment.forEach(action);
+        }
+    }
+
+
+    /**
+     * Murmur3 64-bit finalizer, to spread keys that are poorly distributed,
+     * such as bitboards.
+     */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private Segment segment(long hash) {
+        return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static int segmentCapacity(long expected) {
+        long needed = (long) Math.ceil(expected / MAX_LOAD);
+        int capacity = MIN_SEGMENT_CAPACITY;
+        while (capacity < needed && capacity < MAX_SEGMENT_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+
+    /**
+     * Slot storage for one segment, either on or off the heap.
+     */
+    private interface Slots {
+        long get(int i);
+        void set(int i, long value);
+        int capacity();
+
+        static Slots allocate(int capacity, boolean offHeap) {
+            return offHeap ? new DirectSlots(capacity) : new HeapSlots(capacity);
+        }
+    }
+
+    private static final class HeapSlots implements Slots {
+        private final long[] slots;
+        HeapSlots(int capacity) { this.slots = new long[capacity]; }
+        @Override public long get(int i) { return slots[i]; }
+        @Override public void set(int i, long value) { slots[i] = value; }
+        @Override public int capacity() { return slots.length; }
+    }
+
+    private static final class DirectSlots implements Slots {
+        private final LongBuffer slots;
+        DirectSlots(int capacity) {
+            this.slots = ByteBuffer.allocateDirect(capacity * Long.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asLongBuffer();
+        }
+        @Override public long get(int i) { return slots.get(i); }
+        @Override public void set(int i, long value) { slots.put(i, value); }
+        @Override public int capacity() { return slots.capacity(); }
+    }
+
+
+    private static final class Segment {
+        private final boolean offHeap;
+        private final boolean tagged;
+        private final AtomicLong totalCapacity;
+        private Slots slots;
+        private int[] tags;
+        private int mask;
+        private int size;
+        private int threshold;
+
+        Segment(int capacity, boolean offHeap, boolean tagged, AtomicLong totalCapacity) {
+            this.offHeap = offHeap;
+            this.tagged = tagged;
+            this.totalCapacity = totalCapacity;
+            totalCapacity.addAndGet(capacity);
+            allocate(capacity);
+        }
+
+        synchronized int add(long key, int tag, long hash, long maxCapacity) {
+            int i = (int) hash & mask;
+            for (long cur; (cur = slots.get(i)) != 0L; i = (i + 1) & mask) {
+                if (cur == key && (tags == null || tags[i] == tag)) {
+                    return PRESENT;
+                }
+            }
+            if (size + 1 > threshold && !reserveGrowth(maxCapacity)) {
+                return FULL;
+            }
+            slots.set(i, key);
+            if (tags != null) {
+                tags[i] = tag;
+            }
+            if (++size > threshold) {
+                grow();
+            }
+            return ADDED;
+        }
+
+        synchronized boolean contains(long key, int tag, long hash) {
+            int i = (int) hash & mask;
+            for (long cur; (cur = slots.get(i)) != 0L; i = (i + 1) & mask) {
+                if (cur == key && (tags == null || tags[i] == tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void forEach(LongConsumer action) {
+            for (int i = 0; i <= mask; ++i) {
+                long key = slots.get(i);
+                if (key != 0L) {
+                    action.accept(key);
+                }
+            }
+        }
+
+        /**
+         * Accounts for doubling this segment's table, unless the old and
+         * new tables together would take the total over maxCapacity.
+         */
+        private boolean reserveGrowth(long maxCapacity) {
+            long growth = slots.capacity();
+            if (growth >= MAX_SEGMENT_CAPACITY) {
+                return true; // grow will fail
+            }
+            for (long total; (total = totalCapacity.get()) + 2 * growth <= maxCapacity; ) {
+                if (totalCapacity.compareAndSet(total, total + growth)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void allocate(int capacity) {
+            this.slots = Slots.allocate(capacity, offHeap);
+            this.tags = tagged ? new int[capacity] : null;
+            this.mask = capacity - 1;
+            this.threshold = capacity >= MAX_SEGMENT_CAPACITY
+                ? capacity - 2
+                : (int) (capacity * MAX_LOAD);
+        }
+
+        private void grow() {
+            if (slots.capacity() >= MAX_SEGMENT_CAPACITY) {
+                throw new IllegalStateException("set segment is full");
+            }
+            Slots old = slots;
+            int[] oldTags = tags;
+            allocate(old.capacity() << 1);
+            for (int j = 0; j < old.capacity(); ++j) {
+                long key = old.get(j);
+                if (key != 0L) {
+                    int i = (int) mix(key) & mask;
+                    while (slots.get(i) != 0L) {
+                        i = (i + 1) & mask;
+                    }
+                    slots.set(i, key);
+                    if (tags != null) {
+                        tags[i] = oldTags[j];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package net.peierls.puzzle;
+
+import java.util.function.ToLongFunction;
+
+
+/**
+ * An implementation of {@link PuzzleStateCache} with exact containment
+ * for states that can be identified by a unique 64-bit key, such as a
+ * bitboard. Only the keys are stored, in a table of primitive longs, so
+ * unlike {@link ExactPuzzleStateCache} it costs roughly 8 to 16 bytes per
+ * state and does not keep states (or their predecessors) reachable.
+ * The table can optionally be allocated off the heap.
+ * <p>
+ * The key function must be injective on the states that will be put
+ * in the cache, i.e., equal keys must imply equal states. Given that,
+ * this cache has the exact containment properties described
+ * in {@link PuzzleStateCache}.
+ */
+public class LongKeyPuzzleStateCache<T extends PuzzleState<T>>
+        implements PuzzleStateCache<T> {
+
+    private static final long DEFAULT_EXPECTED_INSERTIONS = 1L << 16;
+
+    private final ToLongFunction<T> keyFunction;
+    private final LongHashSet seen;
+
+
+    /**
+     * Constructs an on-heap cache with a default initial capacity.
+     */
+    public LongKeyPuzzleStateCache(ToLongFunction<T> keyFunction) {
+        this(keyFunction, DEFAULT_EXPECTED_INSERTIONS, false);
+    }
+
+    /**
+     * Constructs an on-heap cache initially sized for the
+     * given number of insertions; it grows as needed.
+     */
+    public LongKeyPuzzleStateCache(ToLongFunction<T> keyFunction, long expectedInsertions) {
+        this(keyFunction, expectedInsertions, false);
+    }
+
+    /**
+     * Constructs a cache initially sized for the given number of
+     * insertions, storing its table off the heap if {@code offHeap}
+     * is true.
+     */
+    public LongKeyPuzzleStateCache(ToLongFunction<T> keyFunction, long expectedInsertions, boolean offHeap) {
+        if (keyFunction == null) {
+            throw new NullPointerException("key function must not be null");
+        }
+        this.keyFunction = keyFunction;
+        this.seen = new LongHashSet(expectedInsertions, offHeap);
+    }
+
+
+    @Override
+    public boolean mightContain(T state) {
+        return seen.contains(keyFunction.applyAsLong(state));
+    }
+
+    @Override
+    public boolean put(T state) {
+        return seen.add(keyFunction.applyAsLong(state));
+    }
+
+    @Override
+    public long approximateElementCount() {
+        return seen.size();
+    }
+
+    @Override
+    public double expectedFalsePositiveProbability() {
+        return 0.0;
+    }
+
+    @Override
+    public boolean isExact() {
+        return true;
+    }
+
+    @Override
+    public long memoryFootprintBytes() {
+        return seen.memoryFootprintBytes();
+    }
+
+    @Override
+    public void close() {
+        Diagnostics.printf("Cache holds %d elements in %d %s slots%n",
+            seen.size(), seen.capacity(), seen.isOffHeap() ? "off-heap" : "heap");
+    }
+}
@@ -0,0 +1,291 @@
+package net.peierls.puzzle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * An implementation of {@link PuzzleStateCache} with exact containment
+ * that keeps the 64-bit keys of states in memory-mapped files, so that
+ * it can hold billions of states without using the heap, and so that its
+ * contents persist across runs: re-solving or resuming a puzzle with the
+ * same directory starts with every state seen before.
+ * <p>
+ * Keys are partitioned among {@value #PARTITIONS} files, each an
+ * open-addressing hash table that is rehashed into a file twice as large
+ * when it becomes too full. An in-memory scalable Bloom filter in front of
+ * the files answers {@link #mightContain} for unseen states without
+ * touching them; the files are consulted only on Bloom hits, so false
+ * positives cost a lookup rather than a dropped branch, and
+ * {@link #expectedFalsePositiveProbability} is always {@code 0.0}.
+ * The Bloom filter is rebuilt from the files when the cache is opened.
+ * <p>
+ * The key function must be injective on the states put, as for
+ * {@link LongKeyPuzzleStateCache}, and a directory should only ever be
+ * used with one puzzle and key function. Closing the cache flushes the
+ * files to disk. Its {@link #memoryFootprintBytes} includes the mapped
+ * files as well as the in-memory Bloom filter.
+ */
+public class PersistentPuzzleStateCache<T extends PuzzleState<T>>
+        implements PuzzleStateCache<T> {
+
+    static final int PARTITIONS = 64;
+    private static final int PARTITION_BITS = 6;
+    private static final double FRONT_FPP = 0.01;
+
+    private final ToLongFunction<T> keyFunction;
+    private final Partition[] partitions = new Partition[PARTITIONS];
+    private final ScalableLongBloomFilter front;
+
+
+    /**
+     * Opens or creates a cache in the given directory, sizing new
+     * partition files for the expected number of insertions.
+     * @throws UncheckedIOException if the files cannot be opened or created
+     */
+    public PersistentPuzzleStateCache(Path directory, ToLongFunction<T> keyFunction, long expectedInsertions) {
+        if (keyFunction == null) {
+            throw new NullPointerException("key function must not be null");
+        }
+        this.keyFunction = keyFunction;
+        long existing = 0L;
+        try {
+            Files.createDirectories(directory);
+            long perPartition = Math.max(1L, expectedInsertions / PARTITIONS);
+            for (int i = 0; i < PARTITIONS; ++i) {
+                partitions[i] = new Partition(directory.resolve(String.format("keys-%02d.dat", i)), perPartition);
+                existing += partitions[i].size();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.front = new ScalableLongBloomFilter(Math.max(existing, expectedInsertions), FRONT_FPP);
+        for (Partition partition : partitions) {
+            partition.forEach(key -> front.put(LongHashSet.mix(key)));
+        }
+    }
+
+
+    @Override
+    public boolean mightContain(T state) {
+        long key = keyFunction.applyAsLong(state);
+        long hash = LongHashSet.mix(key);
+        return front.mightContain(hash) && partition(hash).contains(key, hash);
+    }
+
+    @Override
+    public boolean put(T state) {
+        long key = keyFunction.applyAsLong(state);
+        long hash = LongHashSet.mix(key);
+        if (!partition(hash).add(key, hash)) {
+            return false;
+        }
+        front.put(hash);
+        return true;
+    }
+
+    @Override
+    public long approximateElementCount() {
+        long size = 0L;
+        for (Partition partition : partitions) {
+            size += partition.size();
+        }
+        return size;
+    }
+
+    @Override
+    public double expectedFalsePositiveProbability() {
+        return 0.0;
+    }
+
+    @Override
+    public boolean isExact() {
+        return true;
+    }
+
+    @Override
+    public long memoryFootprintBytes() {
+        long bytes = front.bitSize() / Byte.SIZE;
+        for (Partition partition : partitions) {
+            bytes += partition.mappedBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        for (Partition partition : partitions) {
+            partition.force();
+        }
+        Diagnostics.printf("Cache holds %d elements on disk%n", approximateElementCount());
+    }
+
+
+    private Partition partition(long hash) {
+        return partitions[(int) (hash >>> (64 - PARTITION_BITS))];
+    }
+
+
+    /**
+     * A memory-mapped open-addressing table of keys, laid out as a
+     * header (magic, capacity, size, zero-key flag) followed by slots.
+     */
+    private static final class Partition {
+        private static final long MAGIC = 0x50757a6b65797331L;
+        private static final int HEADER = 4 * Long.BYTES;
+        private static final int MAX_CAPACITY = 1 << 27;
+        private static final double MAX_LOAD = 0.75;
+
+        private final Path path;
+        private MappedByteBuffer map;
+        private int capacity;
+        private int mask;
+        private long size;
+        private boolean containsZero;
+
+        Partition(Path path, long expectedInsertions) throws IOException {
+            this.path = path;
+            if (Files.exists(path)) {
+                this.map = map(path, Files.size(path));
+                if (map.getLong(0) != MAGIC) {
+                    throw new IOException("not a state key file: " + path);
+                }
+                this.capacity = (int) map.getLong(8);
+                this.size = map.getLong(16);
+                this.containsZero = map.getLong(24) != 0L;
+            } else {
+                int capacity = 16;
+                while (capacity < expectedInsertions / MAX_LOAD && capacity < MAX_CAPACITY) {
+                    capacity <<= 1;
+                }
+                this.map = create(path, capacity);
+                this.capacity = capacity;
+            }
+            this.mask = capacity - 1;
+        }
+
+        synchronized boolean add(long key, long hash) {
+            if (key == 0L) {
+                if (containsZero) {
+                    return false;
+                }
+                containsZero = true;
+                map.putLong(24, 1L);
+                return true;
+            }
+            int i = (int) hash & mask;
+            for (long cur; (cur = slot(i)) != 0L; i = (i + 1) & mask) {
+                if (cur == key) {
+                    return false;
+                }
+            }
+            map.putLong(HEADER + i * Long.BYTES, key);
+            map.putLong(16, ++size);
+            if (size > capacity * MAX_LOAD) {
+                grow();
+            }
+            return true;
+        }
+
+        synchronized boolean contains(long key, long hash) {
+            if (key == 0L) {
+                return containsZero;
+            }
+            int i = (int) hash & mask;
+            for (long cur; (cur = slot(i)) != 0L; i = (i + 1) & mask) {
+                if (cur == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized long size() {
+            return containsZero ? size + 1 : size;
+        }
+
+        synchronized void forEach(LongConsumer action) {
+            if (containsZero) {
+                action.accept(0L);
+            }
+            for (int i = 0; i < capacity; ++i) {
+                long key = slot(i);
+                if (key != 0L) {
+                    action.accept(key);
+                }
+            }
+        }
+
+        synchronized long mappedBytes() {
+            return HEADER + (long) capacity * Long.BYTES;
+        }
+
+        synchronized void force() {
+            map.force();
+        }
+
+        private long slot(int i) {
+            return map.getLong(HEADER + i * Long.BYTES);
+        }
+
+        /**
+         * Rehashes into a temporary file twice the size, then
+         * atomically replaces the old file with it.
+         */
+        private void grow() {
+            if (capacity >= MAX_CAPACITY) {
+                throw new IllegalStateException("state key file is full: " + path);
+            }
+            int newCapacity = capacity << 1;
+            int newMask = newCapacity - 1;
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try {
+                MappedByteBuffer grown = create(tmp, newCapacity);
+                for (int j = 0; j < capacity; ++j) {
+                    long key = slot(j);
+                    if (key != 0L) {
+                        int i = (int) LongHashSet.mix(key) & newMask;
+                        while (grown.getLong(HEADER + i * Long.BYTES) != 0L) {
+                            i = (i + 1) & newMask;
+                        }
+                        grown.putLong(HEADER + i * Long.BYTES, key);
+                    }
+                }
+                grown.putLong(16, size);
+                grown.putLong(24, containsZero ? 1L : 0L);
+                grown.force();
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                this.map = grown;
+                this.capacity = newCapacity;
+                this.mask = newMask;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static MappedByteBuffer create(Path path, int capacity) throws IOException {
+            MappedByteBuffer map = map(path, HEADER + (long) capacity * Long.BYTES);
+            map.putLong(0, MAGIC);
+            map.putLong(8, capacity);
+            return map;
+        }
+
+        private static MappedByteBuffer map(Path path, long length) throws IOException {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+                map.order(ByteOrder.LITTLE_ENDIAN);
+                return map;
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package net.peierls.puzzle;
+
+import java.util.List;
+
+import net.peierls.puzzle.JfrEvents.BudgetExhaustedEvent;
+import net.peierls.puzzle.JfrEvents.CacheSaturationEvent;
+import net.peierls.puzzle.JfrEvents.FrontierEvent;
+import net.peierls.puzzle.JfrEvents.LevelEvent;
+import net.peierls.puzzle.JfrEvents.SolveEvent;
+import net.peierls.puzzle.JfrEvents.TierSwitchEvent;
+
+
+/**
+ * Emits Java Flight Recorder events for solver and cache activity, so
+ * that a slow solve can be diagnosed by starting a recording, e.g., with
+ * {@code jcmd <pid> JFR.start}, with no change to the running program.
+ * The events, all named {@code net.peierls.puzzle.*}, are:
+ * <ul>
+ * <li>Solve, a duration event for each solve by a {@link CachingPuzzleSolver},
+ * with its outcome and the final state of its cache;
+ * </li><li>Level, a duration event for each level of a
+ * {@link BfsPuzzleSolver} search;
+ * </li><li>FrontierHighWater, each time the queue or stack of a search
+ * doubles in size;
+ * </li><li>TierSwitch, when a {@link TieredPuzzleStateCache} moves to
+ * its Bloom tier;
+ * </li><li>CacheSaturation, when a cache, or a slice of one, fills to the
+ * capacity it was sized for;
+ * </li><li>BudgetExhausted, when a search uses up a budget, such as
+ * one enforced by a {@link BudgetedPuzzleStateCache}.
+ * </li>
+ * </ul>
+ * When no recording is running, emitting an event costs a check of
+ * whether its type is enabled, so the calls stay in production code. On
+ * JVMs without Flight Recorder (before 8u262), the methods do nothing,
+ * so the framework runs there; but the event types, in {@code
+ * JfrEvents}, extend {@code jdk.jfr.Event}, so building it needs a JDK
+ * that has Flight Recorder (8u262 or a later update of JDK 8).
+ * <p>
+ * The public methods are for {@link PuzzleStateCache} implementations and
+ * searches outside this package.
+ */
+public final class PuzzleEvents {
+
+    private static final boolean AVAILABLE = isAvailable();
+    private static final long FIRST_FRONTIER_MARK = 1L << 10;
+
+    private PuzzleEvents() { /* uninstantiable */ }
+
+
+    /**
+     * Records that a cache, or part of one, has been filled to the
+     * capacity it was sized for, with the given consequence, e.g.,
+     * "adding slice" or "evicting".
+     */
+    public static void cacheSaturated(Object cache, long elementCount, long capacity, String consequence) {
+        if (AVAILABLE) {
+            CacheSaturationEvent event = new CacheSaturationEvent();
+            if (event.shouldCommit()) {
+                event.cache = name(cache);
+                event.elementCount = elementCount;
+                event.capacity = capacity;
+                event.consequence = consequence;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Records that the given budget, e.g., "states" or "millis", with the
+     * given limit, has been used up.
+     */
+    public static void budgetExhausted(String budget, long limit, long used) {
+        if (AVAILABLE) {
+            BudgetExhaustedEvent event = new BudgetExhaustedEvent();
+            if (event.shouldCommit()) {
+                event.budget = budget;
+                event.limit = limit;
+                event.used = used;
+                event.commit();
+            }
+        }
+    }
+
+
+    /**
+     * Begins a solve event, returning a handle to pass to {@link #endSolve},
+     * or null if solve events are not being recorded.
+     */
+    static Object beginSolve() {
+        if (AVAILABLE) {
+            SolveEvent event = new SolveEvent();
+            if (event.isEnabled()) {
+                event.begin();
+                return event;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ends the solve event with the given handle, if any, for a solve
+     * that found the given solution, or failed if it is null.
+     */
+    static <T extends PuzzleState<T>> void endSolve(Object handle, Object solver,
+            PuzzleStateCache<T> cache, List<T> solution) {
+        if (handle != null) {
+            SolveEvent event = (SolveEvent) handle;
+            event.end();
+            if (event.shouldCommit()) {
+                event.solver = name(solver);
+                event.cache = name(cache);
+                event.outcome = solution == null ? "failed" : solution.isEmpty() ? "unsolved" : "solved";
+                event.solutionLength = solution == null ? 0 : solution.size();
+                event.statesSeen = cache.approximateElementCount();
+                event.falsePositiveProbability = cache.expectedFalsePositiveProbability();
+                event.cacheBytes = cache.memoryFootprintBytes();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Begins a search level event, returning a handle to pass to
+     * {@link #endLevel}, or null if level events are not being recorded.
+     */
+    static Object beginLevel() {
+        if (AVAILABLE) {
+            LevelEvent event = new LevelEvent();
+            if (event.isEnabled()) {
+                event.begin();
+                return event;
+            }
+        }
+        return null;
+    }
+
+    static void endLevel(Object handle, Object solver, long level, long statesExpanded, long frontierSize) {
+        if (handle != null) {
+            LevelEvent event = (LevelEvent) handle;
+            event.end();
+            if (event.shouldCommit()) {
+                event.solver = name(solver);
+                event.level = level;
+                event.statesExpanded = statesExpanded;
+                event.frontierSize = frontierSize;
+                event.commit();
+            }
+        }
+    }
+
+    static void tierSwitched(Object cache, TieredPuzzleStateCache.TierSwitch tierSwitch) {
+        if (AVAILABLE) {
+            TierSwitchEvent event = new TierSwitchEvent();
+            if (event.shouldCommit()) {
+                event.cache = name(cache);
+                event.elementCount = tierSwitch.elementCount();
+                event.hotTierBytes = tierSwitch.hotTierBytes();
+                event.byteBudget = tierSwitch.byteBudget();
+                event.overflowExpectedInsertions = tierSwitch.overflowExpectedInsertions();
+                event.overflowFpp = tierSwitch.overflowFpp();
+                event.commit();
+            }
+        }
+    }
+
+
+    /**
+     * Tracks the size of a search's frontier, recording an event each
+     * time it reaches about double the size last recorded. Not thread-safe;
+     * each search has its own.
+     */
+    static final class FrontierWatch {
+        private final Object solver;
+        private long mark = FIRST_FRONTIER_MARK;
+
+        FrontierWatch(Object solver) {
+            this.solver = solver;
+        }
+
+        void observe(long size) {
+            if (size >= mark) {
+                mark = 2 * size;
+                if (AVAILABLE) {
+                    FrontierEvent event = new FrontierEvent();
+                    if (event.shouldCommit()) {
+                        event.solver = name(solver);
+                        event.frontierSize = size;
+                        event.commit();
+                    }
+                }
+            }
+        }
+    }
+
+
+    private static String name(Object object) {
+        return object.getClass().getName();
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, PuzzleEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -27,6 +27,7 @@ package net.peierls.puzzle;
  * distinct elements added.
  * </li>
  * </ul>
+ * Such implementations report it through {@link #isExact}.
  */
 public interface PuzzleStateCache<T extends PuzzleState<T>> extends AutoCloseable {
 
@@ -58,6 +59,27 @@ public interface PuzzleStateCache<T extends PuzzleState<T>> extends AutoCloseabl
      */
     double expectedFalsePositiveProbability();
 
+    /**
+     * Returns true if this cache never reports a state as possibly put
+     * that was not, so that a search with it that finds no solution
+     * proves that none can be reached. A cache keyed by a function of
+     * states can only be exact if the function is injective; one keyed by
+     * hashes or fingerprints is not, even if it reports a false positive
+     * probability of zero. The default implementation returns false.
+     */
+    default boolean isExact() {
+        return false;
+    }
+
+    /**
+     * Approximate number of bytes of memory, on or off the heap,
+     * currently used by this cache to record states, or -1 if unknown.
+     * The default implementation returns -1.
+     */
+    default long memoryFootprintBytes() {
+        return -1L;
+    }
+
     /**
      * Operation to perform on close.
      * Default is no-op.
@@ -0,0 +1,84 @@
+package net.peierls.puzzle;
+
+import com.google.common.hash.Funnel;
+
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * Static factories for {@link PuzzleStateCache} suppliers.
+ */
+public final class PuzzleStateCaches {
+
+    /**
+     * Upper bound on the bytes per state of a primitive hash set,
+     * whose load factor stays between 3/8 and 3/4.
+     */
+    static final long HASH_SET_BYTES_PER_STATE = 22L;
+
+    private PuzzleStateCaches() { /* uninstantiable */ }
+
+
+    /**
+     * Returns a supplier of caches for states without a natural 64-bit key,
+     * chosen and sized to fit in the given byte budget.
+     * @see #withinBudget(long, long, double, Funnel, ToLongFunction)
+     */
+    public static <T extends PuzzleState<T>> Supplier<PuzzleStateCache<T>> withinBudget(
+            long byteBudget, long expectedInsertions, double fpp, Funnel<T> funnel) {
+        return withinBudget(byteBudget, expectedInsertions, fpp, funnel, null);
+    }
+
+    /**
+     * Returns a supplier of caches chosen and sized to fit in the given byte
+     * budget, preferring exactness when the budget allows it:
+     * <ul>
+     * <li>
+     * If keyFunction is not null and the budget is at least {@link
+     * TieredPuzzleStateCache#MIN_BYTE_BUDGET}, a {@link
+     * TieredPuzzleStateCache} on the keys, which is exact until it nears
+     * the budget and then switches to a Bloom filter, whatever the
+     * expected number of insertions.
+     * </li><li>
+     * Otherwise, if the budget is at least that minimum and 64-bit
+     * fingerprints for the expected number of insertions fit in it, a
+     * {@link TieredPuzzleStateCache} on fingerprints, which is exact except for fingerprint collisions,
+     * whose probability it reports, until it nears the budget; it is never
+     * {@link PuzzleStateCache#isExact exact}.
+     * </li><li>
+     * Otherwise a {@link ScalableBloomPuzzleStateCache} whose first slice
+     * fills the budget, with false positive probability fpp or, if that
+     * cannot be achieved within the budget, the lowest one that can
+     * (if even one half cannot be, the slice is sized for fewer states).
+     * </li>
+     * </ul>
+     * The caches never use more than the budget, even when the expected
+     * number of insertions is wrong: the tiered caches switch tiers at
+     * run time, and the Bloom caches add slices until the budget is
+     * filled, and after that let their false positive probabilities rise.
+     *
+     * @param keyFunction function giving unique 64-bit keys for states,
+     * or null if there is no such function
+     */
+    public static <T extends PuzzleState<T>> Supplier<PuzzleStateCache<T>> withinBudget(
+            long byteBudget, long expectedInsertions, double fpp,
+            Funnel<T> funnel, ToLongFunction<T> keyFunction) {
+        if (byteBudget <= 0) {
+            throw new IllegalArgumentException("byte budget must be positive");
+        }
+        if (funnel == null) {
+            throw new NullPointerException("funnel must not be null");
+        }
+        boolean tiered = byteBudget >= TieredPuzzleStateCache.MIN_BYTE_BUDGET;
+        if (tiered && keyFunction != null) {
+            return () -> new TieredPuzzleStateCache<>(keyFunction, byteBudget, fpp);
+        }
+        if (tiered && expectedInsertions * HASH_SET_BYTES_PER_STATE <= byteBudget) {
+            ToLongFunction<T> fingerprint = FingerprintPuzzleStateCache.fingerprintFunction(funnel);
+            return () -> new TieredPuzzleStateCache<>(fingerprint, true, byteBudget, fpp);
+        }
+        double budgetFpp = Math.max(fpp, ScalableLongBloomFilter.optimalFpp(expectedInsertions, byteBudget * Byte.SIZE));
+        return () -> new ScalableBloomPuzzleStateCache<>(funnel, expectedInsertions, budgetFpp, byteBudget);
+    }
+}
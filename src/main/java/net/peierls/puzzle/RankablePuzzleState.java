@@ -0,0 +1,29 @@
+package net.peierls.puzzle;
+
+
+/**
+ * A puzzle state whose state space is small enough to be numbered
+ * densely: each state has a <em>rank</em> in [0, N), where N is the
+ * {@link #rankCount rank count}, the same for all states of a puzzle,
+ * and distinct states have distinct ranks. Ranked states can be tracked
+ * by a {@link RankedPuzzleStateCache} with one bit per possible state,
+ * so that checking whether a state has been seen is a single bit test.
+ * <p>
+ * A state that is a choice of k of n positions, such as a coloring with
+ * a fixed number of each of two colors, can be ranked with the
+ * combinatorial number system, as computed by {@link Combinations#rank}.
+ */
+public interface RankablePuzzleState<T extends RankablePuzzleState<T>> extends PuzzleState<T> {
+
+    /**
+     * This state's rank, in [0, {@link #rankCount}), which must be
+     * consistent with {@code equals}: states are equal iff their ranks
+     * are equal.
+     */
+    long rank();
+
+    /**
+     * The number of possible ranks of states of this state's puzzle.
+     */
+    long rankCount();
+}
@@ -0,0 +1,91 @@
+package net.peierls.puzzle;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * An implementation of {@link PuzzleStateCache} with exact containment
+ * for {@link RankablePuzzleState ranked states}, with one bit for each
+ * possible rank, so that it costs N/8 bytes for a state space of N
+ * states, however many are put, and each operation is a single bit test
+ * (and set). It suits state spaces small enough that every state could
+ * be seen, where a hash set would spend far more per state.
+ */
+public class RankedPuzzleStateCache<T extends RankablePuzzleState<T>>
+        implements PuzzleStateCache<T> {
+
+    private static final long MAX_RANK_COUNT = (long) Integer.MAX_VALUE * Long.SIZE;
+
+    private final long rankCount;
+    private final AtomicLongArray bits;
+    private final AtomicLong count = new AtomicLong();
+
+
+    /**
+     * Constructs a cache for states whose ranks are less than rankCount.
+     * @throws IllegalArgumentException if rankCount is not positive or
+     * is too large for a single array of bits
+     */
+    public RankedPuzzleStateCache(long rankCount) {
+        if (rankCount <= 0 || rankCount > MAX_RANK_COUNT) {
+            throw new IllegalArgumentException("rank count must be in [1, " + MAX_RANK_COUNT + "]");
+        }
+        this.rankCount = rankCount;
+        this.bits = new AtomicLongArray((int) ((rankCount + Long.SIZE - 1) / Long.SIZE));
+    }
+
+
+    @Override
+    public boolean mightContain(T state) {
+        long rank = rank(state);
+        return (bits.get((int) (rank >>> 6)) & (1L << rank)) != 0L;
+    }
+
+    @Override
+    public boolean put(T state) {
+        long rank = rank(state);
+        int i = (int) (rank >>> 6);
+        long mask = 1L << rank;
+        for (long word; ((word = bits.get(i)) & mask) == 0L; ) {
+            if (bits.compareAndSet(i, word, word | mask)) {
+                count.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long approximateElementCount() {
+        return count.get();
+    }
+
+    @Override
+    public double expectedFalsePositiveProbability() {
+        return 0.0;
+    }
+
+    @Override
+    public boolean isExact() {
+        return true;
+    }
+
+    @Override
+    public long memoryFootprintBytes() {
+        return (long) bits.length() * Long.BYTES;
+    }
+
+    @Override
+    public void close() {
+        Diagnostics.printf("Cache holds %d of %d ranked states%n", count.get(), rankCount);
+    }
+
+    private long rank(T state) {
+        long rank = state.rank();
+        if (rank < 0 || rank >= rankCount) {
+            throw new IllegalArgumentException("rank " + rank + " not in [0, " + rankCount + ")");
+        }
+        return rank;
+    }
+}
@@ -0,0 +1,91 @@
+package net.peierls.puzzle;
+
+import com.google.common.hash.*;
+
+
+/**
+ * An implementation of {@link PuzzleStateCache} with approximate containment
+ * that, unlike {@link BloomPuzzleStateCache}, does not degrade when more
+ * states are put than expected. It adds geometrically larger Bloom filter
+ * slices with geometrically smaller false positive probabilities as it
+ * fills, so the overall false positive probability stays below the
+ * requested value no matter how many states are put.
+ * {@link #expectedFalsePositiveProbability} reports the probability
+ * compounded over all slices.
+ * <p>
+ * If it is given a byte budget, its slices never total more than that;
+ * once the budget is filled, its false positive probability rises with
+ * each state put, as for {@link BloomPuzzleStateCache}.
+ * <p>
+ * It is safe for concurrent use, with the caveat described for
+ * {@link ConcurrentBloomPuzzleStateCache}.
+ */
+public class ScalableBloomPuzzleStateCache<T extends PuzzleState<T>>
+        implements PuzzleStateCache<T> {
+
+    private final Funnel<T> funnel;
+    private final ScalableLongBloomFilter cache;
+
+
+    /**
+     * Constructs a cache whose first slice is sized for the given number of
+     * insertions and whose false positive probability never exceeds fpp.
+     */
+    public ScalableBloomPuzzleStateCache(Funnel<T> funnel, long initialExpectedInsertions, double fpp) {
+        this.funnel = funnel;
+        this.cache = new ScalableLongBloomFilter(initialExpectedInsertions, fpp);
+    }
+
+    /**
+     * Constructs a cache whose first slice is sized for the given number of
+     * insertions, or as many as fit in the byte budget, and whose false
+     * positive probability does not exceed fpp until its slices fill the
+     * budget.
+     */
+    public ScalableBloomPuzzleStateCache(Funnel<T> funnel, long initialExpectedInsertions, double fpp,
+            long byteBudget) {
+        if (byteBudget <= 0) {
+            throw new IllegalArgumentException("byte budget must be positive");
+        }
+        this.funnel = funnel;
+        this.cache = new ScalableLongBloomFilter(initialExpectedInsertions, fpp, byteBudget * Byte.SIZE);
+    }
+
+
+    @Override
+    public boolean mightContain(T state) {
+        return cache.mightContain(hash(state));
+    }
+
+    @Override
+    public boolean put(T state) {
+        return cache.put(hash(state));
+    }
+
+    @Override
+    public long approximateElementCount() {
+        return cache.approximateElementCount();
+    }
+
+    @Override
+    public double expectedFalsePositiveProbability() {
+        return cache.expectedFpp();
+    }
+
+    @Override
+    public long memoryFootprintBytes() {
+        return cache.bitSize() / Byte.SIZE;
+    }
+
+    @Override
+    public void close() {
+        Diagnostics.printf("Cache holds approx. %d elements in %d slices with expected FPP %f (bound %f)%n",
+            approximateElementCount(), cache.sliceCount(),
+            expectedFalsePositiveProbability(), cache.fppBound());
+    }
+
+
+    private long hash(T state) {
+        return Hashing.murmur3_128().hashObject(state, funnel).asLong();
+    }
+}
@@ -0,0 +1,205 @@
+package net.peierls.puzzle;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A thread-safe scalable Bloom filter over 64-bit hashes, after
+ * Almeida et al., "Scalable Bloom Filters" (2007). It is a series of
+ * {@link LongBloomFilter} slices; when the newest slice has had as many
+ * insertions as it was sized for, a slice {@link #GROWTH} times larger,
+ * with a false positive probability {@link #TIGHTENING} times smaller,
+ * is added. The per-slice probabilities form a geometric series whose
+ * sum is the requested probability, which therefore bounds the
+ * compounded probability however many elements are put.
+ * <p>
+ * A filter can be given a limit on its total size in bits. A slice that
+ * would not fit within it is made as large as will fit; once no slice
+ * will, the newest slice takes further insertions beyond its capacity,
+ * and the probability, as reported by {@link #expectedFpp}, rises above
+ * the requested one.
+ */
+final class ScalableLongBloomFilter {
+
+    static final int GROWTH = 2;
+    static final double TIGHTENING = 0.5;
+
+    private final double fpp;
+    private volatile long maxBits;
+    private volatile Slice[] slices;
+    private volatile boolean atLimit; // no slice fits within maxBits
+
+
+    ScalableLongBloomFilter(long initialExpectedInsertions, double fpp) {
+        this(initialExpectedInsertions, fpp, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a filter whose slices never total more than maxBits,
+     * with a first slice no larger than that, even if it must then be
+     * sized for fewer insertions than requested.
+     */
+    ScalableLongBloomFilter(long initialExpectedInsertions, double fpp, long maxBits) {
+        if (!(fpp > 0.0 && fpp < 1.0)) {
+            throw new IllegalArgumentException("false positive probability must be in (0, 1)");
+        }
+        double sliceFpp = fpp * (1 - TIGHTENING);
+        long initial = Math.max(1L, initialExpectedInsertions);
+        if (maxBits < Long.MAX_VALUE) {
+            initial = Math.max(1L, Math.min(initial, LongBloomFilter.maxInsertions(maxBits, sliceFpp)));
+        }
+        this.fpp = fpp;
+        this.maxBits = maxBits;
+        this.slices = new Slice[] { new Slice(initial, sliceFpp) };
+    }
+
+
+    /**
+     * Puts hash in the newest slice unless some slice might already
+     * contain it, returning true iff it was definitely not present.
+     */
+    boolean put(long hash) {
+        Slice[] slices = this.slices;
+        Slice current = slices[slices.length - 1];
+        if (current.count.get() >= current.capacity && !atLimit && grow(current)) {
+            // A racing put filled the newest slice before it could be grown.
+            slices = this.slices;
+            current = slices[slices.length - 1];
+        }
+        for (int i = 0; i < slices.length - 1; ++i) {
+            if (slices[i].filter.mightContain(hash)) {
+                return false;
+            }
+        }
+        if (!current.filter.put(hash)) {
+            return false;
+        }
+        if (current.count.incrementAndGet() == current.capacity) {
+            grow(current);
+        }
+        return true;
+    }
+
+    boolean mightContain(long hash) {
+        for (Slice slice : slices) {
+            if (slice.filter.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    long approximateElementCount() {
+        double count = 0.0; // a saturated slice estimates Long.MAX_VALUE
+        for (Slice slice : slices) {
+            count += slice.filter.approximateElementCount();
+        }
+        return (long) count;
+    }
+
+    /**
+     * Probability that at least one slice reports a false positive,
+     * based on the bits actually set in each.
+     */
+    double expectedFpp() {
+        double none = 1.0;
+        for (Slice slice : slices) {
+            none *= 1.0 - slice.filter.expectedFpp();
+        }
+        return 1.0 - none;
+    }
+
+    /**
+     * The probability bound that this filter maintains.
+     */
+    double fppBound() {
+        return fpp;
+    }
+
+    /**
+     * The lowest probability bound for which the first slice of a filter
+     * sized for n elements fits in m bits, but no higher than one half.
+     */
+    static double optimalFpp(long n, long m) {
+        return Math.min(0.5, LongBloomFilter.optimalFpp(n, m - Long.SIZE) / (1 - TIGHTENING));
+    }
+
+    /**
+     * The most insertions for which the first slice of a filter with
+     * probability bound fpp fits in m bits.
+     */
+    static long maxInitialInsertions(long m, double fpp) {
+        return LongBloomFilter.maxInsertions(m, fpp * (1 - TIGHTENING));
+    }
+
+    /**
+     * Lets the slices total up to maxBits, which must be no less
+     * than before.
+     */
+    synchronized void raiseMaxBits(long maxBits) {
+        if (maxBits < this.maxBits) {
+            throw new IllegalArgumentException("size limit must not be lowered");
+        }
+        this.maxBits = maxBits;
+        this.atLimit = false;
+        Slice newest = slices[slices.length - 1];
+        if (newest.count.get() >= newest.capacity) {
+            grow(newest);
+        }
+    }
+
+    int sliceCount() {
+        return slices.length;
+    }
+
+    long bitSize() {
+        long bits = 0L;
+        for (Slice slice : slices) {
+            bits += slice.filter.bitSize();
+        }
+        return bits;
+    }
+
+
+    /**
+     * Adds a slice after full unless one has already been added, returning
+     * true iff there is one, or false if none fits within the size limit.
+     */
+    private synchronized boolean grow(Slice full) {
+        Slice[] slices = this.slices;
+        if (slices[slices.length - 1] != full) {
+            return true;
+        }
+        long capacity = full.capacity * GROWTH;
+        double sliceFpp = full.fpp * TIGHTENING;
+        if (maxBits < Long.MAX_VALUE) {
+            capacity = Math.min(capacity, LongBloomFilter.maxInsertions(maxBits - bitSize(), sliceFpp));
+            if (capacity <= 0) {
+                if (!atLimit) {
+                    atLimit = true;
+                    PuzzleEvents.cacheSaturated(this, full.count.get(), full.capacity, "overfilling at size limit");
+                }
+                return false;
+            }
+        }
+        Slice[] grown = Arrays.copyOf(slices, slices.length + 1);
+        grown[slices.length] = new Slice(capacity, sliceFpp);
+        this.slices = grown;
+        PuzzleEvents.cacheSaturated(this, full.count.get(), full.capacity, "adding slice " + slices.length);
+        return true;
+    }
+
+    private static final class Slice {
+        final long capacity;
+        final double fpp;
+        final LongBloomFilter filter;
+        final AtomicLong count = new AtomicLong();
+
+        Slice(long capacity, double fpp) {
+            this.capacity = capacity;
+            this.fpp = fpp;
+            this.filter = new LongBloomFilter(capacity, fpp);
+        }
+    }
+}
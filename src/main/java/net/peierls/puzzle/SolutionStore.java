@@ -0,0 +1,277 @@
+package net.peierls.puzzle;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * A bounded, thread-safe store of what previous solves have learned about
+ * states of a puzzle, meant to be shared by solvers across many solves of
+ * the same puzzle from different states. It records states known to be
+ * solvable, each with the key of the next state on a path to a solution,
+ * and states known to be hopeless. A {@link CachingPuzzleSolver} given a
+ * store consults it before searching from any state and records into it
+ * what each solve discovers, so that re-solving from a state on a
+ * previously found solution path takes time proportional to the length
+ * of the path.
+ * <p>
+ * States are identified by 64-bit keys, which should be unique, as for
+ * {@link LongKeyPuzzleStateCache}; if they are fingerprints, a collision
+ * can at worst cause a remembered path to be rejected, since paths are
+ * replayed through {@link PuzzleState#successors} and checked with
+ * {@link PuzzleState#isSolution}. Entries are held in primitive arrays
+ * organized as {@value #WAYS}-way set-associative buckets, each with its
+ * own CLOCK hand: a full bucket evicts the first entry that has not been
+ * used since the hand last passed it.
+ */
+public class SolutionStore<T extends PuzzleState<T>> {
+
+    static final int WAYS = 8;
+
+    private static final byte OCCUPIED = 1;
+    private static final byte REFERENCED = 2;
+    private static final byte SOLVABLE = 4;
+    private static final byte SOLUTION = 8;
+    private static final byte HOPELESS = 16;
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final ToLongFunction<T> keyFunction;
+    private final long[] keys;
+    private final long[] nextKeys;
+    private final byte[] flags;
+    private final byte[] hands;
+    private final int bucketMask;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+
+    /**
+     * Constructs a store that holds at most (approximately)
+     * the given number of states.
+     */
+    public SolutionStore(ToLongFunction<T> keyFunction, int capacity) {
+        if (keyFunction == null) {
+            throw new NullPointerException("key function must not be null");
+        }
+        if (capacity <= 0 || capacity > 1 << 28) {
+            throw new IllegalArgumentException("capacity must be positive and at most 2^28");
+        }
+        int buckets = 1;
+        while (buckets * WAYS < capacity) {
+            buckets <<= 1;
+        }
+        this.keyFunction = keyFunction;
+        this.keys = new long[buckets * WAYS];
+        this.nextKeys = new long[buckets * WAYS];
+        this.flags = new byte[buckets * WAYS];
+        this.hands = new byte[buckets];
+        this.bucketMask = buckets - 1;
+        for (int i = 0; i < LOCK_STRIPES; ++i) {
+            locks[i] = new Object();
+        }
+    }
+
+
+    /**
+     * Returns true if state is known to be hopeless.
+     */
+    public boolean isKnownHopeless(T state) {
+        return (lookup(keyFunction.applyAsLong(state), null) & HOPELESS) != 0;
+    }
+
+    /**
+     * Returns true if state is known to be solvable.
+     */
+    public boolean isKnownSolvable(T state) {
+        return (lookup(keyFunction.applyAsLong(state), null) & (SOLVABLE | SOLUTION)) != 0;
+    }
+
+    /**
+     * Returns null if state is known to be hopeless, its solution state
+     * if it is known to be solvable and the path can be replayed, or
+     * otherwise state itself. This is equivalent to using
+     * {@link #isKnownHopeless} and {@link #solutionFrom}, but looks up
+     * unknown states only once.
+     */
+    T consult(T state) {
+        byte found = lookup(keyFunction.applyAsLong(state), null);
+        if ((found & HOPELESS) != 0) {
+            return null;
+        }
+        if ((found & (SOLVABLE | SOLUTION)) != 0) {
+            return solutionFrom(state).orElse(state);
+        }
+        return state;
+    }
+
+    /**
+     * If state is known to be solvable, replays the remembered path from it,
+     * returning the solution state at the end of the path, whose predecessors
+     * lead back through state. Returns empty if state is not known to be
+     * solvable, or if the path cannot be replayed because part of it has
+     * been evicted.
+     */
+    public Optional<T> solutionFrom(T state) {
+        long[] next = new long[1];
+        T cur = state;
+        for (int steps = 0; steps <= keys.length; ++steps) {
+            byte found = lookup(keyFunction.applyAsLong(cur), next);
+            if ((found & SOLUTION) != 0) {
+                return cur.isSolution() ? Optional.of(cur) : Optional.empty();
+            }
+            if ((found & SOLVABLE) == 0) {
+                return Optional.empty();
+            }
+            long nextKey = next[0];
+            Optional<T> succ = cur.successors()
+                .filter(s -> keyFunction.applyAsLong(s) == nextKey)
+                .findFirst();
+            if (!succ.isPresent()) {
+                return Optional.empty();
+            }
+            cur = succ.get();
+        }
+        return Optional.empty(); // a cycle of colliding keys
+    }
+
+    /**
+     * Records every state of a solution (a list of states, each a successor
+     * of the one before, ending in a solution state) as solvable.
+     */
+    public void recordSolution(List<T> solution) {
+        for (int i = 0; i < solution.size(); ++i) {
+            T state = solution.get(i);
+            if (i + 1 < solution.size()) {
+                store(keyFunction.applyAsLong(state), SOLVABLE,
+                    keyFunction.applyAsLong(solution.get(i + 1)));
+            } else if (state.isSolution()) {
+                store(keyFunction.applyAsLong(state), SOLUTION, 0L);
+            }
+        }
+    }
+
+    /**
+     * Records state as hopeless.
+     */
+    public void recordHopeless(T state) {
+        store(keyFunction.applyAsLong(state), HOPELESS, 0L);
+    }
+
+    /**
+     * Number of lookups that found an entry.
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of lookups that did not find an entry.
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Number of entries evicted to make room for others.
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Maximum number of states this store can hold.
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Approximate number of bytes of heap used by this store.
+     */
+    public long memoryFootprintBytes() {
+        return keys.length * (2L * Long.BYTES + 1L) + hands.length;
+    }
+
+
+    /**
+     * Returns the flags of the entry for key, or zero if there is none,
+     * storing its next key in next[0] if next is not null.
+     */
+    private byte lookup(long key, long[] next) {
+        int bucket = bucket(key);
+        synchronized (lock(bucket)) {
+            int base = bucket * WAYS;
+            for (int i = base; i < base + WAYS; ++i) {
+                if ((flags[i] & OCCUPIED) != 0 && keys[i] == key) {
+                    flags[i] = (byte) (flags[i] | REFERENCED);
+                    if (next != null) {
+                        next[0] = nextKeys[i];
+                    }
+                    hits.increment();
+                    return flags[i];
+                }
+            }
+        }
+        misses.increment();
+        return 0;
+    }
+
+    private void store(long key, byte kind, long nextKey) {
+        int bucket = bucket(key);
+        synchronized (lock(bucket)) {
+            int base = bucket * WAYS;
+            int free = -1;
+            for (int i = base; i < base + WAYS; ++i) {
+                if ((flags[i] & OCCUPIED) == 0) {
+                    free = free < 0 ? i : free;
+                } else if (keys[i] == key) {
+                    set(i, key, kind, nextKey);
+                    return;
+                }
+            }
+            if (free < 0) {
+                free = evict(bucket);
+            }
+            set(free, key, kind, nextKey);
+        }
+    }
+
+    /**
+     * Advances the bucket's CLOCK hand past referenced entries,
+     * clearing their referenced bits, and returns the index of
+     * the first unreferenced entry.
+     */
+    private int evict(int bucket) {
+        int base = bucket * WAYS;
+        for (int hand = hands[bucket]; ; hand = (hand + 1) % WAYS) {
+            int i = base + hand;
+            if ((flags[i] & REFERENCED) != 0) {
+                flags[i] = (byte) (flags[i] & ~REFERENCED);
+            } else {
+                hands[bucket] = (byte) ((hand + 1) % WAYS);
+                evictions.increment();
+                return i;
+            }
+        }
+    }
+
+    private void set(int i, long key, byte kind, long nextKey) {
+        keys[i] = key;
+        nextKeys[i] = nextKey;
+        flags[i] = (byte) (OCCUPIED | REFERENCED | kind);
+    }
+
+    private int bucket(long key) {
+        return (int) LongHashSet.mix(key) & bucketMask;
+    }
+
+    private Object lock(int bucket) {
+        return locks[bucket & (LOCK_STRIPES - 1)];
+    }
+}
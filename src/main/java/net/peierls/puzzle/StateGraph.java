@@ -0,0 +1,492 @@
+package net.peierls.puzzle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+
+/**
+ * The successor graph of the states reachable from an initial state,
+ * compiled once so that it can be searched many times, with different
+ * start states and goals, without calling {@link PuzzleState#successors}
+ * or allocating states.
+ * <p>
+ * States are numbered densely, in breadth-first order from the initial
+ * state, which is state 0, and each is identified by a 64-bit key, which
+ * must be injective on the reachable states, as for {@link
+ * LongKeyPuzzleStateCache}. Edges are held in compressed sparse row form:
+ * the successors of state i are {@code targets[offsets[i]]} through
+ * {@code targets[offsets[i + 1] - 1]}. Goals are given as predicates on
+ * state ids; use {@link #key} to test the state an id stands for.
+ * <p>
+ * A graph can be saved to a file and loaded by mapping it into memory,
+ * which is cheap however large the graph is. The file is a header, with a
+ * magic number and the state and edge counts, followed by the keys, the
+ * keys in ascending order, the offsets, the targets, and the ids of the
+ * states in ascending order of key, all little-endian. Since each of these
+ * is mapped in one piece, of at most {@code Integer.MAX_VALUE} bytes, a
+ * graph is limited to 2^28 - 1 states and 2^29 - 1 edges.
+ * <p>
+ * Graphs are immutable, and can be searched by any number of threads.
+ */
+public final class StateGraph {
+
+    private static final long MAGIC = 0x50_7a_6c_47_72_61_70_68L;
+    private static final int HEADER = 3 * Long.BYTES;
+    private static final int MAX_STATES = (1 << 28) - 1;
+    private static final int MAX_EDGES = (1 << 29) - 1;
+
+    private final int stateCount;
+    private final int edgeCount;
+    private final LongBuffer keys;
+    private final LongBuffer sortedKeys;
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+    private final IntBuffer sortedIds;
+
+
+    private StateGraph(LongBuffer keys, LongBuffer sortedKeys,
+            IntBuffer offsets, IntBuffer targets, IntBuffer sortedIds) {
+        this.stateCount = keys.capacity();
+        this.edgeCount = targets.capacity();
+        this.keys = keys;
+        this.sortedKeys = sortedKeys;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.sortedIds = sortedIds;
+    }
+
+
+    /**
+     * Compiles the graph of the states reachable from initialState,
+     * identified by the given key function. Each level of the
+     * breadth-first traversal is expanded in parallel. States with the
+     * same key are taken to be the same state.
+     * @throws IllegalStateException if there are more than 2^28 - 1
+     * states or 2^29 - 1 edges
+     */
+    public static <T extends PuzzleState<T>> StateGraph compile(
+            T initialState, ToLongFunction<? super T> keyFunction) {
+
+        LongIntMap ids = new LongIntMap();
+        LongArray keys = new LongArray();
+        IntArray offsets = new IntArray();
+        IntArray targets = new IntArray();
+
+        keys.add(keyFunction.applyAsLong(initialState));
+        ids.put(keys.get(0), 0);
+        List<T> level = Arrays.asList(initialState);
+        while (!level.isEmpty()) {
+            List<List<T>> expanded = level.parallelStream()
+                .map(state -> state.successors().collect(Collectors.toList()))
+                .collect(Collectors.toList());
+            List<T> next = new ArrayList<>();
+            for (List<T> successors : expanded) {
+                offsets.add(targets.size());
+                for (T successor : successors) {
+                    long key = keyFunction.applyAsLong(successor);
+                    int id = ids.get(key);
+                    if (id < 0) {
+                        if (keys.size() == MAX_STATES) {
+                            throw new IllegalStateException("more than " + MAX_STATES + " states");
+                        }
+                        id = keys.size();
+                        ids.put(key, id);
+                        keys.add(key);
+                        next.add(successor);
+                    }
+                    if (targets.size() == MAX_EDGES) {
+                        throw new IllegalStateException("more than " + MAX_EDGES + " edges");
+                    }
+                    targets.add(id);
+                }
+            }
+            level = next;
+        }
+        offsets.add(targets.size());
+
+        long[] sorted = keys.toArray();
+        Arrays.parallelSort(sorted);
+        int[] sortedIds = new int[sorted.length];
+        for (int i = 0; i < sorted.length; ++i) {
+            sortedIds[i] = ids.get(sorted[i]);
+        }
+        return new StateGraph(
+            LongBuffer.wrap(keys.toArray()), LongBuffer.wrap(sorted),
+            IntBuffer.wrap(offsets.toArray()), IntBuffer.wrap(targets.toArray()),
+            IntBuffer.wrap(sortedIds));
+    }
+
+    /**
+     * Maps a graph saved by {@link #save} into memory.
+     * @throws UncheckedIOException if the file cannot be read or is not a graph
+     */
+    public static StateGraph load(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER) {
+                throw new IOException("not a state graph: " + file);
+            }
+            LongBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER).asLongBuffer();
+            long states = header.get(1);
+            long edges = header.get(2);
+            if (header.get(0) != MAGIC || states < 1 || states > MAX_STATES || edges < 0 || edges > MAX_EDGES
+                    || channel.size() != fileSize((int) states, (int) edges)) {
+                throw new IOException("not a state graph: " + file);
+            }
+            Layout layout = new Layout((int) states, (int) edges);
+            FileChannel.MapMode mode = FileChannel.MapMode.READ_ONLY;
+            return new StateGraph(
+                map(channel, mode, layout.keys, layout.longsBytes).asLongBuffer(),
+                map(channel, mode, layout.sortedKeys, layout.longsBytes).asLongBuffer(),
+                map(channel, mode, layout.offsets, layout.offsetsBytes).asIntBuffer(),
+                map(channel, mode, layout.targets, layout.targetsBytes).asIntBuffer(),
+                map(channel, mode, layout.sortedIds, layout.intsBytes).asIntBuffer());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Saves this graph in the given file, which is created or replaced.
+     * @throws UncheckedIOException if the file cannot be written
+     */
+    public void save(Path file) {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Layout layout = new Layout(stateCount, edgeCount);
+            FileChannel.MapMode mode = FileChannel.MapMode.READ_WRITE;
+            List<MappedByteBuffer> mapped = new ArrayList<>();
+            mapped.add(map(channel, mode, 0, HEADER));
+            mapped.get(0).asLongBuffer().put(MAGIC).put(stateCount).put(edgeCount);
+            mapped.add(map(channel, mode, layout.keys, layout.longsBytes));
+            mapped.get(1).asLongBuffer().put(keys.duplicate());
+            mapped.add(map(channel, mode, layout.sortedKeys, layout.longsBytes));
+            mapped.get(2).asLongBuffer().put(sortedKeys.duplicate());
+            mapped.add(map(channel, mode, layout.offsets, layout.offsetsBytes));
+            mapped.get(3).asIntBuffer().put(offsets.duplicate());
+            mapped.add(map(channel, mode, layout.targets, layout.targetsBytes));
+            mapped.get(4).asIntBuffer().put(targets.duplicate());
+            mapped.add(map(channel, mode, layout.sortedIds, layout.intsBytes));
+            mapped.get(5).asIntBuffer().put(sortedIds.duplicate());
+            for (MappedByteBuffer buffer : mapped) {
+                buffer.force();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    public int stateCount() {
+        return stateCount;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * The key of the state with the given id.
+     */
+    public long key(int id) {
+        return keys.get(id);
+    }
+
+    /**
+     * The id of the state with the given key, or -1 if no
+     * reachable state has that key.
+     */
+    public int id(long key) {
+        int lo = 0;
+        int hi = stateCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long cur = sortedKeys.get(mid);
+            if (cur < key) {
+                lo = mid + 1;
+            } else if (cur > key) {
+                hi = mid - 1;
+            } else {
+                return sortedIds.get(mid);
+            }
+        }
+        return -1;
+    }
+
+    public int successorCount(int id) {
+        return offsets.get(id + 1) - offsets.get(id);
+    }
+
+    /**
+     * Performs the given action on the id of each successor of the
+     * state with the given id, in the order the state streamed them.
+     */
+    public void forEachSuccessor(int id, IntConsumer action) {
+        for (int e = offsets.get(id), end = offsets.get(id + 1); e < end; ++e) {
+            action.accept(targets.get(e));
+        }
+    }
+
+    /**
+     * Returns the ids of the states on a shortest path from the state
+     * with id start to a state satisfying goal, or an empty array if
+     * there is none.
+     */
+    public int[] path(int start, IntPredicate goal) {
+        int[] parent = new int[stateCount];
+        Arrays.fill(parent, -1);
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        parent[start] = start;
+        queue[tail++] = start;
+        while (head < tail) {
+            int id = queue[head++];
+            if (goal.test(id)) {
+                int length = 1;
+                for (int i = id; i != start; i = parent[i]) {
+                    ++length;
+                }
+                int[] path = new int[length];
+                for (int i = id; length > 0; i = parent[i]) {
+                    path[--length] = i;
+                }
+                return path;
+            }
+            for (int e = offsets.get(id), end = offsets.get(id + 1); e < end; ++e) {
+                int next = targets.get(e);
+                if (parent[next] < 0) {
+                    parent[next] = id;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return new int[0];
+    }
+
+    /**
+     * Returns, for each state id, the number of moves on a shortest path
+     * to it from any state satisfying sources, or -1 if it cannot be
+     * reached from them. To find distances to a goal rather than from
+     * it, use the distances of the {@link #reverse reversed} graph.
+     */
+    public int[] distances(IntPredicate sources) {
+        int[] distance = new int[stateCount];
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        for (int id = 0; id < stateCount; ++id) {
+            if (sources.test(id)) {
+                queue[tail++] = id;
+            } else {
+                distance[id] = -1;
+            }
+        }
+        while (head < tail) {
+            int id = queue[head++];
+            for (int e = offsets.get(id), end = offsets.get(id + 1); e < end; ++e) {
+                int next = targets.get(e);
+                if (distance[next] < 0) {
+                    distance[next] = distance[id] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Returns the graph of the same states with every edge reversed, so
+     * that the successors of a state are its predecessors in this graph.
+     * The reversed graph is held in memory.
+     */
+    public StateGraph reverse() {
+        int[] reversedOffsets = new int[stateCount + 1];
+        for (int e = 0; e < edgeCount; ++e) {
+            ++reversedOffsets[targets.get(e) + 1];
+        }
+        for (int id = 0; id < stateCount; ++id) {
+            reversedOffsets[id + 1] += reversedOffsets[id];
+        }
+        int[] fill = Arrays.copyOf(reversedOffsets, stateCount);
+        int[] reversedTargets = new int[edgeCount];
+        for (int id = 0; id < stateCount; ++id) {
+            for (int e = offsets.get(id), end = offsets.get(id + 1); e < end; ++e) {
+                reversedTargets[fill[targets.get(e)]++] = id;
+            }
+        }
+        return new StateGraph(keys, sortedKeys,
+            IntBuffer.wrap(reversedOffsets), IntBuffer.wrap(reversedTargets), sortedIds);
+    }
+
+
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static long fileSize(int states, int edges) {
+        Layout layout = new Layout(states, edges);
+        return layout.sortedIds + layout.intsBytes;
+    }
+
+    /**
+     * Positions and sizes of the sections of a graph file.
+     */
+    private static final class Layout {
+        final long longsBytes;
+        final long intsBytes;
+        final long offsetsBytes;
+        final long targetsBytes;
+        final long keys;
+        final long sortedKeys;
+        final long offsets;
+        final long targets;
+        final long sortedIds;
+
+        Layout(int states, int edges) {
+            longsBytes = (long) states * Long.BYTES;
+            intsBytes = (long) states * Integer.BYTES;
+            offsetsBytes = (long) (states + 1) * Integer.BYTES;
+            targetsBytes = (long) edges * Integer.BYTES;
+            keys = HEADER;
+            sortedKeys = keys + longsBytes;
+            offsets = sortedKeys + longsBytes;
+            targets = offsets + offsetsBytes;
+            sortedIds = targets + targetsBytes;
+        }
+    }
+
+    /**
+     * A map from longs to non-negative ints, without boxing: an
+     * open-addressing table with linear probing, as in {@link LongHashSet},
+     * doubled when it becomes too full. Zero is used to mark empty slots,
+     * so its value is held separately.
+     */
+    private static final class LongIntMap {
+        private static final double MAX_LOAD = 0.75;
+
+        private long[] keys = new long[16];
+        private int[] values = new int[16];
+        private int size;
+        private int zeroValue = -1;
+
+        /**
+         * The value of key, or -1 if it has none.
+         */
+        int get(long key) {
+            if (key == 0L) {
+                return zeroValue;
+            }
+            int mask = keys.length - 1;
+            for (int i = (int) LongHashSet.mix(key) & mask; keys[i] != 0L; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Sets the value of key, which must not already have one.
+         */
+        void put(long key, int value) {
+            if (key == 0L) {
+                zeroValue = value;
+                return;
+            }
+            if (++size > keys.length * MAX_LOAD) {
+                grow();
+            }
+            insert(keys, values, key, value);
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            for (int j = 0; j < oldKeys.length; ++j) {
+                if (oldKeys[j] != 0L) {
+                    insert(keys, values, oldKeys[j], oldValues[j]);
+                }
+            }
+        }
+
+        private static void insert(long[] keys, int[] values, long key, int value) {
+            int mask = keys.length - 1;
+            int i = (int) LongHashSet.mix(key) & mask;
+            while (keys[i] != 0L) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+    }
+
+    /**
+     * A growable array of ints.
+     */
+    private static final class IntArray {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * A growable array of longs.
+     */
+    private static final class LongArray {
+        private long[] values = new long[16];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = value;
+        }
+
+        long get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package net.peierls.puzzle;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * An implementation of {@link PuzzleStateCache} that is exact until it
+ * runs short of memory and approximate afterwards. States are identified
+ * by 64-bit keys, as for {@link LongKeyPuzzleStateCache}, and are first
+ * held exactly in a primitive hash set (the <em>hot</em> tier). When that
+ * set's table would have to grow past three quarters of the configured
+ * byte budget, its keys are moved into a scalable Bloom filter (the
+ * <em>overflow</em> tier) and all further states are put there.
+ * <p>
+ * The byte budget is a ceiling on the memory used by both tiers at all
+ * times, including the switch, when both are live: the overflow tier's
+ * first slice must fit in what the hot tier leaves of the budget. It is
+ * sized from the hot tier's observed growth rate, assuming that the
+ * search will run for at least as long again as it has so far, or for
+ * as many as fit, with the requested false positive probability or, if
+ * not even the hot tier's states would fit, the lowest one that would.
+ * It grows, keeping that probability as a bound, if the size turns out
+ * to be an underestimate, until its slices fill the whole budget; after
+ * that its false positive probability rises.
+ * When and why the switch happened are available from
+ * {@link #tierSwitch}.
+ */
+public class TieredPuzzleStateCache<T extends PuzzleState<T>>
+        implements PuzzleStateCache<T> {
+
+    /**
+     * A record of when and why a cache switched from the hot tier
+     * to the overflow tier.
+     */
+    public static final class TierSwitch {
+        private final long elapsedNanos;
+        private final long elementCount;
+        private final long hotTierBytes;
+        private final long overflowTierBytes;
+        private final long byteBudget;
+        private final long overflowExpectedInsertions;
+        private final double overflowFpp;
+
+        TierSwitch(long elapsedNanos, long elementCount, long hotTierBytes, long overflowTierBytes,
+                long byteBudget, long overflowExpectedInsertions, double overflowFpp) {
+            this.elapsedNanos = elapsedNanos;
+            this.elementCount = elementCount;
+            this.hotTierBytes = hotTierBytes;
+            this.overflowTierBytes = overflowTierBytes;
+            this.byteBudget = byteBudget;
+            this.overflowExpectedInsertions = overflowExpectedInsertions;
+            this.overflowFpp = overflowFpp;
+        }
+
+        /** Time from construction of the cache to the switch. */
+        public long elapsed(TimeUnit unit) {
+            return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /** Number of states in the hot tier when it was moved. */
+        public long elementCount() { return elementCount; }
+
+        /** Size of the hot tier's table when it was moved. */
+        public long hotTierBytes() { return hotTierBytes; }
+
+        /**
+         * Initial size of the overflow tier; with the hot tier's size,
+         * within the budget.
+         */
+        public long overflowTierBytes() { return overflowTierBytes; }
+
+        /** The budget that the hot tier would have exceeded by growing. */
+        public long byteBudget() { return byteBudget; }
+
+        /** Number of insertions the overflow tier was initially sized for. */
+        public long overflowExpectedInsertions() { return overflowExpectedInsertions; }
+
+        /** False positive probability bound of the overflow tier. */
+        public double overflowFpp() { return overflowFpp; }
+
+        @Override public String toString() {
+            return String.format(
+                "switched to Bloom tier after %d ms with %d states: hot tier of %d bytes could not grow within %d byte budget;"
+                    + " Bloom tier of %d bytes sized for %d states with FPP %g",
+                elapsed(TimeUnit.MILLISECONDS), elementCount, hotTierBytes, byteBudget,
+                overflowTierBytes, overflowExpectedInsertions, overflowFpp);
+        }
+    }
+
+
+    /**
+     * The smallest byte budget, twice the size of the smallest hot tier
+     * table, so that table fits in the hot tier's share of the budget
+     * and leaves room for the overflow tier.
+     */
+    public static final long MIN_BYTE_BUDGET = 2 * LongHashSet.MIN_FOOTPRINT_BYTES;
+
+    private static final long INITIAL_EXPECTED_INSERTIONS = 1L << 16;
+
+    private final ToLongFunction<T> keyFunction;
+    private final boolean fingerprints;
+    private final long byteBudget;
+    private final double fpp;
+    private final long startNanos = System.nanoTime();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile LongHashSet hot;
+    private volatile ScalableLongBloomFilter overflow;
+    private volatile TierSwitch tierSwitch;
+
+    // Hot tier growth, updated under this object's monitor.
+    private volatile long lastDoublingSize = 1L;
+    private volatile long lastDoublingNanos = startNanos;
+    private volatile long doublingNanos = 0L;
+
+
+    /**
+     * Constructs a cache that uses no more than the byte budget, and is
+     * exact until its table would exceed three quarters of it, and
+     * afterwards has a false positive probability no greater than fpp
+     * until the budget is filled.
+     *
+     * @throws IllegalArgumentException if byteBudget is less than
+     * {@link #MIN_BYTE_BUDGET}
+     */
+    public TieredPuzzleStateCache(ToLongFunction<T> keyFunction, long byteBudget, double fpp) {
+        this(keyFunction, false, byteBudget, fpp);
+    }
+
+    /**
+     * Constructs a cache as above whose keys are fingerprints, which might
+     * collide, so that it is never exact and its reported false positive
+     * probability includes that of a collision.
+     */
+    TieredPuzzleStateCache(ToLongFunction<T> keyFunction, boolean fingerprints, long byteBudget, double fpp) {
+        if (keyFunction == null) {
+            throw new NullPointerException("key function must not be null");
+        }
+        if (byteBudget < MIN_BYTE_BUDGET) {
+            throw new IllegalArgumentException("byte budget must be at least " + MIN_BYTE_BUDGET);
+        }
+        if (!(fpp > 0.0 && fpp < 1.0)) {
+            throw new IllegalArgumentException("false positive probability must be in (0, 1)");
+        }
+        this.keyFunction = keyFunction;
+        this.fingerprints = fingerprints;
+        this.byteBudget = byteBudget;
+        this.fpp = fpp;
+        this.hot = new LongHashSet(
+            Math.min(INITIAL_EXPECTED_INSERTIONS, hotTierBudget() / Long.BYTES / 4), false);
+    }
+
+
+    @Override
+    public boolean mightContain(T state) {
+        long key = keyFunction.applyAsLong(state);
+        ScalableLongBloomFilter overflow = this.overflow;
+        if (overflow != null) {
+            return overflow.mightContain(LongHashSet.mix(key));
+        }
+        lock.readLock().lock();
+        try {
+            return this.overflow == null
+                ? hot.contains(key)
+                : this.overflow.mightContain(LongHashSet.mix(key));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean put(T state) {
+        long key = keyFunction.applyAsLong(state);
+        ScalableLongBloomFilter overflow = this.overflow;
+        if (overflow != null) {
+            return overflow.put(LongHashSet.mix(key));
+        }
+        lock.readLock().lock();
+        try {
+            if (this.overflow != null) {
+                return this.overflow.put(LongHashSet.mix(key));
+            }
+            switch (hot.add(key, hotTierBudget() / Long.BYTES)) {
+                case LongHashSet.PRESENT:
+                    return false;
+                case LongHashSet.ADDED:
+                    recordGrowth(hot.size());
+                    return true;
+                default:
+                    break; // the hot tier would have to grow past the budget
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        switchTiers();
+        return this.overflow.put(LongHashSet.mix(key));
+    }
+
+    @Override
+    public long approximateElementCount() {
+        ScalableLongBloomFilter overflow = this.overflow;
+        if (overflow != null) {
+            return overflow.approximateElementCount();
+        }
+        LongHashSet hot = this.hot;
+        return hot != null ? hot.size() : this.overflow.approximateElementCount();
+    }
+
+    @Override
+    public double expectedFalsePositiveProbability() {
+        ScalableLongBloomFilter overflow = this.overflow;
+        if (overflow != null) {
+            return overflow.expectedFpp();
+        }
+        LongHashSet hot = this.hot;
+        return fingerprints && hot != null ? hot.size() / Math.pow(2, Long.SIZE) : 0.0;
+    }
+
+    @Override
+    public boolean isExact() {
+        return !fingerprints && overflow == null;
+    }
+
+    @Override
+    public long memoryFootprintBytes() {
+        ScalableLongBloomFilter overflow = this.overflow;
+        if (overflow != null) {
+            return overflow.bitSize() / Byte.SIZE;
+        }
+        LongHashSet hot = this.hot;
+        return hot != null ? hot.memoryFootprintBytes() : this.overflow.bitSize() / Byte.SIZE;
+    }
+
+    @Override
+    public void close() {
+        TierSwitch tierSwitch = this.tierSwitch;
+        Diagnostics.printf("Cache holds approx. %d elements with expected FPP %f%s%n",
+            approximateElementCount(), expectedFalsePositiveProbability(),
+            tierSwitch == null ? " (exact)" : "; " + tierSwitch);
+    }
+
+
+    /**
+     * Returns a record of the switch from the exact hot tier to the
+     * approximate overflow tier, or null if the switch has not happened.
+     */
+    public TierSwitch tierSwitch() {
+        return tierSwitch;
+    }
+
+
+    /**
+     * The part of the byte budget that the hot tier may use, leaving room
+     * for the overflow tier's first slice during the switch.
+     */
+    private long hotTierBudget() {
+        return byteBudget - byteBudget / 4;
+    }
+
+    /**
+     * Notes the time each time the hot tier's size doubles, to
+     * estimate its growth rate.
+     */
+    private void recordGrowth(long size) {
+        if (size >= 2 * lastDoublingSize) {
+            synchronized (this) {
+                if (size >= 2 * lastDoublingSize) {
+                    long now = System.nanoTime();
+                    doublingNanos = now - lastDoublingNanos;
+                    lastDoublingNanos = now;
+                    lastDoublingSize = size;
+                }
+            }
+        }
+    }
+
+    /**
+     * Projects the number of insertions the overflow tier will see if
+     * the search continues for as long again as it has run, at the rate
+     * observed over the most recent doubling of the hot tier.
+     */
+    private long projectedInsertions(long size, long now) {
+        long elapsed = Math.max(1L, now - startNanos);
+        double rate = doublingNanos > 0
+            ? (lastDoublingSize / 2.0) / doublingNanos
+            : (double) size / elapsed;
+        return Math.max(2 * size, size + (long) (rate * elapsed));
+    }
+
+    private void switchTiers() {
+        lock.writeLock().lock();
+        try {
+            if (overflow != null) {
+                return;
+            }
+            long now = System.nanoTime();
+            LongHashSet hot = this.hot;
+            long size = hot.size();
+            long available = (byteBudget - hot.memoryFootprintBytes()) * Byte.SIZE;
+            long expected = projectedInsertions(size, now);
+            double overflowFpp = Math.max(fpp, ScalableLongBloomFilter.optimalFpp(size, available));
+            expected = Math.min(expected, ScalableLongBloomFilter.maxInitialInsertions(available, overflowFpp));
+            ScalableLongBloomFilter bloom = new ScalableLongBloomFilter(expected, overflowFpp, available);
+            hot.forEach(key -> bloom.put(LongHashSet.mix(key)));
+            this.tierSwitch = new TierSwitch(now - startNanos, size, hot.memoryFootprintBytes(),
+                bloom.bitSize() / Byte.SIZE, byteBudget, expected, overflowFpp);
+            this.overflow = bloom;
+            this.hot = null;
+            bloom.raiseMaxBits(byteBudget * Byte.SIZE);
+            PuzzleEvents.tierSwitched(this, tierSwitch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
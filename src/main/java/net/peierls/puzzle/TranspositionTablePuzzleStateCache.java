@@ -0,0 +1,204 @@
+package net.peierls.puzzle;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * A fixed-size implementation of {@link PuzzleStateCache} modeled on the
+ * transposition tables of chess engines, for searches (typically DFS)
+ * that can afford to revisit some states in exchange for a flat memory
+ * footprint. States are identified by 64-bit keys, as for
+ * {@link LongKeyPuzzleStateCache}, and stored in a set-associative table
+ * of {@value #WAYS}-entry buckets held in a primitive array. When a
+ * bucket is full, the entry with the lowest priority is replaced, unless
+ * the newcomer's priority is lower still, in which case it is not stored;
+ * so states whose subtrees are most expensive to re-explore (typically
+ * those nearest the initial state) are the ones remembered.
+ * <p>
+ * Unlike other caches, this one <em>forgets</em>: {@link #put} returns true
+ * for a state that has been evicted, even if it has been put before, and
+ * {@link #mightContain} returns false for it. It never reports a state as
+ * present that was not put, so {@link #expectedFalsePositiveProbability}
+ * is {@code 0.0}, and {@link #approximateElementCount} is the number of
+ * states currently held. Because states can be revisited, it should only
+ * be used when the state graph is acyclic or the search is otherwise
+ * bounded.
+ * <p>
+ * Concurrent writers are tolerated without locking. Each entry is stored
+ * as its metadata and the exclusive-or of key and metadata, so an entry
+ * torn by racing writers fails verification and is treated as absent,
+ * costing at worst some re-exploration.
+ */
+public class TranspositionTablePuzzleStateCache<T extends PuzzleState<T>>
+        implements PuzzleStateCache<T> {
+
+    static final int WAYS = 4;
+    private static final long OCCUPIED = 1L << 32;
+    private static final long SIGN = 0x80000000L;
+
+    private final ToLongFunction<T> keyFunction;
+    private final ToIntFunction<T> priorityFunction; // null for shallowness
+    private final AtomicLongArray table; // per way: key ^ meta, meta
+    private final int bucketMask;
+    private final LongAdder size = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile boolean evicting;
+
+
+    /**
+     * Constructs a table with room for at least the given number of states,
+     * preferring to keep states that are fewer moves from the initial state.
+     */
+    public TranspositionTablePuzzleStateCache(ToLongFunction<T> keyFunction, int capacity) {
+        this(keyFunction, null, capacity, true);
+    }
+
+    /**
+     * Constructs a table with room for at least the given number of states,
+     * preferring to keep states with higher priority, e.g., those with larger
+     * subtrees.
+     */
+    public TranspositionTablePuzzleStateCache(ToLongFunction<T> keyFunction,
+            ToIntFunction<T> priorityFunction, int capacity) {
+        this(keyFunction, priorityFunction, capacity, false);
+    }
+
+    private TranspositionTablePuzzleStateCache(ToLongFunction<T> keyFunction,
+            ToIntFunction<T> priorityFunction, int capacity, boolean shallowness) {
+        if (keyFunction == null || (priorityFunction == null && !shallowness)) {
+            throw new NullPointerException("key and priority functions must not be null");
+        }
+        if (capacity <= 0 || capacity > 1 << 28) {
+            throw new IllegalArgumentException("capacity must be positive and at most 2^28");
+        }
+        int buckets = 1;
+        while (buckets * WAYS < capacity) {
+            buckets <<= 1;
+        }
+        this.keyFunction = keyFunction;
+        this.priorityFunction = priorityFunction;
+        this.table = new AtomicLongArray(buckets * WAYS * 2);
+        this.bucketMask = buckets - 1;
+    }
+
+
+    @Override
+    public boolean mightContain(T state) {
+        long key = keyFunction.applyAsLong(state);
+        int base = bucket(key);
+        for (int w = 0; w < WAYS; ++w) {
+            if (matches(base + 2 * w, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean put(T state) {
+        long key = keyFunction.applyAsLong(state);
+        int base = bucket(key);
+        int victim = -1;
+        long victimMeta = Long.MAX_VALUE;
+        for (int w = 0; w < WAYS; ++w) {
+            int i = base + 2 * w;
+            if (matches(i, key)) {
+                return false;
+            }
+            long meta = table.get(i + 1);
+            if (meta < victimMeta) {
+                victim = i;
+                victimMeta = meta;
+            }
+        }
+        int priority = priorityFunction == null ? shallowness(state) : priorityFunction.applyAsInt(state);
+        long meta = OCCUPIED | ((priority & 0xffffffffL) ^ SIGN);
+        if ((victimMeta & OCCUPIED) == 0) {
+            size.increment();
+        } else {
+            evictions.increment();
+            if (!evicting) {
+                evicting = true;
+                PuzzleEvents.cacheSaturated(this, size.sum(), table.length() / 2, "evicting");
+            }
+            if (meta < victimMeta) {
+                return true; // the newcomer is the one dropped
+            }
+        }
+        table.set(victim + 1, meta);
+        table.set(victim, key ^ meta);
+        return true;
+    }
+
+    @Override
+    public long approximateElementCount() {
+        return size.sum();
+    }
+
+    @Override
+    public double expectedFalsePositiveProbability() {
+        return 0.0;
+    }
+
+    @Override
+    public boolean isExact() {
+        return true;
+    }
+
+    @Override
+    public long memoryFootprintBytes() {
+        return (long) table.length() * Long.BYTES;
+    }
+
+    @Override
+    public void close() {
+        Diagnostics.printf("Cache holds approx. %d elements after %d evictions%n",
+            approximateElementCount(), evictions.sum());
+    }
+
+
+    /**
+     * Number of states dropped in favor of higher-priority states, whether
+     * they were replaced by a newcomer or were refused as the newcomer.
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Default priority, the negated number of moves from the initial state.
+     * A search puts a state's predecessor before the state itself, so the
+     * depth is found from that of the nearest ancestor still in the table,
+     * usually the predecessor, walking to the initial state only if none is.
+     */
+    private int shallowness(T state) {
+        int depth = 0;
+        for (Optional<T> s = state.predecessor(); s.isPresent(); s = s.get().predecessor()) {
+            ++depth;
+            long key = keyFunction.applyAsLong(s.get());
+            int base = bucket(key);
+            for (int w = 0; w < WAYS; ++w) {
+                int i = base + 2 * w;
+                long meta = table.get(i + 1);
+                if ((meta & OCCUPIED) != 0 && (table.get(i) ^ meta) == key) {
+                    return (int) (meta ^ SIGN) - depth;
+                }
+            }
+        }
+        return -depth;
+    }
+
+
+    private int bucket(long key) {
+        return ((int) LongHashSet.mix(key) & bucketMask) * WAYS * 2;
+    }
+
+    private boolean matches(int i, long key) {
+        long meta = table.get(i + 1);
+        return (meta & OCCUPIED) != 0 && (table.get(i) ^ meta) == key;
+    }
+}
@@ -48,5 +48,26 @@
  * <p>
  * General-purpose solvers should allow users to provide a
  * {@link net.peierls.puzzle.PuzzleStateCache} supplier.
+ * {@link net.peierls.puzzle.PuzzleStateCaches#withinBudget PuzzleStateCaches.withinBudget}
+ * chooses and sizes one for a given memory budget, and a
+ * {@link net.peierls.puzzle.BudgetedPuzzleStateCache} ends a search that
+ * expands too many states or runs too long.
+ * States of small state spaces can implement
+ * {@link net.peierls.puzzle.RankablePuzzleState} to be tracked by a
+ * {@link net.peierls.puzzle.RankedPuzzleStateCache}, with one bit per
+ * possible state, or be solved with no search at all by a
+ * {@link net.peierls.puzzle.DistanceOracle}. A state space that is searched
+ * many times, with different start states or goals, can be compiled once
+ * into a {@link net.peierls.puzzle.StateGraph}.
+ * <p>
+ * Graphs given as Guava {@link com.google.common.graph.SuccessorsFunction
+ * SuccessorsFunctions} can be searched by any solver through
+ * {@link net.peierls.puzzle.GraphPuzzleState}, or, if their nodes are
+ * longs or ints, by {@link net.peierls.puzzle.LongGraphSolver}.
+ * <p>
+ * Solvers and caches report their activity as Java Flight Recorder events,
+ * described in {@link net.peierls.puzzle.PuzzleEvents}, and print
+ * diagnostics to standard output unless
+ * {@link net.peierls.puzzle.Diagnostics} are made quiet.
  */
 package net.peierls.puzzle;
@@ -1,42 +1,30 @@
 package net.peierls.puzzle.pegs;
 
-import java.util.BitSet;
-
-import one.util.streamex.IntStreamEx;
-
 
 /**
- * Computation of jumps in four directions: right, left, down, up.
+ * Jumps in four directions: right, left, down, up.
  * The target of a jump is two holes in the jump direction.
  * The hole jumped over is one hole in the jump direction.
- * Right and left jumps are computed in a row major context,
- * Down and up jumps are computed in a column major context.
  */
 enum JumpType {
-    RIGHT(Major.ROW, 0, 2, 0, 1, "-", ">"),
-    LEFT(Major.ROW, 0, -2, 0, -1, "-", "<"),
-    DOWN(Major.COL, 2, 0, 1, 0, "|", "v"),
-    UP(Major.COL, -2, 0, -1, 0, "|", "^"),
+    RIGHT(0, 1, "-", ">"),
+    LEFT(0, -1, "-", "<"),
+    DOWN(1, 0, "|", "v"),
+    UP(-1, 0, "|", "^"),
     ;
 
-    private final Major major;
-    private final Position targetDelta;
-    private final Position jumpedDelta;
+    private final int deltaRow;
+    private final int deltaCol;
     private final String sourceSymbol;
     private final String jumpedSymbol;
 
-    JumpType(Major major,
-            int targetDeltaRow, int targetDeltaCol,
-            int jumpedDeltaRow, int jumpedDeltaCol,
-            String sourceSymbol, String jumpedSymbol) {
-        this.major = major;
-        this.targetDelta = new Position(targetDeltaRow, targetDeltaCol);
-        this.jumpedDelta = new Position(jumpedDeltaRow, jumpedDeltaCol);
+    JumpType(int deltaRow, int deltaCol, String sourceSymbol, String jumpedSymbol) {
+        this.deltaRow = deltaRow;
+        this.deltaCol = deltaCol;
         this.sourceSymbol = sourceSymbol;
         this.jumpedSymbol = jumpedSymbol;
     }
 
-    Major major() { return major; }
     String sourceSymbol() { return sourceSymbol; }
     String jumpedSymbol() { return jumpedSymbol; }
 
@@ -44,60 +32,35 @@ enum JumpType {
      * Position of the target jumped to from source.
      */
     Position target(Position source) {
-        return source.move(targetDelta);
+        return new Position(source.row() + 2 * deltaRow, source.col() + 2 * deltaCol);
     }
 
     /**
      * Position of the peg jumped from source.
      */
     Position jumped(Position source) {
-        return source.move(jumpedDelta);
+        return new Position(source.row() + deltaRow, source.col() + deltaCol);
     }
 
     /**
-     * The target shift amount (always of magnitude 2)
-     * for a bit vector in this jump's major order.
-     * which is the opposite of the jump direction.
+     * The type of the jump from source over jumped, or null if the jump
+     * isn't in one of the four directions.
      */
-    int targetShift() {
-        switch (major) {
-            default:
-            case ROW: return -targetDelta.col();
-            case COL: return -targetDelta.row();
+    static JumpType of(Position source, Position jumped) {
+        for (JumpType jump : values()) {
+            if (jump.jumped(source).equals(jumped)) {
+                return jump;
+            }
         }
+        return null;
     }
 
     /**
-     * The neighbor shift amount (always of magnitude 1)
-     * for a bit vector in this jump's major order.
-     * which is the opposite of the jump direction.
+     * The distance moved along a row major bit vector of a grid
+     * with the given number of columns by one step of this jump,
+     * which is half the distance to the target.
      */
-    int jumpedShift() {
-        switch (major) {
-            default:
-            case ROW: return -jumpedDelta.col();
-            case COL: return -jumpedDelta.row();
-        }
-    }
-
-    BitSet legal(BitSet holes, BitSet pegs, BitSet holesOnly, int fence) {
-        BitSet pegsShiftedOne = shift(pegs, jumpedShift(), fence);
-        BitSet holesOnlyShiftedTwo = shift(holesOnly, targetShift(), fence);
-
-        BitSet result = (BitSet) pegs.clone();
-        result.and(pegsShiftedOne);
-        result.and(holesOnlyShiftedTwo);
-
-        return result;
-    }
-
-    static BitSet shift(BitSet bits, int shift, int fence) {
-        bits = (BitSet) bits.clone();
-        if (shift > 0) {
-            return IntStreamEx.of(bits).map(b -> b + shift).filter(b -> b < fence).toBitSet();
-        } else if (shift < 0) {
-            return IntStreamEx.of(bits).map(b -> b + shift).remove(b -> b < 0).toBitSet();
-        }
-        return bits;
+    int offset(int ncols) {
+        return deltaRow * ncols + deltaCol;
     }
 }
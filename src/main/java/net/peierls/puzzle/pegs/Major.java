@@ -1,9 +0,0 @@
-package net.peierls.puzzle.pegs;
-
-/**
- * Identifies row-major or column-major contexts.
- */
-enum Major {
-    ROW,
-    COL
-}
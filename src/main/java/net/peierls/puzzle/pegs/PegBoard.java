@@ -0,0 +1,188 @@
+package net.peierls.puzzle.pegs;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+
+/**
+ * A peg board of any shape, compiled from its holes and the directions
+ * in which pegs can jump into a flat table of jumps, so that generating
+ * moves is a tight loop over the table, whatever the board's topology.
+ * <p>
+ * Holes are numbered densely, in row major order, and a set of pegs is a
+ * single long with bit i set iff hole i has a peg, so a board has at most
+ * 64 holes. A jump in direction d from hole p goes over p+d to p+2d, and
+ * the table has one for every hole and direction for which all three are
+ * holes. Each jump is held as two masks: the holes that must have pegs,
+ * its source and the hole it jumps over, and the holes it flips, which
+ * add its target. Jumps are grouped by source, so moves are found by
+ * visiting just the jumps of each peg, and a jump is legal for pegs iff
+ * {@code (pegs & flip) == need}: there are pegs at its source and over
+ * it, and none at its target. The successor is {@code pegs ^ flip}.
+ * <p>
+ * Directions are positions relative to the source. Square boards use
+ * {@link #ORTHOGONAL} (or {@link #DIAGONAL}, to allow diagonal jumps as
+ * well); triangular and hexagonal boards, with rows sheared so that each
+ * hole's six neighbors are at the same relative positions, use {@link
+ * #TRIANGULAR}.
+ */
+public final class PegBoard {
+
+    public static final ImmutableSet<Position> ORTHOGONAL = ImmutableSet.of(
+        new Position(0, 1), new Position(0, -1), new Position(1, 0), new Position(-1, 0));
+
+    public static final ImmutableSet<Position> DIAGONAL = ImmutableSet.<Position>builder()
+        .addAll(ORTHOGONAL)
+        .add(new Position(1, 1), new Position(-1, -1), new Position(1, -1), new Position(-1, 1))
+        .build();
+
+    public static final ImmutableSet<Position> TRIANGULAR = ImmutableSet.<Position>builder()
+        .addAll(ORTHOGONAL)
+        .add(new Position(1, 1), new Position(-1, -1))
+        .build();
+
+    private final ImmutableList<Position> holes; // by ordinal
+    private final Map<Position, Integer> ordinals;
+    private final int[] start;   // jumps from hole i are start[i] until start[i+1]
+    private final long[] need;   // source and jumped
+    private final long[] flip;   // source, jumped, and target
+    private final int[] from;    // ordinal of source hole
+    private final int[] over;    // ordinal of jumped hole
+    private final int[] to;      // ordinal of target hole
+
+
+    private PegBoard(ImmutableList<Position> holes, Map<Position, Integer> ordinals,
+            int[] start, long[] need, long[] flip, int[] from, int[] over, int[] to) {
+        this.holes = holes;
+        this.ordinals = ordinals;
+        this.start = start;
+        this.need = need;
+        this.flip = flip;
+        this.from = from;
+        this.over = over;
+        this.to = to;
+    }
+
+    /**
+     * Compiles the board with the given holes, on which pegs can jump in
+     * the given directions.
+     * @throws IllegalArgumentException if there are more than 64 holes
+     */
+    public static PegBoard compile(Set<Position> holes, Set<Position> directions) {
+        if (holes.size() > Long.SIZE) {
+            throw new IllegalArgumentException("board must have at most 64 holes");
+        }
+        ImmutableList<Position> sorted = ImmutableList.sortedCopyOf(
+            Comparator.comparingInt(Position::row).thenComparingInt(Position::col), holes);
+        Map<Position, Integer> ordinals = new HashMap<>();
+        for (int i = 0; i < sorted.size(); ++i) {
+            ordinals.put(sorted.get(i), i);
+        }
+
+        int[] start = new int[sorted.size() + 1];
+        List<int[]> jumps = new ArrayList<>();
+        for (int i = 0; i < sorted.size(); ++i) {
+            start[i] = jumps.size();
+            Position source = sorted.get(i);
+            for (Position d : directions) {
+                Integer mid = ordinals.get(source.move(d));
+                Integer target = ordinals.get(source.move(d).move(d));
+                if (mid != null && target != null) {
+                    jumps.add(new int[] { i, mid, target });
+                }
+            }
+        }
+        start[sorted.size()] = jumps.size();
+
+        long[] need = new long[jumps.size()];
+        long[] flip = new long[jumps.size()];
+        int[] from = new int[jumps.size()];
+        int[] over = new int[jumps.size()];
+        int[] to = new int[jumps.size()];
+        for (int k = 0; k < jumps.size(); ++k) {
+            int[] jump = jumps.get(k);
+            need[k] = 1L << jump[0] | 1L << jump[1];
+            flip[k] = need[k] | 1L << jump[2];
+            from[k] = jump[0];
+            over[k] = jump[1];
+            to[k] = jump[2];
+        }
+        return new PegBoard(sorted, ordinals, start, need, flip, from, over, to);
+    }
+
+    /**
+     * The holes of this board, in order of their numbering.
+     */
+    public List<Position> holes() {
+        return holes;
+    }
+
+    public int jumpCount() {
+        return need.length;
+    }
+
+    /**
+     * The pegs in the given positions, which must be holes of this board.
+     * @throws IllegalArgumentException if they aren't
+     */
+    long encode(Set<Position> positions) {
+        long bits = 0L;
+        for (Position pos : positions) {
+            Integer i = ordinals.get(pos);
+            if (i == null) {
+                throw new IllegalArgumentException(pos + " is not a hole of this board");
+            }
+            bits |= 1L << i;
+        }
+        return bits;
+    }
+
+    ImmutableSet<Position> decode(long pegs) {
+        ImmutableSet.Builder<Position> result = ImmutableSet.builder();
+        for (long bits = pegs; bits != 0L; bits &= bits - 1) {
+            result.add(holes.get(Long.numberOfTrailingZeros(bits)));
+        }
+        return result.build();
+    }
+
+    /**
+     * Calls action with the index of each jump that is legal for pegs.
+     */
+    void forEachJump(long pegs, IntConsumer action) {
+        for (long bits = pegs; bits != 0L; bits &= bits - 1) {
+            int source = Long.numberOfTrailingZeros(bits);
+            for (int k = start[source], end = start[source + 1]; k < end; ++k) {
+                if ((pegs & flip[k]) == need[k]) {
+                    action.accept(k);
+                }
+            }
+        }
+    }
+
+    /**
+     * The holes flipped by the jump with the given index.
+     */
+    long jumpMask(int jump) {
+        return flip[jump];
+    }
+
+    /**
+     * The source, jumped, and target positions of the jump with the
+     * given index.
+     */
+    Position[] jumpPositions(int jump) {
+        return new Position[] {
+            holes.get(from[jump]),
+            holes.get(over[jump]),
+            holes.get(to[jump]),
+        };
+    }
+}
@@ -1,14 +1,10 @@
 package net.peierls.puzzle.pegs;
 
 import com.google.common.collect.ImmutableSet;
-import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
-import java.util.BitSet;
 import java.util.Set;
-
-import one.util.streamex.EntryStream;
-import one.util.streamex.IntStreamEx;
-import one.util.streamex.StreamEx;
+import java.util.SplittableRandom;
+import java.util.function.LongConsumer;
 
 
 /**
@@ -22,7 +18,6 @@ class PegEncoding {
      * . means hole no peg
      * X means hole with peg
      * | is used for delimiting beginning and end of rows
-     * _ is used for spacer in the bit vector form (no hole or peg)
      *
      * Here is a 4x4 cross with 4 pegs (holes in every position except the corners):
      *
@@ -37,179 +32,323 @@ class PegEncoding {
      * - There are two leftward jumps, from (1, 2) to (1, 0) over (1, 1) and
      *   from (2, 3) to (2, 1) over (2, 2).
      *
-     * We can get a flat representation of a grid as a bit vector in row major
-     * or column major order, using two positions as spacers between rows
-     * or columns, respectively. We need the spacers because we'll be doing
-     * logical shifts of up to 2, and we don't want bits to move between rows
-     * or columns.
-     *
-     * To map a position (r, c) in an (m x n) grid to its row major vector position:
-     *
-     * (r, c) => r * (n+2) + c, and the fence index is m*(n+2) - 1.
-     *
-     * To map back:
-     *
-     * i => (i / (n+2), i % (n+2))
-     *
-     * To map the same grid point to its vector position in column major order:
-     *
-     * (r, c) => c * (m+2) + r, and the fence index is n*(m+2) - 1.
-     *
-     * To map back:
-     *
-     * j => (j / (m+2), j % (m+2))
-     *
-     * Here is the row major vector for the 4x4 cross above, with spacers between rows,
-     * followed by a breakdown into bitsets (digits with superscore are row indices,
-     * otherwise col indices):
-     * _     _     _     _
-     * 00123 10123 20123 30123
-     * | .. __.XX.__..XX__ .. |
-     * |0110001111001111000110| holes ([.X] is 1, [ _] is 0)
-     * |0000000110000011000000| pegs (X is 1, anything else 0)
-     * |1111111001111100111111| ~pegs
-     * |0110001001001100000110| holes & ~pegs
-     *
-     * Peg positions where there is a peg one to the right,
-     * i.e., positions where pegs is true and pegs
-     * shifted *left* one is true:
-     *
-     *   |0000000110000011000000| pegs
-     * & |0000001100000110000000| (pegs << 1)
-     *   ========================
-     *   |0000000100000010000000| pegs & (pegs << 1)
-     *
-     * Peg positions with a hole but no peg two to the right,
-     * i.e., positions where pegs is true and (holes&~pegs)
-     * shifted *left* two is true.
+     * A grid is flattened into a bit vector in row major order, with no
+     * spacers, stored in as many 64-bit words as needed, least significant
+     * bit first:
      *
-     *   |0000000110000011000000| pegs
-     * & |1000100100110000011000| (holes & ~pegs) << 2
-     *   ========================
-     *   |0000000100000000000000| pegs & ((holes & ~pegs) << 2)
+     * (r, c) => r * n + c, where n is the number of columns, and back:
      *
-     * Anding together both of these yields the rightmost jump starting positions:
+     * i => (i / n, i % n)
      *
-     *   |0000000100000010000000| pegs & (pegs << 1)
-     * & |0000000100000000000000| pegs & ((holes & ~pegs) << 2)
-     *   ========================
-     *   |0000000100000000000000| pegs & (pegs << 1) & ((holes & ~pegs) << 2)
-     *   _     _     _     _
-     *   00123 10123 20123 30123
+     * A jump in any direction moves a peg a fixed distance d along the
+     * vector: +1 right, -1 left, +n down, -n up. A peg at i can jump in
+     * that direction iff there is a peg at i+d and an empty hole at i+2d.
+     * Bit i of (v >>> d) is bit i+d of v (and for negative d, bit i of
+     * (v << -d) is bit i+d of v), so the sources of all such jumps are
+     * the bits of:
      *
-     * Only one possible rightward jump from (1, 1), as described above.
+     *   pegs & (pegs >>> d) & ((holes & ~pegs) >>> 2d) & mask(d)
      *
-     * Leftward jumps use the same formula, but using *right* logical shifts:
+     * where mask(d) has bit i set iff i, i+d, and i+2d are all holes of
+     * the grid, and the jump doesn't cross the edge of the grid. The mask
+     * is precomputed for each direction; it takes care of bits that wrap
+     * from one row to the next or fall off either end of the vector, so
+     * no spacers or transposition are needed.
      *
-     *   |0000000110000011000000| pegs
-     * & |0000000011000001100000| (pegs >>> 1)
-     *   ========================
-     *   |0000000010000001000000| pegs & (pegs >>> 1)
+     * For the 4x4 cross above, rightward (d = 1), with bit 0 on the left:
      *
-     *   |0000000110000011000000| pegs
-     * & |0001100010010011000001| (holes & ~pegs) >>> 2
-     *   ========================
-     *   |0000000010000011000000| pegs & ((holes & ~pegs) >>> 2)
+     * |0110111111110110| holes
+     * |0000011000110000| pegs
+     * |0000110001100000| pegs >>> 1
+     * |1010011100011000| (holes & ~pegs) >>> 2
+     * |0000010000000000| mask(1) & all of the above
      *
-     *   |0000000010000001000000| pegs & (pegs >>> 1)
-     * & |0000000010000011000000| pegs & ((holes & ~pegs) >>> 2)
-     *   ========================
-     *   |0000000010000001000000| pegs & (pegs >>> 1) & ((holes & ~pegs) >>> 2)
-     *   _     _     _     _
-     *   00123 10123 20123 30123
+     * Only one possible rightward jump, from (1, 1), as described above.
      *
-     * Two possible leftward jumps, from (1, 2) and (2, 3).
-     *
-     * For downward and upward jumps, use the rightward and leftward
-     * jump formulas, respectively, on the column major bit vector.
+     * Each state also has a 64-bit Zobrist hash: the XOR of a random key
+     * for each position that holds a peg. A jump flips three positions,
+     * so it changes the hash by the XOR of their three keys, which is
+     * precomputed for each jump.
      */
 
-    private static final int PAD = 2;
+    private static final JumpType[] JUMP_TYPES = JumpType.values();
+
+    /**
+     * Fixed, so that hashes of a board's states are the same from run
+     * to run, as needed by persistent caches.
+     */
+    private static final long ZOBRIST_SEED = 0x5eed_9e37_79b9_7f4aL;
 
     final int nrows;
     final int ncols;
-    final int rowMajorFence;
-    final int colMajorFence;
+    final int words;
+    private final int size;
+    private final long[] holes;
+    private final long[] zobrist;
+    private final long[][] jumpHashes = new long[JumpType.values().length][];
+    private final long[][] jumpMasks = new long[JumpType.values().length][];
+    private final long[][] masks = new long[JumpType.values().length][];
+    private final int[] offsets = new int[JumpType.values().length];
+
 
-    PegEncoding(int nrows, int ncols) {
+    PegEncoding(int nrows, int ncols, Set<Position> holes) {
         this.nrows = nrows;
         this.ncols = ncols;
-        this.rowMajorFence = nrows * (ncols + PAD) - 1;
-        this.colMajorFence = ncols * (nrows + PAD) - 1;
+        this.size = nrows * ncols;
+        this.words = (size + Long.SIZE - 1) / Long.SIZE;
+        this.holes = encode(holes);
+        SplittableRandom random = new SplittableRandom(ZOBRIST_SEED);
+        this.zobrist = new long[size];
+        for (int i = 0; i < size; ++i) {
+            zobrist[i] = random.nextLong();
+        }
+        for (JumpType jump : JumpType.values()) {
+            offsets[jump.ordinal()] = jump.offset(ncols);
+            long[] mask = new long[words];
+            long[] jumpHash = new long[size];
+            long[] jumpMask = new long[words == 1 ? size : 0];
+            for (Position hole : holes) {
+                Position mid = jump.jumped(hole);
+                Position target = jump.target(hole);
+                if (holes.contains(mid) && holes.contains(target)) {
+                    int i = index(hole);
+                    set(mask, i);
+                    jumpHash[i] = zobrist[i] ^ zobrist[index(mid)] ^ zobrist[index(target)];
+                    if (words == 1) {
+                        jumpMask[i] = 1L << i | 1L << index(mid) | 1L << index(target);
+                    }
+                }
+            }
+            masks[jump.ordinal()] = mask;
+            jumpHashes[jump.ordinal()] = jumpHash;
+            jumpMasks[jump.ordinal()] = jumpMask;
+        }
+    }
+
+    int index(Position pos) {
+        return index(pos.row(), pos.col());
+    }
+
+    int index(int row, int col) {
+        return row * ncols + col;
+    }
+
+    Position position(int i) {
+        return new Position(i / ncols, i % ncols);
+    }
+
+    long[] holes() {
+        return holes;
     }
 
-    int toRowMajor(Position pos) {
-        return toRowMajor(pos.row(), pos.col());
+    long[] encode(Set<Position> positions) {
+        long[] bits = new long[words];
+        for (Position pos : positions) {
+            set(bits, index(pos));
+        }
+        return bits;
     }
 
-    int toColMajor(Position pos) {
-        return toColMajor(pos.row(), pos.col());
+    ImmutableSet<Position> decode(long[] bits) {
+        ImmutableSet.Builder<Position> result = ImmutableSet.builder();
+        for (int w = 0; w < bits.length; ++w) {
+            for (long word = bits[w]; word != 0L; word &= word - 1) {
+                result.add(position(w * Long.SIZE + Long.numberOfTrailingZeros(word)));
+            }
+        }
+        return result.build();
     }
 
-    int toRowMajor(int row, int col) {
-        return row * (ncols + PAD) + col;
+    /**
+     * The distance along the bit vector moved by one step of the jump.
+     */
+    int offset(JumpType jump) {
+        return offsets[jump.ordinal()];
     }
 
-    int toColMajor(int row, int col) {
-        return col * (nrows + PAD) + row;
+    /**
+     * Word w of the bit vector of sources of legal jumps of the given type.
+     */
+    long legalJumps(JumpType jump, long[] pegs, int w) {
+        int d = offsets[jump.ordinal()];
+        long mask = masks[jump.ordinal()][w];
+        if ((mask & pegs[w]) == 0L) {
+            return 0L;
+        }
+        return pegs[w] & mask
+            & shifted(pegs, w, d)
+            & shifted(holes, w, 2 * d) & ~shifted(pegs, w, 2 * d);
     }
 
-    Position fromRowMajor(int i) {
-        return new Position(i / (ncols + PAD), i % (ncols + PAD));
+    /**
+     * The sources of legal jumps of the given type for pegs on a board
+     * that fits in one word.
+     */
+    long legalJumps(JumpType jump, long pegs) {
+        int d = offsets[jump.ordinal()];
+        long mask = masks[jump.ordinal()][0];
+        if ((mask & pegs) == 0L) {
+            return 0L;
+        }
+        return pegs & mask
+            & shifted(pegs, d)
+            & shifted(holes[0], 2 * d) & ~shifted(pegs, 2 * d);
     }
 
-    Position fromColMajor(int j) {
-        return new Position(j % (nrows + PAD), j / (nrows + PAD));
+    /**
+     * Calls action with the pegs of each successor of pegs, on a board
+     * that fits in one word.
+     */
+    void forEachSuccessor(long pegs, LongConsumer action) {
+        for (JumpType jump : JUMP_TYPES) {
+            long[] jumpMask = jumpMasks[jump.ordinal()];
+            for (long bits = legalJumps(jump, pegs); bits != 0L; bits &= bits - 1) {
+                action.accept(pegs ^ jumpMask[Long.numberOfTrailingZeros(bits)]);
+            }
+        }
     }
 
-    BitSet toRowMajor(Set<Position> positions) {
-        return StreamEx.of(positions)
-            .mapToInt(this::toRowMajor)
-            .toBitSet();
+    /**
+     * Calls action with the pegs of each predecessor of pegs, on a board
+     * that fits in one word: each state from which a single jump leads
+     * to pegs. A jump of a given type from i is undone iff i and i+d are
+     * empty holes and there is a peg at i+2d.
+     */
+    void forEachPredecessor(long pegs, LongConsumer action) {
+        long empty = holes[0] & ~pegs;
+        for (JumpType jump : JUMP_TYPES) {
+            int d = offsets[jump.ordinal()];
+            long[] jumpMask = jumpMasks[jump.ordinal()];
+            long bits = empty & masks[jump.ordinal()][0] & shifted(empty, d) & shifted(pegs, 2 * d);
+            for (; bits != 0L; bits &= bits - 1) {
+                action.accept(pegs ^ jumpMask[Long.numberOfTrailingZeros(bits)]);
+            }
+        }
     }
 
-    BitSet toColMajor(Set<Position> positions) {
-        return StreamEx.of(positions)
-            .mapToInt(this::toColMajor)
-            .toBitSet();
+    /**
+     * The positions flipped by the jump of the given type from the
+     * given index, on a board that fits in one word.
+     */
+    long jumpMask(JumpType jump, int from) {
+        return jumpMasks[jump.ordinal()][from];
     }
 
-    ImmutableSet<Position> fromRowMajor(BitSet bits) {
-        return IntStreamEx.of(bits)
-            .mapToObj(this::fromRowMajor)
-            .collect(toImmutableSet());
+    /**
+     * The Zobrist hash of pegs, computed from scratch.
+     */
+    long hash(long[] pegs) {
+        long hash = 0L;
+        for (int w = 0; w < pegs.length; ++w) {
+            for (long word = pegs[w]; word != 0L; word &= word - 1) {
+                hash ^= zobrist[w * Long.SIZE + Long.numberOfTrailingZeros(word)];
+            }
+        }
+        return hash;
     }
 
-    ImmutableSet<Position> fromColMajor(BitSet bits) {
-        return IntStreamEx.of(bits)
-            .mapToObj(this::fromColMajor)
-            .collect(toImmutableSet());
+    /**
+     * The change in the Zobrist hash made by the jump of the given
+     * type from the given index.
+     */
+    long jumpHash(JumpType jump, int from) {
+        return jumpHashes[jump.ordinal()][from];
     }
 
-    BitSet transposeRowToCol(BitSet rowMajorBits) {
-        return toColMajor(fromRowMajor(rowMajorBits));
+    /**
+     * A copy of pegs after the jump of the given type from the given index.
+     */
+    long[] jump(long[] pegs, JumpType jump, int from) {
+        int d = offsets[jump.ordinal()];
+        long[] result = pegs.clone();
+        flip(result, from);
+        flip(result, from + d);
+        flip(result, from + 2 * d);
+        return result;
     }
 
-    EntryStream<JumpType, Position> legalJumps(BitSet rmHoles, BitSet rmPegs) {
-        BitSet cmHoles = transposeRowToCol(rmHoles);
-        BitSet cmPegs = transposeRowToCol(rmPegs);
+    static boolean get(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0L;
+    }
 
-        BitSet rmHolesOnly = (BitSet) rmHoles.clone();
-        rmHolesOnly.andNot(rmPegs);
+    static void set(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
 
-        BitSet cmHolesOnly = (BitSet) cmHoles.clone();
-        cmHolesOnly.andNot(cmPegs);
+    static void flip(long[] bits, int i) {
+        bits[i >>> 6] ^= 1L << i;
+    }
 
-        return StreamEx.of(JumpType.values())
-            .mapToEntry(jump -> {
-                switch (jump.major()) {
-                    default:
-                    case ROW:
-                        return fromRowMajor(jump.legal(rmHoles, rmPegs, rmHolesOnly, rowMajorFence));
-                    case COL:
-                        return fromColMajor(jump.legal(cmHoles, cmPegs, cmHolesOnly, colMajorFence));
-                }
-            })
-            .flatMapValues(StreamEx::of);
+    static int cardinality(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    static boolean containsAll(long[] bits, long[] subset) {
+        for (int w = 0; w < bits.length; ++w) {
+            if ((bits[w] & subset[w]) != subset[w]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Murmur3 64-bit finalizer, a bijection that spreads the bits of
+     * a one-word bitboard.
+     */
+    static long mix(long bits) {
+        bits ^= bits >>> 33;
+        bits *= 0xff51afd7ed558ccdL;
+        bits ^= bits >>> 33;
+        bits *= 0xc4ceb9fe1a85ec53L;
+        bits ^= bits >>> 33;
+        return bits;
+    }
+
+    /**
+     * The word whose bit i is bit i+d of bits, with zeros shifted in.
+     */
+    static long shifted(long bits, int d) {
+        if (d >= Long.SIZE || d <= -Long.SIZE) {
+            return 0L;
+        }
+        return d >= 0 ? bits >>> d : bits << -d;
+    }
+
+    /**
+     * Word w of the bit vector whose bit i is bit i+d of bits,
+     * with zeros shifted in from either end.
+     */
+    static long shifted(long[] bits, int w, int d) {
+        if (d < 0) {
+            return shiftedLeft(bits, w, -d);
+        }
+        int q = w + (d >>> 6);
+        int r = d & 63;
+        if (q >= bits.length) {
+            return 0L;
+        }
+        long word = bits[q] >>> r;
+        if (r != 0 && q + 1 < bits.length) {
+            word |= bits[q + 1] << (Long.SIZE - r);
+        }
+        return word;
+    }
+
+    private static long shiftedLeft(long[] bits, int w, int d) {
+        int q = w - (d >>> 6);
+        int r = d & 63;
+        if (q < 0) {
+            return 0L;
+        }
+        long word = bits[q] << r;
+        if (r != 0 && q > 0) {
+            word |= bits[q - 1] >>> (Long.SIZE - r);
+        }
+        return word;
     }
 }
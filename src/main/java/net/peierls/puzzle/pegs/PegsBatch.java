@@ -0,0 +1,386 @@
+package net.peierls.puzzle.pegs;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import net.peierls.puzzle.BfsPuzzleSolver;
+import net.peierls.puzzle.BudgetedPuzzleStateCache;
+import net.peierls.puzzle.BudgetedPuzzleStateCache.BudgetExceededException;
+import net.peierls.puzzle.DfsPuzzleSolver;
+import net.peierls.puzzle.Diagnostics;
+import net.peierls.puzzle.ExactPuzzleStateCache;
+import net.peierls.puzzle.PuzzleSolver;
+import net.peierls.puzzle.PuzzleStateCache;
+import net.peierls.puzzle.PuzzleStateCaches;
+
+
+/**
+ * Solves batches of peg puzzles concurrently, on a bounded pool of worker
+ * threads, streaming one line of results per puzzle, as JSON or CSV, in
+ * the order in which the solves finish.
+ * <p>
+ * Puzzles are read one per line, as a name, a kind, and the kind's
+ * arguments, separated by whitespace; blank lines and lines starting
+ * with {@code #} are skipped:
+ * <pre>
+ * english   cross 7 3         # size, arm size, [solution count]
+ * tri5      triangle 5        # size, [solution count]
+ * corner    grid XXXX/XXXX/.XXX/XXXX    # rows, [solution count]
+ * diag      diagonal -X-/XXX/-.X        # as grid, with diagonal jumps
+ * </pre>
+ * Rows of a grid are separated by {@code /}, with {@code X} for a peg,
+ * {@code .} for an empty hole, and {@code -} for no hole. Puzzles are
+ * read only as fast as the workers take them, so a batch can be larger
+ * than fits in memory.
+ * <p>
+ * Each solve can be limited to a number of distinct states and to a
+ * time, checked as states are added to its cache; a solve that exceeds
+ * either ends with status {@code budget}. Each result has the puzzle's
+ * name, its status ({@code solved}, {@code unsolvable}, {@code unsolved}
+ * if no solution was found with a lossy cache, {@code budget}, or {@code
+ * error}), the moves of the solution, each as {@code
+ * row:col-row:col}, the time taken, the number of states generated and
+ * the number of distinct states seen, the cache's memory footprint and
+ * false positive probability, and for errors a message.
+ */
+public final class PegsBatch {
+
+    /**
+     * Output formats.
+     */
+    public enum Format { JSONL, CSV }
+
+    /**
+     * Kinds of solver.
+     */
+    public enum Search { DFS, BFS }
+
+    static final String CSV_HEADER = "name,status,pegs,moves,millis,generated,states,cacheBytes,fpp,error";
+
+    private static final int IN_FLIGHT_PER_THREAD = 2;
+    private static final long EXPECTED_STATES = 1L << 20;
+    private static final double BUDGET_FPP = 1e-9;
+
+    private final int threads;
+    private final Search search;
+    private final Format format;
+    private final long maxStates;
+    private final long maxMillis;
+    private final long maxCacheBytes;
+
+
+    /**
+     * Prepares a batch solver with the given number of worker threads,
+     * kind of solver, and output format. Each solve is limited to the
+     * given number of distinct states, the given time, and a cache of
+     * the given size in bytes, each unlimited if 0; without a cache size,
+     * solves use exact caches.
+     */
+    public PegsBatch(int threads, Search search, Format format, long maxStates, long maxMillis, long maxCacheBytes) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("must have at least one thread");
+        }
+        if (maxStates < 0 || maxMillis < 0 || maxCacheBytes < 0) {
+            throw new IllegalArgumentException("limits must not be negative");
+        }
+        this.threads = threads;
+        this.search = search;
+        this.format = format;
+        this.maxStates = maxStates;
+        this.maxMillis = maxMillis;
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+
+    /**
+     * Solves the puzzles defined by in, writing their results to out,
+     * returning the number of puzzles.
+     * @throws UncheckedIOException if in cannot be read or out written
+     * @throws InterruptedException if interrupted while waiting for solves
+     */
+    public long run(BufferedReader in, Writer out) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(threads * IN_FLIGHT_PER_THREAD);
+        AtomicLong written = new AtomicLong();
+        long count = 0;
+        try {
+            if (format == Format.CSV) {
+                out.write(CSV_HEADER);
+                out.write('\n');
+            }
+            for (String line; (line = in.readLine()) != null; ) {
+                String definition = line.replaceFirst("#.*", "").trim();
+                if (definition.isEmpty()) {
+                    continue;
+                }
+                inFlight.acquire();
+                ++count;
+                pool.execute(() -> {
+                    try {
+                        String result = format(solve(definition));
+                        synchronized (out) {
+                            out.write(result);
+                            out.write('\n');
+                        }
+                        written.incrementAndGet();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        if (written.get() != count) {
+            throw new UncheckedIOException(new IOException("failed to write some results"));
+        }
+        return count;
+    }
+
+    /**
+     * Solves the puzzle with the given definition.
+     */
+    Result solve(String definition) {
+        String[] fields = definition.split("\\s+");
+        Result result = new Result(fields[0]);
+        long start = System.nanoTime();
+        try {
+            PegsPuzzle puzzle = parse(fields);
+            result.pegs = puzzle.pegs().size();
+            Supplier<PuzzleStateCache<PegsPuzzle.State>> caches = maxCacheBytes == 0
+                ? ExactPuzzleStateCache::new
+                : PuzzleStateCaches.withinBudget(maxCacheBytes, EXPECTED_STATES, BUDGET_FPP,
+                    PegsPuzzle.stateFunnel(),
+                    puzzle.holes().size() <= Long.SIZE ? PegsPuzzle.stateKey() : null);
+            List<BudgetedPuzzleStateCache<PegsPuzzle.State>> cache = new ArrayList<>();
+            Supplier<PuzzleStateCache<PegsPuzzle.State>> budgeted = () -> {
+                BudgetedPuzzleStateCache<PegsPuzzle.State> c =
+                    new BudgetedPuzzleStateCache<>(caches.get(), maxStates, start, maxMillis);
+                cache.add(c);
+                return c;
+            };
+            PuzzleSolver<PegsPuzzle.State> solver = search == Search.BFS
+                ? new BfsPuzzleSolver<>(budgeted)
+                : new DfsPuzzleSolver<>(budgeted);
+            try {
+                List<PegsPuzzle.State> solution = puzzle.solve(solver);
+                result.status = !solution.isEmpty() ? "solved"
+                    : cache.get(0).isExact() ? "unsolvable"
+                    : "unsolved";
+                for (PegsPuzzle.State state : solution) {
+                    if (state.move >= 0) {
+                        Position[] jump = state.lastJump();
+                        result.moves.add(String.format("%d:%d-%d:%d",
+                            jump[0].row(), jump[0].col(), jump[2].row(), jump[2].col()));
+                    }
+                }
+            } catch (BudgetExceededException e) {
+                result.status = "budget";
+            }
+            if (!cache.isEmpty()) {
+                result.generated = cache.get(0).generatedCount();
+                result.states = cache.get(0).approximateElementCount();
+                result.cacheBytes = cache.get(0).memoryFootprintBytes();
+                result.fpp = cache.get(0).expectedFalsePositiveProbability();
+            }
+        } catch (RuntimeException e) {
+            result.status = "error";
+            result.error = String.valueOf(e.getMessage());
+        }
+        result.millis = (System.nanoTime() - start) / 1_000_000;
+        return result;
+    }
+
+    /**
+     * The puzzle defined by the given fields, the first of which, the
+     * name, is ignored.
+     * @throws IllegalArgumentException if the definition isn't valid
+     */
+    static PegsPuzzle parse(String... fields) {
+        if (fields.length < 3) {
+            throw new IllegalArgumentException("expected name, kind, and arguments");
+        }
+        try {
+            switch (fields[1]) {
+                case "cross":
+                    return PegsPuzzle.makeCross(
+                        Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), solutionCount(fields, 4));
+                case "triangle":
+                    return PegsPuzzle.makeTriangle(Integer.parseInt(fields[2]), solutionCount(fields, 3));
+                case "grid":
+                case "diagonal":
+                    return grid(fields[2].split("/"), fields[1].equals("diagonal"), solutionCount(fields, 3));
+                default:
+                    throw new IllegalArgumentException("unknown kind of puzzle: " + fields[1]);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("missing arguments for " + fields[1]);
+        }
+    }
+
+    private static int solutionCount(String[] fields, int i) {
+        return fields.length > i ? Integer.parseInt(fields[i]) : 1;
+    }
+
+    private static PegsPuzzle grid(String[] rows, boolean diagonal, int solutionCount) {
+        int ncols = 0;
+        Set<Position> holes = new HashSet<>();
+        Set<Position> pegs = new HashSet<>();
+        for (int r = 0; r < rows.length; ++r) {
+            ncols = Math.max(ncols, rows[r].length());
+            for (int c = 0; c < rows[r].length(); ++c) {
+                switch (rows[r].charAt(c)) {
+                    case 'X':
+                        pegs.add(new Position(r, c));
+                        holes.add(new Position(r, c));
+                        break;
+                    case '.':
+                        holes.add(new Position(r, c));
+                        break;
+                    case '-':
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown grid symbol: " + rows[r].charAt(c));
+                }
+            }
+        }
+        return diagonal
+            ? new PegsPuzzle(PegBoard.compile(holes, PegBoard.DIAGONAL), pegs, solutionCount, ImmutableSet.of())
+            : new PegsPuzzle(rows.length, ncols, holes, pegs, solutionCount, ImmutableSet.of());
+    }
+
+    String format(Result result) {
+        return format == Format.CSV ? result.toCsv() : result.toJson();
+    }
+
+
+    /**
+     * The outcome of one solve.
+     */
+    static final class Result {
+        final String name;
+        final List<String> moves = new ArrayList<>();
+        String status;
+        int pegs;
+        long millis;
+        long generated;
+        long states;
+        long cacheBytes;
+        double fpp;
+        String error;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        String toJson() {
+            StringBuilder buf = new StringBuilder("{\"name\":").append(jsonString(name))
+                .append(",\"status\":").append(jsonString(status))
+                .append(",\"pegs\":").append(pegs)
+                .append(",\"moves\":[");
+            for (int i = 0; i < moves.size(); ++i) {
+                buf.append(i == 0 ? "" : ",").append(jsonString(moves.get(i)));
+            }
+            buf.append("],\"millis\":").append(millis)
+                .append(",\"generated\":").append(generated)
+                .append(",\"states\":").append(states)
+                .append(",\"cacheBytes\":").append(cacheBytes)
+                .append(",\"fpp\":").append(fpp);
+            if (error != null) {
+                buf.append(",\"error\":").append(jsonString(error));
+            }
+            return buf.append('}').toString();
+        }
+
+        String toCsv() {
+            return String.join(",",
+                csvString(name), status, Integer.toString(pegs), String.join(" ", moves),
+                Long.toString(millis), Long.toString(generated), Long.toString(states),
+                Long.toString(cacheBytes), Double.toString(fpp), csvString(error == null ? "" : error));
+        }
+
+        private static String jsonString(String s) {
+            StringBuilder buf = new StringBuilder("\"");
+            for (char c : s.toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    buf.append('\\').append(c);
+                } else if (c < ' ') {
+                    buf.append(String.format("\\u%04x", (int) c));
+                } else {
+                    buf.append(c);
+                }
+            }
+            return buf.append('"').toString();
+        }
+
+        private static String csvString(String s) {
+            return s.matches("[^,\"\\r\\n]*") ? s : "\"" + s.replace("\"", "\"\"") + "\"";
+        }
+    }
+
+
+    /**
+     * Solves the puzzles in a file, writing results to standard output:
+     * <pre>
+     * PegsBatch [--threads N] [--search dfs|bfs] [--format jsonl|csv]
+     *           [--max-states N] [--max-millis N] [--max-cache-bytes N] file
+     * </pre>
+     * Solver and cache diagnostics are made quiet, since standard output
+     * holds the results.
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Search search = Search.DFS;
+        Format format = Format.JSONL;
+        long maxStates = 0;
+        long maxMillis = 0;
+        long maxCacheBytes = 0;
+        int i = 0;
+        for (; i < args.length - 1 && args[i].startsWith("--"); i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--search": search = Search.valueOf(value.toUpperCase()); break;
+                case "--format": format = Format.valueOf(value.toUpperCase()); break;
+                case "--max-states": maxStates = Long.parseLong(value); break;
+                case "--max-millis": maxMillis = Long.parseLong(value); break;
+                case "--max-cache-bytes": maxCacheBytes = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("unknown option: " + args[i]);
+            }
+        }
+        if (i != args.length - 1) {
+            throw new IllegalArgumentException("expected options and a file of puzzle definitions");
+        }
+        Diagnostics.setQuiet(true);
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(args[i]))) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            new PegsBatch(threads, search, format, maxStates, maxMillis, maxCacheBytes).run(in, out);
+        }
+    }
+}
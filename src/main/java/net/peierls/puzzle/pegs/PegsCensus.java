@@ -0,0 +1,394 @@
+package net.peierls.puzzle.pegs;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+
+/**
+ * A census of the states reachable from the initial state of a peg
+ * puzzle: how many distinct states there are with each number of pegs,
+ * and how many of those can still reach a solution.
+ * <p>
+ * Every move removes exactly one peg, so the states with each peg count
+ * form a level, and each level is generated from the one before, with
+ * no need to remember earlier levels to avoid revisiting states. States
+ * are the 64-bit bitboards of {@link PegsPuzzle.State#key}, so the grid
+ * must have at most 64 positions. Each level is expanded in parallel, in
+ * slices whose successors are sorted into runs; runs are merged into the
+ * next level's file of sorted keys, and are spilled to disk first if
+ * there are more keys than fit in the given in-memory budget. A second
+ * pass goes back up the levels, marking a state solvable if it is a
+ * solution or has a solvable successor, found by binary search in the
+ * file of solvable states of the level below.
+ * <p>
+ * The census writes {@value #COUNTS_FILE} to its directory, with a line
+ * per level. The files of each level's states and solvable states,
+ * {@code states-NN.keys} and {@code solvable-NN.keys}, where NN is the
+ * peg count, are deleted at the end unless they are to be kept, for
+ * use as precomputed lookups.
+ */
+public final class PegsCensus {
+
+    /**
+     * Counts for the states with one number of pegs.
+     */
+    public static final class Level {
+        private final int pegCount;
+        private final long stateCount;
+        private final long solvableCount;
+
+        Level(int pegCount, long stateCount, long solvableCount) {
+            this.pegCount = pegCount;
+            this.stateCount = stateCount;
+            this.solvableCount = solvableCount;
+        }
+
+        public int pegCount() { return pegCount; }
+        public long stateCount() { return stateCount; }
+        public long solvableCount() { return solvableCount; }
+
+        @Override public String toString() {
+            return String.format("%d pegs: %d states, %d solvable", pegCount, stateCount, solvableCount);
+        }
+    }
+
+    static final String COUNTS_FILE = "census.csv";
+
+    private static final int SLICES_PER_THREAD = 4;
+    private static final int MIN_SLICE = 1 << 10;
+
+    private final PegsPuzzle puzzle;
+    private final Path directory;
+    private final long maxKeysInMemory;
+    private final boolean keepStateFiles;
+    private static final int PARALLELISM = ForkJoinPool.commonPool().getParallelism();
+
+
+    /**
+     * Prepares a census of the given puzzle, using the given directory
+     * for its output and for spilled keys, and holding roughly at most
+     * the given number of keys in memory at a time.
+     * @throws IllegalArgumentException if the puzzle's grid has more than 64 positions
+     */
+    public PegsCensus(PegsPuzzle puzzle, Path directory, long maxKeysInMemory, boolean keepStateFiles) {
+        if (!puzzle.isSmall()) {
+            throw new IllegalArgumentException("census requires a grid of at most 64 positions");
+        }
+        if (maxKeysInMemory < MIN_SLICE) {
+            throw new IllegalArgumentException("in-memory budget must be at least " + MIN_SLICE + " keys");
+        }
+        this.puzzle = puzzle;
+        this.directory = directory;
+        this.maxKeysInMemory = maxKeysInMemory;
+        this.keepStateFiles = keepStateFiles;
+    }
+
+
+    /**
+     * Takes the census, returning its levels, from the initial peg count
+     * down, and writing their counts to {@value #COUNTS_FILE}.
+     * @throws UncheckedIOException if the files cannot be written
+     */
+    public List<Level> run() {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        PegEncoding encoding = puzzle.encoding();
+        int initialCount = puzzle.pegs().size();
+        long initial = encoding.encode(puzzle.pegs())[0];
+
+        // A state with one peg has no successors, so this ends by 0 pegs.
+        List<SortedKeyFile> levels = new ArrayList<>(); // by descending peg count
+        SortedKeyFile level = SortedKeyFile.write(stateFile(initialCount), new long[] { initial }, 0, 1);
+        for (int pegCount = initialCount; level.size() > 0; --pegCount) {
+            levels.add(level);
+            level = nextLevel(level, encoding::forEachSuccessor, stateFile(pegCount - 1), maxKeysInMemory);
+        }
+        delete(level.path());
+
+        long[] solvable = new long[levels.size()];
+        SortedKeyFile below = null;
+        for (int i = levels.size() - 1; i >= 0; --i) {
+            int pegCount = initialCount - i;
+            if (pegCount < puzzle.solutionCount()) {
+                continue;
+            }
+            below = solvableLevel(levels.get(i), below, solvableFile(pegCount));
+            solvable[i] = below.size();
+        }
+
+        List<Level> result = new ArrayList<>();
+        for (int i = 0; i < levels.size(); ++i) {
+            result.add(new Level(initialCount - i, levels.get(i).size(), solvable[i]));
+        }
+        writeCounts(result, directory.resolve(COUNTS_FILE));
+        if (!keepStateFiles) {
+            for (Level counts : result) {
+                delete(stateFile(counts.pegCount()));
+                delete(solvableFile(counts.pegCount()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the counts of the given levels as CSV.
+     * @throws UncheckedIOException if the file cannot be written
+     */
+    public static void writeCounts(List<Level> levels, Path path) {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            out.println("pegs,states,solvable");
+            for (Level level : levels) {
+                out.printf("%d,%d,%d%n", level.pegCount(), level.stateCount(), level.solvableCount());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Path stateFile(int pegCount) {
+        return directory.resolve(String.format("states-%02d.keys", pegCount));
+    }
+
+    Path solvableFile(int pegCount) {
+        return directory.resolve(String.format("solvable-%02d.keys", pegCount));
+    }
+
+
+    /**
+     * Generates the distinct states one move from the states of level,
+     * in the direction of the given expansion, writing them to the given
+     * file, and holding roughly at most the given number of keys in
+     * memory at a time.
+     */
+    static SortedKeyFile nextLevel(SortedKeyFile level, Expansion expansion, Path path, long maxKeysInMemory) {
+        long sliceSize = sliceSize(level.size(), maxKeysInMemory);
+        int slices = (int) ((level.size() + sliceSize - 1) / sliceSize);
+
+        List<long[]> runs = new ArrayList<>();
+        long runKeys = 0;
+        List<SortedKeyFile> spilled = new ArrayList<>();
+        for (int batch = 0; batch < slices; batch += PARALLELISM) {
+            List<long[]> batchRuns = IntStream.range(batch, Math.min(slices, batch + PARALLELISM))
+                .parallel()
+                .mapToObj(slice -> {
+                    LongStream.Builder successors = LongStream.builder();
+                    long end = Math.min(level.size(), (slice + 1) * sliceSize);
+                    for (long i = slice * sliceSize; i < end; ++i) {
+                        expansion.expand(level.get(i), successors);
+                    }
+                    long[] run = successors.build().toArray();
+                    Arrays.sort(run);
+                    return Arrays.copyOf(run, unique(run));
+                })
+                .collect(Collectors.toList());
+            for (long[] run : batchRuns) {
+                runs.add(run);
+                runKeys += run.length;
+            }
+            if (runKeys > maxKeysInMemory) {
+                spilled.add(spill(runs, path.resolveSibling(path.getFileName() + ".run" + spilled.size())));
+                runs.clear();
+                runKeys = 0;
+            }
+        }
+
+        SortedKeyFile result;
+        if (spilled.isEmpty()) {
+            long[] keys = new long[(int) runKeys];
+            int n = 0;
+            for (long[] run : runs) {
+                System.arraycopy(run, 0, keys, n, run.length);
+                n += run.length;
+            }
+            Arrays.parallelSort(keys);
+            result = SortedKeyFile.write(path, keys, 0, unique(keys));
+        } else {
+            if (!runs.isEmpty()) {
+                spilled.add(spill(runs, path.resolveSibling(path.getFileName() + ".run" + spilled.size())));
+            }
+            result = merge(spilled, path);
+            for (SortedKeyFile run : spilled) {
+                delete(run.path());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the states of level that are solutions, if below is null,
+     * or that have a successor in below, writing them to the given file.
+     */
+    private SortedKeyFile solvableLevel(SortedKeyFile level, SortedKeyFile below, Path path) {
+        PegEncoding encoding = puzzle.encoding();
+        long sliceSize = sliceSize(level.size(), maxKeysInMemory);
+        int slices = (int) ((level.size() + sliceSize - 1) / sliceSize);
+        try (SortedKeyFile.Writer writer = SortedKeyFile.create(path)) {
+            for (int batch = 0; batch < slices; batch += PARALLELISM) {
+                List<long[]> batchRuns = IntStream.range(batch, Math.min(slices, batch + PARALLELISM))
+                    .parallel()
+                    .mapToObj(slice -> {
+                        LongStream.Builder solvable = LongStream.builder();
+                        long end = Math.min(level.size(), (slice + 1) * sliceSize);
+                        boolean[] found = new boolean[1];
+                        for (long i = slice * sliceSize; i < end; ++i) {
+                            long pegs = level.get(i);
+                            if (below == null) {
+                                found[0] = puzzle.isSolution(pegs);
+                            } else {
+                                found[0] = false;
+                                encoding.forEachSuccessor(pegs, succ -> {
+                                    found[0] = found[0] || below.contains(succ);
+                                });
+                            }
+                            if (found[0]) {
+                                solvable.add(pegs);
+                            }
+                        }
+                        return solvable.build().toArray();
+                    })
+                    .collect(Collectors.toList());
+                for (long[] run : batchRuns) {
+                    for (long key : run) {
+                        writer.add(key);
+                    }
+                }
+            }
+        }
+        return SortedKeyFile.open(path);
+    }
+
+    private static long sliceSize(long levelSize, long maxKeysInMemory) {
+        return Math.max(MIN_SLICE, Math.min(
+            (levelSize + PARALLELISM * SLICES_PER_THREAD - 1) / (PARALLELISM * SLICES_PER_THREAD),
+            maxKeysInMemory / (4L * PARALLELISM * SLICES_PER_THREAD)));
+    }
+
+    /**
+     * Merges sorted runs of distinct keys into a sorted run file.
+     */
+    private static SortedKeyFile spill(List<long[]> runs, Path path) {
+        try (SortedKeyFile.Writer writer = SortedKeyFile.create(path)) {
+            mergeInto(runs.stream().map(ArrayCursor::new).collect(Collectors.toList()), writer);
+        }
+        return SortedKeyFile.open(path);
+    }
+
+    /**
+     * Merges sorted files of keys, which must be distinct within each
+     * file, into a file of their distinct keys.
+     */
+    static SortedKeyFile merge(List<SortedKeyFile> runs, Path path) {
+        try (SortedKeyFile.Writer writer = SortedKeyFile.create(path)) {
+            mergeInto(runs.stream().map(FileCursor::new).collect(Collectors.toList()), writer);
+        }
+        return SortedKeyFile.open(path);
+    }
+
+    private static void mergeInto(List<? extends Cursor> cursors, SortedKeyFile.Writer writer) {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(
+            Math.max(1, cursors.size()), (a, b) -> Long.compare(a.key(), b.key()));
+        for (Cursor cursor : cursors) {
+            if (cursor.hasKey()) {
+                queue.add(cursor);
+            }
+        }
+        boolean any = false;
+        long last = 0L;
+        while (!queue.isEmpty()) {
+            Cursor cursor = queue.poll();
+            long key = cursor.key();
+            if (!any || key != last) {
+                writer.add(key);
+                last = key;
+                any = true;
+            }
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+    }
+
+    /**
+     * Removes adjacent duplicates from the sorted keys, returning the
+     * number of distinct keys, which are left at the front.
+     */
+    private static int unique(long[] keys) {
+        int n = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            if (n == 0 || keys[i] != keys[n - 1]) {
+                keys[n++] = keys[i];
+            }
+        }
+        return n;
+    }
+
+    static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Generates the states one move from a state, either forward, as
+     * {@link PegEncoding#forEachSuccessor} does, or backward.
+     */
+    interface Expansion {
+        void expand(long pegs, LongConsumer action);
+    }
+
+    private interface Cursor {
+        boolean hasKey();
+        long key();
+        boolean advance();
+    }
+
+    private static final class ArrayCursor implements Cursor {
+        private final long[] keys;
+        private int i;
+        ArrayCursor(long[] keys) { this.keys = keys; }
+        @Override public boolean hasKey() { return i < keys.length; }
+        @Override public long key() { return keys[i]; }
+        @Override public boolean advance() { return ++i < keys.length; }
+    }
+
+    private static final class FileCursor implements Cursor {
+        private final SortedKeyFile keys;
+        private long i;
+        FileCursor(SortedKeyFile keys) { this.keys = keys; }
+        @Override public boolean hasKey() { return i < keys.size(); }
+        @Override public long key() { return keys.get(i); }
+        @Override public boolean advance() { return ++i < keys.size(); }
+    }
+
+
+    public static void main(String[] args) {
+        int size = Integer.parseInt(args[0]);
+        int armSize = Integer.parseInt(args[1]);
+        Path directory = Paths.get(args.length > 2 ? args[2] : "census");
+        PegsPuzzle puzzle = PegsPuzzle.makeCross(size, armSize, 1);
+        long start = System.nanoTime();
+        List<Level> levels = new PegsCensus(puzzle, directory, 1L << 26, true).run();
+        levels.forEach(System.out::println);
+        System.out.printf("Census of %d x %d cross with arm %d took %.1f s%n",
+            size, size, armSize, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -1,16 +1,15 @@
 package net.peierls.puzzle.pegs;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 //import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
 import com.google.common.hash.Funnel;
 
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.ToLongFunction;
 import java.util.stream.Stream;
 
 import net.peierls.puzzle.DfsPuzzleSolver;
@@ -25,113 +24,81 @@ import one.util.streamex.StreamEx;
 
 /**
  * A peg-jumping puzzle.
- * The puzzle type holds common information about the puzzle, and the
- * {@link PuzzleState} is an inner class of the puzzle type, to allow
- * access to common information from state method implementations.
+ * The puzzle type holds common information about the puzzle, and each
+ * {@link PuzzleState} refers to it for access to that common information
+ * from state method implementations.
  *
  * @see <a href="https://www.chiark.greenend.org.uk/~sgtatham/puzzles/doc/pegs.html">Simon
  * Tatham's puzzle page</a>
  */
 public final class PegsPuzzle {
 
-    static class Move {
-        final JumpType jump;
-        final Position from;
-        Move(JumpType jump, Position from) {
-            this.jump = jump;
-            this.from = from;
-        }
-        Position from() { return from; }
-        Position to() { return jump.target(from); }
-        Position mid() { return jump.jumped(from); }
-        String sourceSymbol() { return jump.sourceSymbol(); }
-        String jumpedSymbol() { return jump.jumpedSymbol(); }
-        String targetSymbol() { return "X"; }
-        @Override public String toString() {
-            return String.format(
-                "Move peg at %s %s to %s, removing peg at %s",
-                from(), jump, to(), mid()
-            );
-        }
-    }
-
-    public final class State implements PuzzleState<State> {
-        private final State pred;
-        private final Move move;
-        private final BitSet pegs; // row major
-
-
-        State(Set<Position> pegs) {
-            this.pred = null;
-            this.move = null;
-            this.pegs = encoding.toRowMajor(pegs);
-        }
+    /**
+     * A state of a peg puzzle. States are kept small, since searches can
+     * hold many millions of them: the last move is packed into an int,
+     * the puzzle's tables are reached through one shared reference, and
+     * on boards of at most 64 positions the pegs are held inline in a
+     * single long, with no per-state arrays at all.
+     */
+    public abstract static class State implements PuzzleState<State> {
+        final PegsPuzzle puzzle;
+        final State pred;
+        final int move; // jump type ordinal + from index * 4, -1 if initial
 
-        State(State pred, Move move) {
+        State(PegsPuzzle puzzle, State pred, int move) {
+            this.puzzle = puzzle;
             this.pred = pred;
             this.move = move;
-            this.pegs = pred.applyJump(move);
-        }
-
-        @Override public boolean isSolution() {
-            return pegs.cardinality() == solutionCount
-                && encoding.fromRowMajor(pegs).containsAll(solutionRequires);
-        }
-
-        @Override public Stream<State> successors() {
-            //System.out.println("Searching from " + this);
-            return encoding.legalJumps(rowMajorHoles, pegs)
-                .mapKeyValue(Move::new)
-                .map(move -> new State(this, move));
         }
 
         @Override public Optional<State> predecessor() {
             return Optional.ofNullable(pred);
         }
 
-        @Override public boolean equals(Object obj) {
-            if (this == obj) return true;
-            if (!(obj instanceof State)) return false;
-            State that = (State) obj;
-            return this.pegs.equals(that.pegs);
-        }
-
         @Override public int hashCode() {
-            return Objects.hashCode(pegs);
+            return Long.hashCode(hash());
         }
 
         @Override
         public String toString() {
-            Set<Position> pegs = encoding.fromRowMajor(this.pegs);
+            Set<Position> pegs = pegs();
             StringBuilder buf = new StringBuilder();
-            if (move == null) {
+            Position[] last = move < 0 ? null : lastJump();
+            Position from = last == null ? null : last[0];
+            Position mid = last == null ? null : last[1];
+            Position to = last == null ? null : last[2];
+            JumpType jump = last == null ? null : JumpType.of(from, mid);
+            if (last == null) {
                 buf.append("\nInitial position");
+            } else if (jump == null) {
+                buf.append(String.format(
+                    "\nMove peg at %s to %s, removing peg at %s",
+                    from, to, mid
+                ));
             } else {
-                buf.append("\n").append(move);
+                buf.append(String.format(
+                    "\nMove peg at %s %s to %s, removing peg at %s",
+                    from, jump, to, mid
+                ));
             }
             buf.append(String.format(": #pegs=%d", pegs.size()));
-            rowMajorPositions(nrows, ncols).forEach(cur -> {
+            rowMajorPositions(puzzle.nrows, puzzle.ncols).forEach(cur -> {
                 if (cur.col() == 0) {
                     buf.append("\n");
                 }
-                String symbol = null;
-                if (move != null) {
-                    if (cur.equals(move.from())) {
-                        symbol = move.sourceSymbol();
-                    } else if (cur.equals(move.to())) {
-                        symbol = move.targetSymbol();
-                    } else if (cur.equals(move.mid())) {
-                        symbol = move.jumpedSymbol();
-                    }
-                }
-                if (symbol == null) {
-                    if (pegs.contains(cur)) {
-                        symbol = "X";
-                    } else if (holes.contains(cur)) {
-                        symbol = ".";
-                    } else {
-                        symbol = " ";
-                    }
+                String symbol;
+                if (cur.equals(from)) {
+                    symbol = jump == null ? "o" : jump.sourceSymbol();
+                } else if (cur.equals(to)) {
+                    symbol = "X";
+                } else if (cur.equals(mid)) {
+                    symbol = jump == null ? "*" : jump.jumpedSymbol();
+                } else if (pegs.contains(cur)) {
+                    symbol = "X";
+                } else if (puzzle.holes.contains(cur)) {
+                    symbol = ".";
+                } else {
+                    symbol = " ";
                 }
                 buf.append(symbol);
             });
@@ -139,33 +106,223 @@ public final class PegsPuzzle {
         }
 
         public Position dimensions() {
-            return new Position(nrows, ncols);
+            return new Position(puzzle.nrows, puzzle.ncols);
         }
 
         public Set<Position> holes() {
-            return holes;
+            return puzzle.holes;
+        }
+
+        public abstract Set<Position> pegs();
+
+        /**
+         * A 64-bit hash of this state's pegs, computed in constant time.
+         * On boards of at most 64 positions it is a bijective mix of the
+         * pegs, so distinct states never share a hash; on larger boards
+         * it is a Zobrist hash, maintained incrementally from the
+         * predecessor's, and distinct states share a hash with
+         * probability about 2^-64.
+         */
+        public abstract long hash();
+
+        /**
+         * A key that uniquely identifies this state's pegs among all
+         * states of this puzzle: the row major bitboard itself when the
+         * grid fits in 64 bits, otherwise one bit per hole.
+         * @throws IllegalStateException if the grid has more than 64
+         * positions and the puzzle has more than 64 holes
+         */
+        public abstract long key();
+
+        /**
+         * The source, jumped, and target positions of the jump that
+         * reached this state, which must not be an initial state.
+         */
+        Position[] lastJump() {
+            JumpType jump = JUMP_TYPES[move & 3];
+            Position from = puzzle.encoding.position(move >>> 2);
+            return new Position[] { from, jump.jumped(from), jump.target(from) };
+        }
+
+        static int move(JumpType jump, int from) {
+            return from << 2 | jump.ordinal();
+        }
+    }
+
+    /**
+     * A state of a puzzle whose grid fits in one word.
+     */
+    static final class SmallState extends State {
+        private final long pegs; // row major
+
+        SmallState(PegsPuzzle puzzle, long pegs) {
+            super(puzzle, null, -1);
+            this.pegs = pegs;
+        }
+
+        SmallState(SmallState pred, JumpType jump, int from) {
+            super(pred.puzzle, pred, move(jump, from));
+            this.pegs = pred.pegs ^ pred.puzzle.encoding.jumpMask(jump, from);
+        }
+
+        @Override public boolean isSolution() {
+            return puzzle.isSolution(pegs);
+        }
+
+        @Override public boolean isHopeless() {
+            return puzzle.tablebase != null && puzzle.tablebase.isHopeless(pegs);
+        }
+
+        @Override public Stream<State> successors() {
+            PegEncoding encoding = puzzle.encoding;
+            Stream.Builder<State> successors = Stream.builder();
+            for (JumpType jump : JUMP_TYPES) {
+                for (long bits = encoding.legalJumps(jump, pegs); bits != 0L; bits &= bits - 1) {
+                    successors.add(new SmallState(this, jump, Long.numberOfTrailingZeros(bits)));
+                }
+            }
+            return successors.build();
+        }
+
+        @Override public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof SmallState)) return false;
+            return this.pegs == ((SmallState) obj).pegs;
+        }
+
+        @Override public Set<Position> pegs() {
+            return puzzle.encoding.decode(new long[] { pegs });
+        }
+
+        @Override public long hash() {
+            return PegEncoding.mix(pegs);
+        }
+
+        @Override public long key() {
+            return pegs;
+        }
+    }
+
+    /**
+     * A state of a puzzle whose grid needs more than one word.
+     */
+    static final class LargeState extends State {
+        private final long[] pegs; // row major
+        private final long hash; // Zobrist
+
+        LargeState(PegsPuzzle puzzle, long[] pegs) {
+            super(puzzle, null, -1);
+            this.pegs = pegs;
+            this.hash = puzzle.encoding.hash(pegs);
+        }
+
+        LargeState(LargeState pred, JumpType jump, int from) {
+            super(pred.puzzle, pred, move(jump, from));
+            PegEncoding encoding = pred.puzzle.encoding;
+            this.pegs = encoding.jump(pred.pegs, jump, from);
+            this.hash = pred.hash ^ encoding.jumpHash(jump, from);
+        }
+
+        @Override public boolean isSolution() {
+            return PegEncoding.cardinality(pegs) == puzzle.solutionCount
+                && PegEncoding.containsAll(pegs, puzzle.solutionRequiresBits);
+        }
+
+        @Override public Stream<State> successors() {
+            PegEncoding encoding = puzzle.encoding;
+            Stream.Builder<State> successors = Stream.builder();
+            for (JumpType jump : JUMP_TYPES) {
+                for (int w = 0; w < pegs.length; ++w) {
+                    for (long bits = encoding.legalJumps(jump, pegs, w); bits != 0L; bits &= bits - 1) {
+                        int from = w * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                        successors.add(new LargeState(this, jump, from));
+                    }
+                }
+            }
+            return successors.build();
+        }
+
+        @Override public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof LargeState)) return false;
+            LargeState that = (LargeState) obj;
+            return this.hash == that.hash && Arrays.equals(this.pegs, that.pegs);
+        }
+
+        @Override public Set<Position> pegs() {
+            return puzzle.encoding.decode(pegs);
         }
 
-        private BitSet applyJump(Move move) {
-            BitSet newPegs = (BitSet) pegs.clone();
-            //System.out.printf("applying %s to %s:%n", move, pegs);
-            StreamEx.of(move.from(), move.to(), move.mid())
-                .mapToInt(encoding::toRowMajor)
-                //.peek(b -> System.out.printf("\t%d%n", b))
-                .forEach(newPegs::flip);
-            return newPegs;
+        @Override public long hash() {
+            return hash;
+        }
+
+        @Override public long key() {
+            if (puzzle.holes.size() > Long.SIZE) {
+                throw new IllegalStateException("keys require at most 64 holes");
+            }
+            long key = 0L;
+            for (int w = 0; w < pegs.length; ++w) {
+                for (long bits = pegs[w]; bits != 0L; bits &= bits - 1) {
+                    key |= 1L << puzzle.holeIndex[w * Long.SIZE + Long.numberOfTrailingZeros(bits)];
+                }
+            }
+            return key;
         }
     }
 
     /**
-     * Pairs of jump offsets and corresponding common neighbors offsets.
+     * A state of a puzzle on a compiled {@link PegBoard}, whose pegs
+     * are numbered by hole, and whose last move is a jump's index in
+     * the board's table.
      */
-    private static ImmutableMap<Position, Position> JUMPS = ImmutableMap.of(
-        new Position(0, 2),    new Position(0, 1),
-        new Position(2, 0),    new Position(1, 0),
-        new Position(0, -2),   new Position(0, -1),
-        new Position(-2, 0),   new Position(-1, 0)
-    );
+    static final class BoardState extends State {
+        private final long pegs; // by hole ordinal
+
+        BoardState(PegsPuzzle puzzle, long pegs) {
+            super(puzzle, null, -1);
+            this.pegs = pegs;
+        }
+
+        BoardState(BoardState pred, int jump) {
+            super(pred.puzzle, pred, jump);
+            this.pegs = pred.pegs ^ pred.puzzle.board.jumpMask(jump);
+        }
+
+        @Override public boolean isSolution() {
+            return puzzle.isSolution(pegs);
+        }
+
+        @Override public Stream<State> successors() {
+            Stream.Builder<State> successors = Stream.builder();
+            puzzle.board.forEachJump(pegs, jump -> successors.add(new BoardState(this, jump)));
+            return successors.build();
+        }
+
+        @Override public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof BoardState)) return false;
+            return this.pegs == ((BoardState) obj).pegs;
+        }
+
+        @Override public Set<Position> pegs() {
+            return puzzle.board.decode(pegs);
+        }
+
+        @Override public long hash() {
+            return PegEncoding.mix(pegs);
+        }
+
+        @Override public long key() {
+            return pegs;
+        }
+
+        @Override Position[] lastJump() {
+            return puzzle.board.jumpPositions(move);
+        }
+    }
+
+    private static final JumpType[] JUMP_TYPES = JumpType.values();
 
 
     private final int nrows;
@@ -175,7 +332,10 @@ public final class PegsPuzzle {
     private final int solutionCount;
     private final ImmutableSet<Position> solutionRequires;
     private final PegEncoding encoding;
-    private final BitSet rowMajorHoles;
+    private final long[] solutionRequiresBits;
+    private final int[] holeIndex; // row major index -> hole ordinal
+    private final PegBoard board; // null for a grid with orthogonal jumps
+    private final PegsTablebase tablebase; // null if none
 
 
     public PegsPuzzle(int nrows, int ncols, Set<Position> holes, Set<Position> pegs) {
@@ -183,6 +343,22 @@ public final class PegsPuzzle {
     }
 
     public PegsPuzzle(int nrows, int ncols, Set<Position> holes, Set<Position> pegs, int solutionCount, Set<Position> solutionRequires) {
+        this(nrows, ncols, holes, pegs, solutionCount, solutionRequires, null);
+    }
+
+    /**
+     * A puzzle on the given compiled board, whose holes must have
+     * non-negative coordinates.
+     */
+    public PegsPuzzle(PegBoard board, Set<Position> pegs, int solutionCount, Set<Position> solutionRequires) {
+        this(
+            board.holes().stream().mapToInt(Position::row).max().orElse(-1) + 1,
+            board.holes().stream().mapToInt(Position::col).max().orElse(-1) + 1,
+            ImmutableSet.copyOf(board.holes()), pegs, solutionCount, solutionRequires, board);
+    }
+
+    private PegsPuzzle(int nrows, int ncols, Set<Position> holes, Set<Position> pegs,
+            int solutionCount, Set<Position> solutionRequires, PegBoard board) {
         if (!holes.stream().allMatch(hole -> hole.row() >= 0
                                           && hole.row() < nrows
                                           && hole.col() >= 0
@@ -198,8 +374,33 @@ public final class PegsPuzzle {
         this.pegs = ImmutableSet.copyOf(pegs);
         this.solutionCount = solutionCount;
         this.solutionRequires = ImmutableSet.copyOf(solutionRequires);
-        this.encoding = new PegEncoding(nrows, ncols);
-        this.rowMajorHoles = encoding.toRowMajor(holes);
+        this.encoding = new PegEncoding(nrows, ncols, this.holes);
+        this.board = board;
+        this.solutionRequiresBits = board == null
+            ? encoding.encode(this.solutionRequires)
+            : new long[] { board.encode(this.solutionRequires) };
+        this.holeIndex = new int[nrows * ncols];
+        int n = 0;
+        for (int i = 0; i < holeIndex.length; ++i) {
+            if (PegEncoding.get(encoding.holes(), i)) {
+                holeIndex[i] = n++;
+            }
+        }
+        this.tablebase = null;
+    }
+
+    private PegsPuzzle(PegsPuzzle puzzle, PegsTablebase tablebase) {
+        this.nrows = puzzle.nrows;
+        this.ncols = puzzle.ncols;
+        this.holes = puzzle.holes;
+        this.pegs = puzzle.pegs;
+        this.solutionCount = puzzle.solutionCount;
+        this.solutionRequires = puzzle.solutionRequires;
+        this.encoding = puzzle.encoding;
+        this.solutionRequiresBits = puzzle.solutionRequiresBits;
+        this.holeIndex = puzzle.holeIndex;
+        this.board = puzzle.board;
+        this.tablebase = tablebase;
     }
 
     public int nrows() { return nrows; }
@@ -210,19 +411,69 @@ public final class PegsPuzzle {
     public Set<Position> solutionRequires() { return solutionRequires; }
 
 
+    /**
+     * A copy of this puzzle whose states consult the given tablebase, so
+     * that a state with few enough pegs is hopeless unless the tablebase
+     * holds it.
+     * @throws IllegalArgumentException if the tablebase was built for a
+     * puzzle with different holes or a different solution condition
+     */
+    public PegsPuzzle withTablebase(PegsTablebase tablebase) {
+        if (!tablebase.isFor(this)) {
+            throw new IllegalArgumentException("tablebase was built for a different puzzle");
+        }
+        return new PegsPuzzle(this, tablebase);
+    }
+
     public List<State> solve(PuzzleSolver<State> solver) {
-        return solver.solution(new State(pegs));
+        return solver.solution(state(pegs));
+    }
+
+    PegEncoding encoding() {
+        return encoding;
+    }
+
+    /**
+     * Whether this puzzle's grid, with orthogonal jumps, fits in one
+     * word, so that each state's pegs are a single row major bitboard,
+     * as used by {@link PegsCensus}.
+     */
+    boolean isSmall() {
+        return board == null && encoding.words == 1;
+    }
+
+    /**
+     * Whether the given pegs of a small puzzle, or of a puzzle on a
+     * compiled board, are a solution.
+     */
+    boolean isSolution(long pegs) {
+        long required = solutionRequiresBits[0];
+        return Long.bitCount(pegs) == solutionCount && (pegs & required) == required;
+    }
+
+    /**
+     * A state of this puzzle with the given pegs.
+     */
+    State state(Set<Position> pegs) {
+        if (board != null) {
+            return new BoardState(this, board.encode(pegs));
+        }
+        long[] bits = encoding.encode(pegs);
+        return bits.length == 1
+            ? new SmallState(this, bits[0])
+            : new LargeState(this, bits);
     }
 
     /**
      * Creates the initial state of a cross-shaped peg puzzle with the
-     * initial empty hole in the center. The containing square must have
-     * odd dimension, and the size of each arm must be odd and no greater
-     * than the side of the containing square.
+     * initial empty hole in the center. The size of each arm must be no
+     * greater than the side of the containing square, and both must be
+     * odd or both even, so that the arms are centered. On an even board,
+     * the center is the hole just below and to the right of the middle.
      * @param size number of holes in the center column (or center row)
      * @param armSize number of columns or rows in each arm of the cross
      * @throws IllegalArgumentException if {@code armSize > size}, if
-     * either is not odd and positive
+     * either is not positive, or if they differ in parity
      */
     public static PegsPuzzle makeCross(int size, int armSize, int solutionCount) {
         int cornerSize = (size - armSize) / 2;
@@ -241,14 +492,61 @@ public final class PegsPuzzle {
         );
     }
 
+    /**
+     * Creates the initial state of a triangular peg puzzle with the given
+     * number of holes on each side and the initial empty hole at the top
+     * corner. Row r has r + 1 holes, from column 0, so that the board's
+     * six directions are those of {@link PegBoard#TRIANGULAR}.
+     * @throws IllegalArgumentException if size is not positive, or if the
+     * board would have more than 64 holes
+     */
+    public static PegsPuzzle makeTriangle(int size, int solutionCount) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        Set<Position> holes = rowMajorPositions(size, size).filter(c -> c.col() <= c.row()).toSet();
+        return new PegsPuzzle(
+            PegBoard.compile(holes, PegBoard.TRIANGULAR),
+            StreamEx.of(holes).remove(new Position(0, 0)::equals).toSet(),
+            solutionCount,
+            ImmutableSet.of()
+        );
+    }
+
+    /**
+     * Funnel that feeds a state's {@link State#hash Zobrist hash}, so that
+     * it takes constant time and allocates nothing, whatever the size of
+     * the board. States are distinguished only to 64 bits, so a
+     * fingerprint cache fed by this funnel can do no better than
+     * 64-bit fingerprints.
+     */
     public static Funnel<State> stateFunnel() {
-        return (from, into) -> into.putBytes(from.pegs.toByteArray());
+        return (from, into) -> into.putLong(from.hash());
+    }
+
+    /**
+     * Key function for use with primitive-keyed caches such as
+     * {@link net.peierls.puzzle.LongKeyPuzzleStateCache}, valid
+     * for puzzles with at most 64 holes.
+     */
+    public static ToLongFunction<State> stateKey() {
+        return State::key;
+    }
+
+    /**
+     * Key function for use with primitive-keyed caches on puzzles of any
+     * size, using each state's {@link State#hash Zobrist hash}. Unlike
+     * {@link #stateKey}, distinct states can share a key, with probability
+     * about 2^-64 per pair.
+     */
+    public static ToLongFunction<State> stateHash() {
+        return State::hash;
     }
 
     static StreamEx<Position> crossHoles(int size, int armSize) {
-        if (armSize > size || armSize < 1 || size < 1 || (armSize % 2) != 1 || (size % 2) != 1) {
+        if (armSize > size || armSize < 1 || size < 1 || (size - armSize) % 2 != 0) {
             throw new IllegalArgumentException(
-                "size arguments must be odd positive, arm size must be <= size");
+                "size arguments must be positive and both odd or both even, arm size must be <= size");
         }
         int cornerSize = (size - armSize) / 2;
         int minArm = cornerSize;
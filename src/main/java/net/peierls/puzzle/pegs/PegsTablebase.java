@@ -0,0 +1,223 @@
+package net.peierls.puzzle.pegs;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import net.peierls.puzzle.DfsPuzzleSolver;
+import net.peierls.puzzle.PuzzleSolver;
+
+
+/**
+ * An endgame tablebase for a peg puzzle: every state with at most a given
+ * number of pegs from which a solution can still be reached, whether or
+ * not it is reachable from the puzzle's initial state. A state of a
+ * {@link PegsPuzzle#withTablebase puzzle that consults the tablebase} is
+ * {@link PegsPuzzle.State#isHopeless hopeless} if it has few enough pegs
+ * and isn't in the tablebase, so a search resolves every state in the
+ * deep tail with a single lookup.
+ * <p>
+ * The tablebase is built by retrograde analysis: starting from every
+ * solution state, jumps are undone, each adding a peg, so the states with
+ * each peg count form a level, generated from the level below by undoing
+ * one jump in every possible way, as {@link PegsCensus} generates levels
+ * going forward. Each level is a file of sorted keys, {@code
+ * winnable-NN.keys}, where NN is the peg count, memory-mapped when the
+ * tablebase is loaded, and {@value #DESCRIPTOR_FILE} records the board
+ * and solution condition the tablebase was built for. As with the census,
+ * states are 64-bit bitboards, so the grid must have at most 64 positions.
+ */
+public final class PegsTablebase {
+
+    static final String DESCRIPTOR_FILE = "tablebase.properties";
+
+    private final long holes;
+    private final int solutionCount;
+    private final long solutionRequires;
+    private final int maxPegs;
+    private final SortedKeyFile[] levels; // by peg count, null below solution count
+
+
+    private PegsTablebase(long holes, int solutionCount, long solutionRequires, int maxPegs, SortedKeyFile[] levels) {
+        this.holes = holes;
+        this.solutionCount = solutionCount;
+        this.solutionRequires = solutionRequires;
+        this.maxPegs = maxPegs;
+        this.levels = levels;
+    }
+
+
+    /**
+     * Builds the tablebase of states with at most maxPegs pegs of the given
+     * puzzle in the given directory, holding roughly at most the given
+     * number of keys in memory at a time.
+     * @throws IllegalArgumentException if the puzzle's grid has more than
+     * 64 positions
+     * @throws UncheckedIOException if the files cannot be written
+     */
+    public static PegsTablebase build(PegsPuzzle puzzle, int maxPegs, Path directory, long maxKeysInMemory) {
+        if (!puzzle.isSmall()) {
+            throw new IllegalArgumentException("tablebase requires a grid of at most 64 positions");
+        }
+        PegEncoding encoding = puzzle.encoding();
+        long holes = encoding.holes()[0];
+        long required = encoding.encode(puzzle.solutionRequires())[0];
+        int solutionCount = puzzle.solutionCount();
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        SortedKeyFile[] levels = new SortedKeyFile[Math.max(0, maxPegs + 1)];
+        if (solutionCount <= maxPegs) {
+            long[] goals = solutions(holes & ~required, solutionCount - Long.bitCount(required), required);
+            Arrays.sort(goals);
+            levels[solutionCount] = SortedKeyFile.write(levelFile(directory, solutionCount), goals, 0, goals.length);
+            for (int pegCount = solutionCount + 1; pegCount <= maxPegs; ++pegCount) {
+                levels[pegCount] = PegsCensus.nextLevel(
+                    levels[pegCount - 1], encoding::forEachPredecessor, levelFile(directory, pegCount), maxKeysInMemory);
+            }
+        }
+
+        Properties descriptor = new Properties();
+        descriptor.setProperty("holes", Long.toHexString(holes));
+        descriptor.setProperty("solutionCount", Integer.toString(solutionCount));
+        descriptor.setProperty("solutionRequires", Long.toHexString(required));
+        descriptor.setProperty("maxPegs", Integer.toString(maxPegs));
+        try (Writer out = Files.newBufferedWriter(directory.resolve(DESCRIPTOR_FILE))) {
+            descriptor.store(out, "peg puzzle tablebase");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new PegsTablebase(holes, solutionCount, required, maxPegs, levels);
+    }
+
+    /**
+     * Loads a tablebase built in the given directory for the given puzzle.
+     * @throws IllegalArgumentException if the tablebase was built for a
+     * puzzle with different holes or a different solution condition
+     * @throws UncheckedIOException if the files cannot be read
+     */
+    public static PegsTablebase load(PegsPuzzle puzzle, Path directory) {
+        Properties descriptor = new Properties();
+        try (Reader in = Files.newBufferedReader(directory.resolve(DESCRIPTOR_FILE))) {
+            descriptor.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int solutionCount = Integer.parseInt(descriptor.getProperty("solutionCount"));
+        int maxPegs = Integer.parseInt(descriptor.getProperty("maxPegs"));
+        PegsTablebase result = new PegsTablebase(
+            Long.parseUnsignedLong(descriptor.getProperty("holes"), 16),
+            solutionCount,
+            Long.parseUnsignedLong(descriptor.getProperty("solutionRequires"), 16),
+            maxPegs,
+            new SortedKeyFile[Math.max(0, maxPegs + 1)]);
+        if (!result.isFor(puzzle)) {
+            throw new IllegalArgumentException("tablebase was built for a different puzzle");
+        }
+        for (int pegCount = solutionCount; pegCount <= maxPegs; ++pegCount) {
+            result.levels[pegCount] = SortedKeyFile.open(levelFile(directory, pegCount));
+        }
+        return result;
+    }
+
+    /**
+     * The greatest number of pegs of the states in this tablebase.
+     */
+    public int maxPegs() {
+        return maxPegs;
+    }
+
+    /**
+     * The number of winnable states with the given number of pegs,
+     * which must be at most {@link #maxPegs}.
+     */
+    public long winnableCount(int pegCount) {
+        if (pegCount < 0 || pegCount > maxPegs) {
+            throw new IllegalArgumentException("peg count must be in [0, " + maxPegs + "]");
+        }
+        return pegCount < solutionCount ? 0L : levels[pegCount].size();
+    }
+
+    /**
+     * Whether this tablebase was built for puzzles with the same holes
+     * and solution condition as the given puzzle.
+     */
+    boolean isFor(PegsPuzzle puzzle) {
+        if (!puzzle.isSmall()) {
+            return false;
+        }
+        PegEncoding encoding = puzzle.encoding();
+        return holes == encoding.holes()[0]
+            && solutionCount == puzzle.solutionCount()
+            && solutionRequires == encoding.encode(puzzle.solutionRequires())[0];
+    }
+
+    /**
+     * Whether the given pegs are known to be unable to reach a solution:
+     * they are too few, or few enough to be covered by this tablebase,
+     * which doesn't contain them.
+     */
+    boolean isHopeless(long pegs) {
+        int pegCount = Long.bitCount(pegs);
+        return pegCount < solutionCount
+            || (pegCount <= maxPegs && !levels[pegCount].contains(pegs));
+    }
+
+    static Path levelFile(Path directory, int pegCount) {
+        return directory.resolve(String.format("winnable-%02d.keys", pegCount));
+    }
+
+    /**
+     * All states of count pegs chosen from the given holes, in addition to
+     * the pegs of the given base.
+     */
+    private static long[] solutions(long holes, int count, long base) {
+        if (count < 0) {
+            return new long[0];
+        }
+        if (count == 0) {
+            return new long[] { base };
+        }
+        if (Long.bitCount(holes) < count) {
+            return new long[0];
+        }
+        long lowest = Long.lowestOneBit(holes);
+        long[] with = solutions(holes & ~lowest, count - 1, base | lowest);
+        long[] without = solutions(holes & ~lowest, count, base);
+        long[] result = Arrays.copyOf(with, with.length + without.length);
+        System.arraycopy(without, 0, result, with.length, without.length);
+        return result;
+    }
+
+    /**
+     * Builds a tablebase for a cross-shaped puzzle and solves the puzzle
+     * with it: size, arm size, greatest peg count, and optionally the
+     * directory, by default the current one.
+     */
+    public static void main(String[] args) {
+        int size = Integer.parseInt(args[0]);
+        int armSize = Integer.parseInt(args[1]);
+        int maxPegs = Integer.parseInt(args[2]);
+        Path directory = Paths.get(args.length > 3 ? args[3] : ".");
+        PegsPuzzle puzzle = PegsPuzzle.makeCross(size, armSize, 1);
+        long start = System.nanoTime();
+        PegsTablebase tablebase = build(puzzle, maxPegs, directory, 1L << 26);
+        for (int pegCount = 0; pegCount <= maxPegs; ++pegCount) {
+            System.out.printf("%d pegs: %d winnable%n", pegCount, tablebase.winnableCount(pegCount));
+        }
+        System.out.printf("Built in %.2fs%n", (System.nanoTime() - start) / 1e9);
+        PuzzleSolver<PegsPuzzle.State> solver = new DfsPuzzleSolver<>();
+        List<PegsPuzzle.State> solution = puzzle.withTablebase(tablebase).solve(solver);
+        System.out.println(solution.isEmpty() ? "no solution" : solution.get(solution.size() - 1).toString());
+    }
+}
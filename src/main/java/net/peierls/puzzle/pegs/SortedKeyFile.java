@@ -0,0 +1,203 @@
+package net.peierls.puzzle.pegs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * A file of distinct 64-bit keys in ascending order, memory-mapped for
+ * random access and binary search. Files are written once, by a
+ * {@link Writer}, and are read-only thereafter; a file can be read
+ * concurrently by any number of threads.
+ * <p>
+ * The file is a 16-byte header (a magic number and the key count)
+ * followed by the keys, all little-endian. Keys are mapped in chunks
+ * of at most 2^27 keys, since a single mapping is limited to 2GB.
+ */
+final class SortedKeyFile {
+
+    private static final long MAGIC = 0x5065676b65797331L;
+    private static final int HEADER = 2 * Long.BYTES;
+    private static final int CHUNK_BITS = 27;
+    private static final long CHUNK_KEYS = 1L << CHUNK_BITS;
+
+    private final Path path;
+    private final long size;
+    private final LongBuffer[] chunks;
+
+
+    private SortedKeyFile(Path path, long size, LongBuffer[] chunks) {
+        this.path = path;
+        this.size = size;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Opens an existing key file.
+     * @throws UncheckedIOException if the file cannot be read or is not a key file
+     */
+    static SortedKeyFile open(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading
+            }
+            if (header.hasRemaining() || header.getLong(0) != MAGIC) {
+                throw new IOException("not a sorted key file: " + path);
+            }
+            long size = header.getLong(Long.BYTES);
+            if (channel.size() != HEADER + size * Long.BYTES) {
+                throw new IOException("truncated sorted key file: " + path);
+            }
+            LongBuffer[] chunks = new LongBuffer[(int) ((size + CHUNK_KEYS - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; ++i) {
+                long first = (long) i << CHUNK_BITS;
+                long count = Math.min(CHUNK_KEYS, size - first);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + first * Long.BYTES, count * Long.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .asLongBuffer();
+            }
+            return new SortedKeyFile(path, size, chunks);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates or replaces a key file, to which keys must be added
+     * in ascending order.
+     * @throws UncheckedIOException if the file cannot be created
+     */
+    static Writer create(Path path) {
+        return new Writer(path);
+    }
+
+    /**
+     * Writes the given sorted, distinct keys to a new key file and opens it.
+     */
+    static SortedKeyFile write(Path path, long[] keys, int from, int to) {
+        try (Writer writer = create(path)) {
+            for (int i = from; i < to; ++i) {
+                writer.add(keys[i]);
+            }
+        }
+        return open(path);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * The key at the given index.
+     */
+    long get(long index) {
+        return chunks[(int) (index >>> CHUNK_BITS)].get((int) (index & (CHUNK_KEYS - 1)));
+    }
+
+    /**
+     * The index of key, if present, otherwise {@code -(insertion point) - 1},
+     * as for {@link java.util.Arrays#binarySearch(long[], long)}.
+     */
+    long indexOf(long key) {
+        long lo = 0;
+        long hi = size - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            long cur = get(mid);
+            if (cur < key) {
+                lo = mid + 1;
+            } else if (cur > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    boolean contains(long key) {
+        return indexOf(key) >= 0;
+    }
+
+
+    /**
+     * Writes keys, which must be distinct and added in ascending order,
+     * to a new key file, whose header is completed when the writer is
+     * closed.
+     */
+    static final class Writer implements AutoCloseable {
+        private static final int BUFFER_BYTES = 1 << 16;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long count;
+        private long last;
+
+        private Writer(Path path) {
+            try {
+                Files.deleteIfExists(path);
+                this.channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                buffer.putLong(MAGIC).putLong(0L);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Adds a key, which must be greater than every key added before.
+         * @throws IllegalArgumentException if it isn't
+         */
+        void add(long key) {
+            if (count > 0 && key <= last) {
+                throw new IllegalArgumentException("keys must be added in ascending order");
+            }
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.putLong(key);
+            last = key;
+            ++count;
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override public void close() {
+            try {
+                flush();
+                ByteBuffer header = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(0, count);
+                channel.write(header, Long.BYTES);
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void flush() {
+            try {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
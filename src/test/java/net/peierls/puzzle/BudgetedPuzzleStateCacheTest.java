@@ -0,0 +1,65 @@
+package net.peierls.puzzle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.peierls.puzzle.BudgetedPuzzleStateCache.BudgetExceededException;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class BudgetedPuzzleStateCacheTest {
+
+    @Test public void countsAndDelegates() {
+        BudgetedPuzzleStateCache<CounterState> f =
+            new BudgetedPuzzleStateCache<>(new LongKeyPuzzleStateCache<>(CounterState::getCount), 0, System.nanoTime(), 0);
+        assertTrue(f.put(new CounterState(1, null)));
+        assertFalse(f.put(new CounterState(1, null)));
+        assertTrue(f.put(new CounterState(2, null)));
+        assertTrue(f.mightContain(new CounterState(2, null)));
+        assertEquals(3, f.generatedCount());
+        assertEquals(2, f.addedCount());
+        assertEquals(2, f.approximateElementCount());
+        assertTrue(f.isExact());
+
+        long footprint = f.memoryFootprintBytes();
+        assertTrue(footprint > 0);
+        f.close();
+        assertEquals(footprint, f.memoryFootprintBytes());
+
+        assertFalse(new BudgetedPuzzleStateCache<>(
+            new ScalableBloomPuzzleStateCache<>(CounterState.funnel(), 100, 0.01), 0, System.nanoTime(), 0).isExact());
+    }
+
+    @Test public void endsSearchAtStateBudget() {
+        List<BudgetedPuzzleStateCache<CounterState>> caches = new ArrayList<>();
+        PuzzleSolver<CounterState> solver = new BfsPuzzleSolver<>(() -> {
+            BudgetedPuzzleStateCache<CounterState> cache =
+                new BudgetedPuzzleStateCache<>(new ExactPuzzleStateCache<CounterState>(), 10, System.nanoTime(), 0);
+            caches.add(cache);
+            return cache;
+        });
+        try {
+            solver.solution(new CounterState(CounterState.INIT, null));
+            fail("expected budget to be exceeded");
+        } catch (BudgetExceededException e) {
+            assertEquals("states", e.budget());
+        }
+        assertEquals(10, caches.get(0).addedCount());
+    }
+
+    @Test public void endsSearchAtTimeBudget() {
+        BudgetedPuzzleStateCache<CounterState> f =
+            new BudgetedPuzzleStateCache<>(new ExactPuzzleStateCache<CounterState>(), 0, System.nanoTime() - 1_000_000_000L, 1);
+        try {
+            for (long i = 0; i < 2 * BudgetedPuzzleStateCache.TIME_CHECK_INTERVAL; ++i) {
+                f.put(new CounterState(i, null));
+            }
+            fail("expected budget to be exceeded");
+        } catch (BudgetExceededException e) {
+            assertEquals("millis", e.budget());
+        }
+        assertEquals(BudgetedPuzzleStateCache.TIME_CHECK_INTERVAL, f.generatedCount());
+    }
+}
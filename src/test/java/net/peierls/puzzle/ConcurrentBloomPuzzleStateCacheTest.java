@@ -0,0 +1,40 @@
+package net.peierls.puzzle;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class ConcurrentBloomPuzzleStateCacheTest {
+
+    static final long N = 200_000L;
+    static final double FPP = 0.001;
+
+    @Test public void concurrentPuts() {
+        PuzzleStateCache<CounterState> f =
+            new ConcurrentBloomPuzzleStateCache<>(CounterState.funnel(), N, FPP);
+
+        AtomicLong firstTimes = new AtomicLong();
+        LongStream.range(0, N).parallel().forEach(i -> {
+            if (f.put(new CounterState(i, null))) {
+                firstTimes.incrementAndGet();
+            }
+        });
+
+        // No false negatives.
+        assertTrue(LongStream.range(0, N)
+            .allMatch(i -> f.mightContain(new CounterState(i, null))));
+
+        // Only false positives can make a first put look like a repeat.
+        assertTrue(firstTimes.get() > N * (1 - 10 * FPP));
+        assertEquals(N, f.approximateElementCount(), N * 0.02);
+
+        long falsePositives = LongStream.range(N, 2 * N)
+            .filter(i -> f.mightContain(new CounterState(i, null)))
+            .count();
+        assertTrue(falsePositives < 3 * FPP * N);
+        assertEquals(FPP, f.expectedFalsePositiveProbability(), FPP / 2);
+    }
+}
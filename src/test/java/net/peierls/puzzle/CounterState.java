@@ -0,0 +1,54 @@
+package net.peierls.puzzle;
+
+import com.google.common.hash.*;
+
+import java.util.Objects;
+import java.util.Optional;
+
+import java.util.stream.*;
+
+import one.util.streamex.*;
+
+
+/**
+ * Counter puzzle, shared by tests and the solver benchmark: get from
+ * INIT to FINAL by tripling and subtracting one, or halving.
+ */
+public class CounterState implements PuzzleState<CounterState> {
+
+    public final static long INIT = 1L;
+    public final static long FINAL = 1_000L;
+
+    final long count;
+    final CounterState pred;
+
+    public CounterState(long count, CounterState pred) {
+        this.count = count;
+        this.pred = pred;
+    }
+
+    public long getCount() { return count; }
+
+    @Override public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof CounterState)) return false;
+        return count == ((CounterState)obj).count;
+    }
+    @Override public int hashCode() { return Objects.hashCode(count); }
+    @Override public String toString() { return "" + count; }
+
+    @Override public boolean isHopeless() { return count == 0; }
+    @Override public boolean isSolution() { return count == FINAL; }
+    @Override public Optional<CounterState> predecessor() {
+        return Optional.ofNullable(pred);
+    }
+    @Override public Stream<CounterState> successors() {
+        return LongStreamEx.of(count * 3 - 1, count / 2)
+            .remove(c -> c == count)
+            .mapToObj(c -> new CounterState(c, this));
+    }
+
+    public static Funnel<CounterState> funnel() {
+        return (state, sink) -> sink.putLong(state.count);
+    }
+}
@@ -0,0 +1,48 @@
+package net.peierls.puzzle;
+
+import java.util.stream.LongStream;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class CuckooPuzzleStateCacheTest {
+
+    static final long N = 1_000_000L;
+
+    static CounterState state(long count) {
+        return new CounterState(count, null);
+    }
+
+    @Test public void cuckooFilter() {
+        double fpp = 0.0001;
+        CuckooPuzzleStateCache<CounterState> f =
+            new CuckooPuzzleStateCache<>(CounterState.funnel(), N, fpp);
+
+        long firstTimes = LongStream.range(0, N).filter(i -> f.put(state(i))).count();
+        assertTrue(firstTimes > N * (1 - 2 * fpp));
+        assertFalse(f.put(state(0)));
+        assertTrue(LongStream.range(0, N).allMatch(i -> f.mightContain(state(i))));
+
+        long falsePositives = LongStream.range(N, 2 * N)
+            .filter(i -> f.mightContain(state(i)))
+            .count();
+        assertTrue(falsePositives <= 2 * fpp * N);
+        assertTrue(f.expectedFalsePositiveProbability() <= fpp);
+    }
+
+    /**
+     * Checks that the cuckoo filter takes fewer bits per state than a
+     * Bloom filter at the same target FPP. Put throughput is compared by
+     * {@link net.peierls.puzzle.client.FilterBenchmark}.
+     */
+    @Test public void smallerThanBloom() {
+        for (double fpp : new double[] { 0.001, 0.0001 }) {
+            CuckooPuzzleStateCache<CounterState> cuckoo =
+                new CuckooPuzzleStateCache<>(CounterState.funnel(), N, fpp);
+            double cuckooBits = (double) cuckoo.bitSize() / N;
+            double bloomBits = (double) LongBloomFilter.optimalNumOfBits(N, fpp) / N;
+            assertTrue(cuckooBits < bloomBits);
+        }
+    }
+}
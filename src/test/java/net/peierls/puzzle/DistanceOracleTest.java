@@ -0,0 +1,79 @@
+package net.peierls.puzzle;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import static net.peierls.puzzle.RankedPuzzleStateCacheTest.SubsetState;
+
+
+public class DistanceOracleTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    static SubsetState unrank(long rank) {
+        return new SubsetState(Combinations.unrank(rank, SubsetState.K), null);
+    }
+
+    @Test public void matchesSearch() throws Exception {
+        Path file = folder.newFile().toPath();
+        DistanceOracle<SubsetState> built = DistanceOracle.build(file, DistanceOracleTest::unrank);
+        DistanceOracle<SubsetState> opened = DistanceOracle.open(file);
+        assertEquals(120L, opened.rankCount());
+
+        for (long rank = 0; rank < opened.rankCount(); ++rank) {
+            SubsetState state = unrank(rank);
+            assertEquals(rank, state.rank());
+            List<SubsetState> expected = new BfsPuzzleSolver<SubsetState>().solution(state);
+            List<SubsetState> solution = opened.solution(state);
+            assertEquals(expected.size(), solution.size());
+            assertEquals(expected.size() - 1, built.distance(state));
+            assertEquals(state, solution.get(0));
+            assertTrue(solution.get(solution.size() - 1).isSolution());
+        }
+    }
+
+    @Test public void unreachable() throws Exception {
+        Path file = folder.newFile().toPath();
+        DistanceOracle<LineState> oracle = DistanceOracle.build(file, LineState::new);
+        assertEquals(2, oracle.distance(new LineState(0)));
+        assertEquals(0, oracle.distance(new LineState(2)));
+        assertEquals(DistanceOracle.UNREACHABLE, oracle.distance(new LineState(3)));
+        assertTrue(oracle.solution(new LineState(3)).isEmpty());
+        assertEquals(3, oracle.solution(new LineState(0)).size());
+    }
+
+    /** States 0, 1, 2 in a line leading to the solution 2, and a dead end 3. */
+    static class LineState implements RankablePuzzleState<LineState> {
+        final long n;
+
+        LineState(long n) {
+            this.n = n;
+        }
+
+        @Override public boolean isSolution() {
+            return n == 2;
+        }
+
+        @Override public Stream<LineState> successors() {
+            return n < 2 ? Stream.of(new LineState(n + 1)) : Stream.empty();
+        }
+
+        @Override public Optional<LineState> predecessor() {
+            return Optional.empty();
+        }
+
+        @Override public long rank() {
+            return n;
+        }
+
+        @Override public long rankCount() {
+            return 4;
+        }
+    }
+}
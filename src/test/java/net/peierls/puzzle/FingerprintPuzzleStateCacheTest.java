@@ -0,0 +1,36 @@
+package net.peierls.puzzle;
+
+import com.google.common.hash.Funnel;
+
+import java.util.stream.LongStream;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class FingerprintPuzzleStateCacheTest {
+
+    static final Funnel<ExactPuzzleStateCacheTest.NullState> FUNNEL =
+        (state, sink) -> sink.putUnencodedChars(state.getText());
+
+    static ExactPuzzleStateCacheTest.NullState state(long i) {
+        return new ExactPuzzleStateCacheTest.NullState("s" + i);
+    }
+
+    @Test public void fingerprints() {
+        for (double p : new double[] { 1e-9, 1e-20 }) {
+            FingerprintPuzzleStateCache<ExactPuzzleStateCacheTest.NullState> f =
+                new FingerprintPuzzleStateCache<>(FUNNEL, 1_000_000, p);
+            assertEquals(p < 1e-13 ? 96 : 64, f.fingerprintBits());
+
+            long n = 100_000L;
+            assertTrue(LongStream.range(0, n).allMatch(i -> f.put(state(i))));
+            assertFalse(f.put(state(0)));
+            assertTrue(LongStream.range(0, n).allMatch(i -> f.mightContain(state(i))));
+            assertTrue(LongStream.range(n, 2 * n).noneMatch(i -> f.mightContain(state(i))));
+            assertEquals(n, f.approximateElementCount());
+            assertTrue(f.expectedFalsePositiveProbability() > 0);
+            assertTrue(f.expectedFalsePositiveProbability() <= p);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package net.peierls.puzzle;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.MutableGraph;
+
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class GraphPuzzleStateTest {
+
+    /** A directed ladder: a0 -> a1 -> ... -> a9, with a shortcut a2 -> a7, and a dead end. */
+    static MutableGraph<String> ladder() {
+        MutableGraph<String> graph = GraphBuilder.directed().build();
+        for (int i = 0; i < 9; ++i) {
+            graph.putEdge("a" + i, "a" + (i + 1));
+        }
+        graph.putEdge("a2", "a7");
+        graph.putEdge("a3", "dead");
+        return graph;
+    }
+
+    @Test public void shortestPath() {
+        MutableGraph<String> graph = ladder();
+        List<String> path = GraphPuzzleState.path("a0", graph, "a9"::equals,
+            new BfsPuzzleSolver<>());
+        assertEquals(ImmutableList.of("a0", "a1", "a2", "a7", "a8", "a9"), path);
+    }
+
+    @Test public void longKeyCaches() {
+        MutableGraph<String> graph = ladder();
+        List<String> path = GraphPuzzleState.path("a0", graph, "a9"::equals,
+            new BfsPuzzleSolver<>(GraphPuzzleState.longKeyCaches(String::hashCode)));
+        assertEquals(6, path.size());
+        assertTrue(new DfsPuzzleSolver<>(GraphPuzzleState.longKeyCaches(String::hashCode))
+            .solution(GraphPuzzleState.of("dead", graph, "a9"::equals)).isEmpty());
+    }
+
+    @Test public void statesEqualByNode() {
+        MutableGraph<String> graph = ladder();
+        GraphPuzzleState<String> start = GraphPuzzleState.of("a2", graph, "a9"::equals);
+        GraphPuzzleState<String> other = GraphPuzzleState.of("a1", graph, "a9"::equals)
+            .successors().findFirst().get();
+        assertEquals(start, other);
+        assertEquals(start.hashCode(), other.hashCode());
+        assertFalse(start.predecessor().isPresent());
+        assertEquals("a1", other.predecessor().get().node());
+    }
+}
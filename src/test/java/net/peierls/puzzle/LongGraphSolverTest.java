@@ -0,0 +1,54 @@
+package net.peierls.puzzle;
+
+import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.MutableGraph;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class LongGraphSolverTest {
+
+    static final LongGraphSolver.Graph COLLATZ_INVERSE = (n, action) -> {
+        action.accept(2 * n);
+        if (n % 6 == 4) {
+            action.accept((n - 1) / 3);
+        }
+    };
+
+    @Test public void matchesFrameworkSearch() {
+        LongGraphSolver solver = new LongGraphSolver(COLLATZ_INVERSE);
+        for (long goal : new long[] { 1, 3, 7, 9, 25 }) {
+            long[] path = solver.path(1, n -> n == goal);
+            List<Long> expected = GraphPuzzleState.path(1L,
+                    (Long n) -> LongStream.of(2 * n, n % 6 == 4 ? (n - 1) / 3 : 0)
+                        .filter(m -> m != 0).boxed().collect(Collectors.toList()),
+                    n -> n == goal, new BfsPuzzleSolver<>());
+            assertEquals(expected.size(), path.length);
+            assertEquals(1L, path[0]);
+            assertEquals(goal, path[path.length - 1]);
+            for (int i = 1; i < path.length; ++i) {
+                assertTrue(path[i] == 2 * path[i - 1] || 3 * path[i] + 1 == path[i - 1]);
+            }
+        }
+    }
+
+    @Test public void guavaGraphs() {
+        MutableGraph<Integer> graph = GraphBuilder.directed().build();
+        graph.putEdge(0, 1);
+        graph.putEdge(1, 2);
+        graph.putEdge(0, 3);
+        graph.putEdge(3, 2);
+        graph.putEdge(2, 4);
+        graph.addNode(5);
+        LongGraphSolver solver = new LongGraphSolver(LongGraphSolver.ofInts(graph));
+        assertEquals(4, solver.path(0, n -> n == 4).length);
+        assertArrayEquals(new long[] { 2 }, solver.path(2, n -> n % 2 == 0));
+        assertEquals(0, solver.path(5, n -> n == 4).length);
+        assertEquals(0, solver.path(4, n -> n == 0).length);
+    }
+}
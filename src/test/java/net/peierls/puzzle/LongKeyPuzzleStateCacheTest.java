@@ -0,0 +1,47 @@
+package net.peierls.puzzle;
+
+import java.util.List;
+
+import net.peierls.puzzle.pegs.PegsPuzzle;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class LongKeyPuzzleStateCacheTest {
+
+    @Test public void exactKeys() {
+        for (boolean offHeap : new boolean[] { false, true }) {
+            PuzzleStateCache<ExactPuzzleStateCacheTest.NullState> f =
+                new LongKeyPuzzleStateCache<>(s -> s.getText().hashCode(), 10, offHeap);
+
+            for (int i = 0; i < 1_000; ++i) {
+                assertTrue(f.put(new ExactPuzzleStateCacheTest.NullState("s" + i)));
+            }
+            assertFalse(f.put(new ExactPuzzleStateCacheTest.NullState("s0")));
+            assertTrue(f.mightContain(new ExactPuzzleStateCacheTest.NullState("s999")));
+            assertFalse(f.mightContain(new ExactPuzzleStateCacheTest.NullState("s1000")));
+            assertEquals(1_000L, f.approximateElementCount());
+            assertEquals(0f, f.expectedFalsePositiveProbability(), 0);
+        }
+    }
+
+    @Test public void zeroKey() {
+        PuzzleStateCache<ExactPuzzleStateCacheTest.NullState> f =
+            new LongKeyPuzzleStateCache<>(s -> 0L);
+        ExactPuzzleStateCacheTest.NullState s = new ExactPuzzleStateCacheTest.NullState("");
+        assertFalse(f.mightContain(s));
+        assertTrue(f.put(s));
+        assertFalse(f.put(s));
+        assertTrue(f.mightContain(s));
+    }
+
+    @Test public void pegs() {
+        PegsPuzzle puzzle = PegsPuzzle.makeCross(5, 3, 1);
+        List<PegsPuzzle.State> solution = puzzle.solve(new DfsPuzzleSolver<>(
+            () -> new LongKeyPuzzleStateCache<>(PegsPuzzle.stateKey())
+        ));
+        List<PegsPuzzle.State> expected = puzzle.solve(new DfsPuzzleSolver<>());
+        assertEquals(expected.isEmpty(), solution.isEmpty());
+    }
+}
@@ -0,0 +1,41 @@
+package net.peierls.puzzle;
+
+import java.nio.file.Path;
+import java.util.stream.LongStream;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+
+public class PersistentPuzzleStateCacheTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    static CounterState state(long count) {
+        return new CounterState(count, null);
+    }
+
+    @Test public void persistsAcrossRuns() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("states");
+        long n = 100_000L;
+
+        // Deliberately undersized, to force files to grow.
+        try (PuzzleStateCache<CounterState> f =
+                new PersistentPuzzleStateCache<>(dir, CounterState::getCount, 1_000)) {
+            assertTrue(LongStream.range(0, n).allMatch(i -> f.put(state(i))));
+            assertFalse(f.put(state(0)));
+            assertEquals(n, f.approximateElementCount());
+        }
+
+        try (PuzzleStateCache<CounterState> f =
+                new PersistentPuzzleStateCache<>(dir, CounterState::getCount, 1_000)) {
+            assertEquals(n, f.approximateElementCount());
+            assertTrue(LongStream.range(0, n).allMatch(i -> f.mightContain(state(i))));
+            assertTrue(LongStream.range(0, n).noneMatch(i -> f.put(state(i))));
+            assertTrue(LongStream.range(n, 2 * n).noneMatch(i -> f.mightContain(state(i))));
+            assertTrue(f.put(state(n)));
+            assertEquals(0f, f.expectedFalsePositiveProbability(), 0);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package net.peierls.puzzle;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import net.peierls.puzzle.pegs.PegsPuzzle;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+
+public class PuzzleEventsTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass public static void available() {
+        Assume.assumeTrue(FlightRecorder.isAvailable());
+    }
+
+    @Test public void bfsWithTieredCache() throws Exception {
+        PegsPuzzle puzzle = PegsPuzzle.makeCross(5, 3, 1);
+        List<RecordedEvent> events = record(() -> puzzle.solve(new BfsPuzzleSolver<>(
+            () -> new TieredPuzzleStateCache<>(PegsPuzzle.stateKey(), 1L << 16, 0.001))));
+        Map<String, List<RecordedEvent>> byType = byType(events);
+
+        RecordedEvent solve = byType.get("net.peierls.puzzle.Solve").get(0);
+        assertEquals(BfsPuzzleSolver.class.getName(), solve.getString("solver"));
+        assertEquals(TieredPuzzleStateCache.class.getName(), solve.getString("cache"));
+        assertEquals("unsolved", solve.getString("outcome"));
+        assertTrue(solve.getLong("statesSeen") > 10_000);
+
+        // One event for each number of pegs removed, and one for the empty last level.
+        List<RecordedEvent> levels = byType.get("net.peierls.puzzle.Level");
+        assertTrue(levels.size() > 10);
+        for (int i = 0; i < levels.size(); ++i) {
+            assertEquals(i, levels.get(i).getLong("level"));
+        }
+        assertEquals(1L, levels.get(0).getLong("statesExpanded"));
+        assertTrue(byType.containsKey("net.peierls.puzzle.FrontierHighWater"));
+
+        RecordedEvent tierSwitch = byType.get("net.peierls.puzzle.TierSwitch").get(0);
+        assertEquals(1L << 16, tierSwitch.getLong("byteBudget"));
+        // Switching tiers is not running out of budget.
+        assertFalse(byType.containsKey("net.peierls.puzzle.BudgetExhausted"));
+    }
+
+    @Test public void budgetExhausted() throws Exception {
+        // No solver here: JDK 8 recordings lose strings, such as solver
+        // names, that an earlier recording in the same JVM already used.
+        List<RecordedEvent> events = record(() -> {
+            try (BudgetedPuzzleStateCache<CounterState> cache = new BudgetedPuzzleStateCache<>(
+                    new ExactPuzzleStateCache<CounterState>(), 100, System.nanoTime(), 0)) {
+                for (long count = CounterState.INIT; count <= CounterState.FINAL; ++count) {
+                    cache.put(new CounterState(count, null));
+                }
+                fail("state budget should be exceeded");
+            } catch (BudgetedPuzzleStateCache.BudgetExceededException expected) {
+                // recorded as exhausted
+            }
+        });
+        RecordedEvent budget = byType(events).get("net.peierls.puzzle.BudgetExhausted").get(0);
+        assertEquals("states", budget.getString("budget"));
+        assertEquals(100L, budget.getLong("limit"));
+        assertEquals(100L, budget.getLong("used"));
+    }
+
+    @Test public void dfsWithScalableBloomCache() throws Exception {
+        PegsPuzzle puzzle = PegsPuzzle.makeCross(5, 3, 1);
+        List<RecordedEvent> events = record(() -> puzzle.solve(new DfsPuzzleSolver<>(
+            () -> new ScalableBloomPuzzleStateCache<>(PegsPuzzle.stateFunnel(), 1000, 0.001))));
+        Map<String, List<RecordedEvent>> byType = byType(events);
+
+        assertEquals(DfsPuzzleSolver.class.getName(),
+            byType.get("net.peierls.puzzle.Solve").get(0).getString("solver"));
+        assertFalse(byType.containsKey("net.peierls.puzzle.Level"));
+        RecordedEvent saturation = byType.get("net.peierls.puzzle.CacheSaturation").get(0);
+        assertEquals(1000L, saturation.getLong("capacity"));
+        assertEquals("adding slice 1", saturation.getString("consequence"));
+    }
+
+    @Test public void failedSolve() throws Exception {
+        PegsPuzzle puzzle = PegsPuzzle.makeCross(7, 3, 1);
+        List<RecordedEvent> events = record(() -> {
+            try {
+                puzzle.solve(new DfsPuzzleSolver<>(
+                    () -> new CuckooPuzzleStateCache<>(PegsPuzzle.stateFunnel(), 100, 0.001)));
+                fail("cuckoo filter should fill");
+            } catch (IllegalStateException expected) {
+                // recorded as failed
+            }
+        });
+        Map<String, List<RecordedEvent>> byType = byType(events);
+        assertEquals("failed", byType.get("net.peierls.puzzle.Solve").get(0).getString("outcome"));
+        assertTrue(byType.containsKey("net.peierls.puzzle.CacheSaturation"));
+    }
+
+    List<RecordedEvent> record(Runnable action) throws Exception {
+        Path file = folder.newFile().toPath();
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {
+                    "Solve", "Level", "FrontierHighWater", "TierSwitch", "CacheSaturation", "BudgetExhausted" }) {
+                recording.enable("net.peierls.puzzle." + name);
+            }
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file);
+    }
+
+    static Map<String, List<RecordedEvent>> byType(List<RecordedEvent> events) {
+        return events.stream()
+            .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+            .collect(Collectors.groupingBy(e -> e.getEventType().getName()));
+    }
+}
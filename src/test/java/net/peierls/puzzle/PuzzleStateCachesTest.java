@@ -0,0 +1,66 @@
+package net.peierls.puzzle;
+
+import java.util.stream.LongStream;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class PuzzleStateCachesTest {
+
+    static CounterState state(long count) {
+        return new CounterState(count, null);
+    }
+
+    @Test public void choosesByBudget() {
+        long mb = 1L << 20;
+        PuzzleStateCache<CounterState> keyed = PuzzleStateCaches.withinBudget(
+            mb, 1_000_000, 0.001, CounterState.funnel(),
+            CounterState::getCount).get();
+        assertTrue(keyed instanceof TieredPuzzleStateCache);
+
+        PuzzleStateCache<CounterState> small = PuzzleStateCaches.withinBudget(
+            mb, 10_000, 0.001, CounterState.funnel()).get();
+        assertTrue(small instanceof TieredPuzzleStateCache);
+
+        PuzzleStateCache<CounterState> large = PuzzleStateCaches.withinBudget(
+            mb, 2_000_000, 0.001, CounterState.funnel()).get();
+        assertTrue(large instanceof ScalableBloomPuzzleStateCache);
+        assertTrue(large.memoryFootprintBytes() <= mb);
+        LongStream.range(0, 4_000_000).forEach(i -> large.put(state(i)));
+        assertTrue(large.memoryFootprintBytes() <= mb);
+
+        // Too small for the tiered cache's hot table.
+        long kb = 1L << 12;
+        PuzzleStateCache<CounterState> tiny = PuzzleStateCaches.withinBudget(
+            kb, 100, 0.001, CounterState.funnel(),
+            CounterState::getCount).get();
+        assertTrue(tiny instanceof ScalableBloomPuzzleStateCache);
+        LongStream.range(0, 10_000).forEach(i -> tiny.put(state(i)));
+        assertTrue(tiny.memoryFootprintBytes() <= kb);
+    }
+
+    @Test public void footprintTracksBudget() {
+        long budget = 1L << 20;
+        PuzzleStateCache<CounterState> f = PuzzleStateCaches.withinBudget(
+            budget, 1_000, 0.001, CounterState.funnel(),
+            CounterState::getCount).get();
+        LongStream.range(0, 10_000).forEach(i -> f.put(state(i)));
+        assertTrue(f.memoryFootprintBytes() <= budget);
+        assertEquals(0f, f.expectedFalsePositiveProbability(), 0);
+
+        // Overshoot the estimate; the cache re-tiers, within the budget
+        // during the switch and after it.
+        long n = 1_000_000L;
+        LongStream.range(10_000, n).forEach(i -> f.put(state(i)));
+        TieredPuzzleStateCache.TierSwitch tierSwitch = ((TieredPuzzleStateCache<?>) f).tierSwitch();
+        assertTrue(tierSwitch.hotTierBytes() + tierSwitch.overflowTierBytes() <= budget);
+        assertTrue(f.expectedFalsePositiveProbability() > 0);
+        assertTrue(f.memoryFootprintBytes() <= budget);
+
+        // Far more than the budget can hold; the footprint stays within it.
+        LongStream.range(n, 4 * n).forEach(i -> f.put(state(i)));
+        assertTrue(f.memoryFootprintBytes() <= budget);
+        assertTrue(f.memoryFootprintBytes() > budget / 2);
+    }
+}
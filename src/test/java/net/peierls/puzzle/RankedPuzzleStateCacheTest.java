@@ -0,0 +1,107 @@
+package net.peierls.puzzle;
+
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class RankedPuzzleStateCacheTest {
+
+    /**
+     * A 3-subset of {0, ..., 9}, whose moves swap an element for its
+     * successor if that isn't in the subset.
+     */
+    static class SubsetState implements RankablePuzzleState<SubsetState> {
+        static final int N = 10;
+        static final int K = 3;
+        final long subset;
+        final SubsetState pred;
+
+        SubsetState(long subset, SubsetState pred) {
+            this.subset = subset;
+            this.pred = pred;
+        }
+
+        @Override public boolean isSolution() {
+            return subset == 0b111L << (N - K);
+        }
+
+        @Override public Stream<SubsetState> successors() {
+            return IntStream.range(0, N - 1)
+                .filter(i -> (subset >>> i & 0b11L) == 0b01L)
+                .mapToObj(i -> new SubsetState(subset ^ 0b11L << i, this));
+        }
+
+        @Override public Optional<SubsetState> predecessor() {
+            return Optional.ofNullable(pred);
+        }
+
+        @Override public long rank() {
+            return Combinations.rank(subset);
+        }
+
+        @Override public long rankCount() {
+            return Combinations.count(N, K);
+        }
+
+        @Override public boolean equals(Object obj) {
+            return obj instanceof SubsetState && ((SubsetState) obj).subset == subset;
+        }
+
+        @Override public int hashCode() {
+            return Long.hashCode(subset);
+        }
+    }
+
+    @Test public void ranksAreDense() {
+        for (int n = 0; n <= 12; ++n) {
+            for (int k = 0; k <= n; ++k) {
+                boolean[] ranked = new boolean[(int) Combinations.count(n, k)];
+                for (long subset = 0; subset < 1L << n; ++subset) {
+                    if (Long.bitCount(subset) == k) {
+                        int rank = (int) Combinations.rank(subset);
+                        assertFalse(ranked[rank]);
+                        ranked[rank] = true;
+                        assertEquals(subset, Combinations.unrank(rank, k));
+                    }
+                }
+                for (boolean r : ranked) {
+                    assertTrue(r);
+                }
+            }
+        }
+        assertEquals(924L, Combinations.count(12, 6));
+        assertEquals(1832624140942590534L, Combinations.count(64, 32));
+        assertEquals(Combinations.count(64, 32) - 1, Combinations.rank(-1L << 32));
+    }
+
+    @Test public void exactBits() {
+        long n = Combinations.count(SubsetState.N, SubsetState.K);
+        PuzzleStateCache<SubsetState> f = new RankedPuzzleStateCache<>(n);
+        assertEquals(16L, f.memoryFootprintBytes());
+        SubsetState s = new SubsetState(0b1011L, null);
+        assertFalse(f.mightContain(s));
+        assertTrue(f.put(s));
+        assertFalse(f.put(new SubsetState(0b1011L, null)));
+        assertTrue(f.mightContain(s));
+        assertEquals(1L, f.approximateElementCount());
+        assertEquals(0.0, f.expectedFalsePositiveProbability(), 0);
+    }
+
+    @Test public void solve() {
+        SubsetState initial = new SubsetState(0b111L, null);
+        int exact = new BfsPuzzleSolver<SubsetState>().solution(initial).size();
+        PuzzleSolver<SubsetState> solver = new BfsPuzzleSolver<SubsetState>(
+            () -> new RankedPuzzleStateCache<>(initial.rankCount()));
+        assertEquals(exact, solver.solution(initial).size());
+        assertEquals(22, exact); // 21 moves, each moving one element up by one
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rankOutOfRange() {
+        new RankedPuzzleStateCache<SubsetState>(10).put(new SubsetState(0b1110000000L, null));
+    }
+}
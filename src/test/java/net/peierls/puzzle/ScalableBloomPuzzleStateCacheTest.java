@@ -0,0 +1,33 @@
+package net.peierls.puzzle;
+
+import java.util.stream.LongStream;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class ScalableBloomPuzzleStateCacheTest {
+
+    static final double FPP = 0.01;
+
+    @Test public void overshoot() {
+        // Put 100 times more states than the initial estimate.
+        long n = 100_000L;
+        PuzzleStateCache<CounterState> f =
+            new ScalableBloomPuzzleStateCache<>(CounterState.funnel(), n / 100, FPP);
+
+        LongStream.range(0, n).forEach(i -> f.put(new CounterState(i, null)));
+
+        assertTrue(LongStream.range(0, n)
+            .allMatch(i -> f.mightContain(new CounterState(i, null))));
+
+        double fpp = f.expectedFalsePositiveProbability();
+        assertTrue("compounded FPP " + fpp, fpp > 0 && fpp <= FPP);
+
+        long falsePositives = LongStream.range(n, 2 * n)
+            .filter(i -> f.mightContain(new CounterState(i, null)))
+            .count();
+        assertTrue(falsePositives <= 1.5 * FPP * n);
+        assertEquals(n, f.approximateElementCount(), n * 0.05);
+    }
+}
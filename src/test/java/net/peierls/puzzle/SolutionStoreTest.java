@@ -0,0 +1,78 @@
+package net.peierls.puzzle;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import net.peierls.puzzle.pegs.PegsPuzzle;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class SolutionStoreTest {
+
+    static DfsPuzzleSolverTest.CounterState counter(long count) {
+        return new DfsPuzzleSolverTest.CounterState(count, null);
+    }
+
+    @Test public void resolveFromSolutionPath() {
+        SolutionStore<DfsPuzzleSolverTest.CounterState> store =
+            new SolutionStore<>(DfsPuzzleSolverTest.CounterState::getCount, 1_000);
+        PuzzleSolver<DfsPuzzleSolverTest.CounterState> solver =
+            new DfsPuzzleSolver<>(ExactPuzzleStateCache::new, store);
+
+        List<DfsPuzzleSolverTest.CounterState> first = solver.solution(counter(DfsPuzzleSolverTest.INIT));
+        assertFalse(first.isEmpty());
+        assertTrue(store.isKnownSolvable(first.get(0)));
+
+        DfsPuzzleSolverTest.CounterState middle = counter(first.get(first.size() / 2).getCount());
+        Optional<DfsPuzzleSolverTest.CounterState> end = store.solutionFrom(middle);
+        assertTrue(end.isPresent());
+        assertEquals(DfsPuzzleSolverTest.FINAL, end.get().getCount());
+
+        long hits = store.hitCount();
+        List<DfsPuzzleSolverTest.CounterState> second = solver.solution(middle);
+        assertTrue(store.hitCount() > hits);
+        assertEquals(first.subList(first.size() / 2, first.size()), second);
+    }
+
+    @Test public void hopeless() {
+        SolutionStore<DfsPuzzleSolverTest.CounterState> store =
+            new SolutionStore<>(DfsPuzzleSolverTest.CounterState::getCount, 1_000);
+        assertFalse(store.isKnownHopeless(counter(7)));
+        store.recordHopeless(counter(7));
+        assertTrue(store.isKnownHopeless(counter(7)));
+        assertFalse(store.isKnownSolvable(counter(7)));
+
+        PuzzleSolver<DfsPuzzleSolverTest.CounterState> solver =
+            new DfsPuzzleSolver<>(ExactPuzzleStateCache::new, store);
+        assertTrue(solver.solution(counter(7)).isEmpty());
+    }
+
+    @Test public void hopelessOnlyFromExactSearch() {
+        PegsPuzzle puzzle = PegsPuzzle.makeCross(5, 3, 1); // unsolvable
+        PegsPuzzle.State initial = puzzle.solve(state -> Collections.singletonList(state)).get(0);
+        SolutionStore<PegsPuzzle.State> store = new SolutionStore<>(PegsPuzzle.stateKey(), 1_000);
+
+        // Fingerprints might collide, so a failed search proves nothing.
+        assertTrue(puzzle.solve(new DfsPuzzleSolver<>(PuzzleStateCaches.withinBudget(
+            1L << 20, 40_000, 0.001, PegsPuzzle.stateFunnel()), store)).isEmpty());
+        assertFalse(store.isKnownHopeless(initial));
+
+        assertTrue(puzzle.solve(new DfsPuzzleSolver<>(
+            () -> new LongKeyPuzzleStateCache<>(PegsPuzzle.stateKey()), store)).isEmpty());
+        assertTrue(store.isKnownHopeless(initial));
+    }
+
+    @Test public void bounded() {
+        SolutionStore<DfsPuzzleSolverTest.CounterState> store =
+            new SolutionStore<>(DfsPuzzleSolverTest.CounterState::getCount, 64);
+        assertEquals(64, store.capacity());
+        for (long i = 0; i < 10_000; ++i) {
+            store.recordHopeless(counter(i));
+        }
+        assertTrue(store.evictionCount() >= 10_000 - 64);
+        assertTrue(store.isKnownHopeless(counter(9_999)));
+    }
+}
@@ -0,0 +1,99 @@
+package net.peierls.puzzle;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import static net.peierls.puzzle.RankedPuzzleStateCacheTest.SubsetState;
+
+
+public class StateGraphTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    static final long BOTTOM = 0b111L;
+    static final long TOP = 0b111L << (SubsetState.N - SubsetState.K);
+
+    @Test public void matchesSearch() {
+        StateGraph graph = StateGraph.compile(new SubsetState(BOTTOM, null), s -> s.subset);
+        assertEquals(120, graph.stateCount());
+        assertEquals(BOTTOM, graph.key(0));
+
+        int top = graph.id(TOP);
+        for (int id = 0; id < graph.stateCount(); ++id) {
+            assertEquals(id, graph.id(graph.key(id)));
+            SubsetState state = new SubsetState(graph.key(id), null);
+            List<SubsetState> expected = new BfsPuzzleSolver<SubsetState>().solution(state);
+            int[] path = graph.path(id, i -> i == top);
+            assertEquals(expected.size(), path.length);
+            assertEquals(id, path[0]);
+            assertEquals(top, path[path.length - 1]);
+        }
+        assertEquals(-1, graph.id(0b1L));
+    }
+
+    @Test public void zeroKey() {
+        StateGraph graph = StateGraph.compile(new SubsetState(BOTTOM, null), s -> s.subset);
+        StateGraph shifted = StateGraph.compile(new SubsetState(BOTTOM, null), s -> s.subset ^ BOTTOM);
+        assertEquals(0L, shifted.key(0));
+        assertEquals(graph.stateCount(), shifted.stateCount());
+        assertEquals(graph.edgeCount(), shifted.edgeCount());
+        for (int id = 0; id < graph.stateCount(); ++id) {
+            assertEquals(graph.key(id) ^ BOTTOM, shifted.key(id));
+            assertEquals(id, shifted.id(shifted.key(id)));
+            StringBuilder expected = new StringBuilder();
+            StringBuilder actual = new StringBuilder();
+            graph.forEachSuccessor(id, i -> expected.append(i).append(' '));
+            shifted.forEachSuccessor(id, i -> actual.append(i).append(' '));
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+
+    @Test public void differentGoals() {
+        StateGraph graph = StateGraph.compile(new SubsetState(BOTTOM, null), s -> s.subset);
+        // Moves only go up, so nothing leads back to the bottom.
+        assertEquals(1, graph.path(graph.id(TOP), i -> graph.key(i) == TOP).length);
+        assertEquals(0, graph.path(graph.id(TOP), i -> graph.key(i) == BOTTOM).length);
+        // Vacating the lowest element means moving all three up one.
+        int[] path = graph.path(0, i -> (graph.key(i) & 1L) == 0);
+        assertEquals(4, path.length);
+        assertEquals(0b1110L, graph.key(path[3]));
+    }
+
+    @Test public void reverseDistances() throws Exception {
+        StateGraph graph = StateGraph.compile(new SubsetState(BOTTOM, null), s -> s.subset);
+        int[] fromBottom = graph.distances(i -> i == 0);
+        int[] toTop = graph.reverse().distances(i -> graph.key(i) == TOP);
+
+        Path file = folder.newFile().toPath();
+        DistanceOracle<SubsetState> oracle = DistanceOracle.build(file, DistanceOracleTest::unrank);
+        for (int id = 0; id < graph.stateCount(); ++id) {
+            int target = id;
+            SubsetState state = new SubsetState(graph.key(id), null);
+            assertEquals(oracle.distance(state), toTop[id]);
+            assertEquals(graph.path(0, i -> i == target).length - 1, fromBottom[id]);
+        }
+    }
+
+    @Test public void saveAndLoad() throws Exception {
+        StateGraph graph = StateGraph.compile(new SubsetState(BOTTOM, null), s -> s.subset);
+        Path file = folder.newFile().toPath();
+        graph.save(file);
+        StateGraph loaded = StateGraph.load(file);
+        assertEquals(graph.stateCount(), loaded.stateCount());
+        assertEquals(graph.edgeCount(), loaded.edgeCount());
+        for (int id = 0; id < graph.stateCount(); ++id) {
+            assertEquals(graph.key(id), loaded.key(id));
+            assertEquals(id, loaded.id(graph.key(id)));
+            assertEquals(graph.successorCount(id), loaded.successorCount(id));
+            StringBuilder expected = new StringBuilder();
+            StringBuilder actual = new StringBuilder();
+            graph.forEachSuccessor(id, i -> expected.append(i).append(' '));
+            loaded.forEachSuccessor(id, i -> actual.append(i).append(' '));
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package net.peierls.puzzle;
+
+import java.util.stream.LongStream;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class TieredPuzzleStateCacheTest {
+
+    static CounterState state(long count) {
+        return new CounterState(count, null);
+    }
+
+    @Test public void switchesTiersAtBudget() {
+        double fpp = 0.001;
+        TieredPuzzleStateCache<CounterState> f =
+            new TieredPuzzleStateCache<>(CounterState::getCount, 1L << 20, fpp);
+
+        long n = 1_000L;
+        assertTrue(LongStream.range(0, n).allMatch(i -> f.put(state(i))));
+        assertNull(f.tierSwitch());
+        assertEquals(n, f.approximateElementCount());
+        assertEquals(0f, f.expectedFalsePositiveProbability(), 0);
+
+        // As many as the budget holds within fpp.
+        n = 250_000L;
+        LongStream.range(1_000, n).parallel().forEach(i -> f.put(state(i)));
+        TieredPuzzleStateCache.TierSwitch tierSwitch = f.tierSwitch();
+        assertNotNull(tierSwitch);
+        assertTrue(tierSwitch.hotTierBytes() + tierSwitch.overflowTierBytes() <= tierSwitch.byteBudget());
+        assertTrue(tierSwitch.hotTierBytes() > tierSwitch.byteBudget() / 4);
+        assertTrue(tierSwitch.overflowExpectedInsertions() >= 2 * tierSwitch.elementCount());
+
+        // States from both tiers are still seen.
+        assertTrue(LongStream.range(0, n).allMatch(i -> f.mightContain(state(i))));
+        assertTrue(f.expectedFalsePositiveProbability() > 0);
+        assertTrue(f.expectedFalsePositiveProbability() <= fpp);
+        assertEquals(n, f.approximateElementCount(), n * 0.05);
+        assertTrue(f.memoryFootprintBytes() <= tierSwitch.byteBudget());
+    }
+
+    @Test public void smallBudget() {
+        long budget = TieredPuzzleStateCache.MIN_BYTE_BUDGET;
+        TieredPuzzleStateCache<CounterState> f =
+            new TieredPuzzleStateCache<>(CounterState::getCount, budget, 0.001);
+        assertTrue(f.memoryFootprintBytes() <= budget);
+
+        // More than fit exactly, so some are taken for false positives.
+        long n = 10_000L;
+        LongStream.range(0, n).forEach(i -> f.put(state(i)));
+        TieredPuzzleStateCache.TierSwitch tierSwitch = f.tierSwitch();
+        assertNotNull(tierSwitch);
+        assertTrue(tierSwitch.overflowTierBytes() > 0);
+        assertTrue(tierSwitch.hotTierBytes() + tierSwitch.overflowTierBytes() <= budget);
+        assertTrue(LongStream.range(0, n).allMatch(i -> f.mightContain(state(i))));
+        assertTrue(f.memoryFootprintBytes() <= budget);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBudgetBelowMinimum() {
+        new TieredPuzzleStateCache<>(CounterState::getCount, 4096, 0.001);
+    }
+}
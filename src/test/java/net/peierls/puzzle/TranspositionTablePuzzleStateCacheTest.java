@@ -0,0 +1,65 @@
+package net.peierls.puzzle;
+
+import java.util.List;
+
+import net.peierls.puzzle.pegs.PegsPuzzle;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class TranspositionTablePuzzleStateCacheTest {
+
+    static CounterState state(long count) {
+        return new CounterState(count, null);
+    }
+
+    @Test public void boundedWithPriority() {
+        int capacity = 1_024;
+        TranspositionTablePuzzleStateCache<CounterState> f =
+            new TranspositionTablePuzzleStateCache<>(
+                CounterState::getCount, s -> (int) -s.getCount(), capacity);
+
+        assertTrue(f.put(state(0)));
+        assertFalse(f.put(state(0)));
+        for (long i = 1; i < 100_000; ++i) {
+            f.put(state(i));
+        }
+        assertEquals(capacity, f.approximateElementCount());
+        assertEquals(100_000 - capacity, f.evictionCount());
+
+        // The highest priority state survives.
+        assertTrue(f.mightContain(state(0)));
+        assertFalse(f.put(state(0)));
+        assertEquals(0f, f.expectedFalsePositiveProbability(), 0);
+
+        // A newcomer with lower priority than a full bucket is refused.
+        assertTrue(f.put(state(1_000_000)));
+        assertFalse(f.mightContain(state(1_000_000)));
+        assertEquals(capacity, f.approximateElementCount());
+    }
+
+    @Test public void shallowerStatesSurvive() {
+        TranspositionTablePuzzleStateCache<CounterState> f =
+            new TranspositionTablePuzzleStateCache<>(CounterState::getCount, 4);
+        CounterState s = state(0);
+        f.put(s);
+        for (long i = 1; i < 1_000; ++i) {
+            s = new CounterState(i, s);
+            f.put(s);
+        }
+        // One bucket, so the four states nearest the initial state are kept.
+        for (long i = 0; i < 1_000; ++i) {
+            assertEquals(i < TranspositionTablePuzzleStateCache.WAYS, f.mightContain(state(i)));
+        }
+    }
+
+    @Test public void pegs() {
+        PegsPuzzle puzzle = PegsPuzzle.makeCross(5, 3, 1);
+        List<PegsPuzzle.State> expected = puzzle.solve(new DfsPuzzleSolver<>());
+        List<PegsPuzzle.State> solution = puzzle.solve(new DfsPuzzleSolver<>(
+            () -> new TranspositionTablePuzzleStateCache<>(PegsPuzzle.stateKey(), 16_384)
+        ));
+        assertEquals(expected.isEmpty(), solution.isEmpty());
+    }
+}
@@ -1,8 +1,18 @@
 package net.peierls.puzzle.client;
 
 import com.google.common.collect.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import static java.util.stream.Collectors.counting;
+import java.util.stream.Stream;
+
+import net.peierls.puzzle.BfsPuzzleSolver;
+import net.peierls.puzzle.Combinations;
+import net.peierls.puzzle.DistanceOracle;
+import net.peierls.puzzle.PuzzleSolver;
+import net.peierls.puzzle.RankablePuzzleState;
+import net.peierls.puzzle.RankedPuzzleStateCache;
 
 /**
  * A puzzle on a graph of three interlocking circles with 12 vertices
@@ -16,7 +26,12 @@ import static java.util.stream.Collectors.counting;
  *    7   8   9
  *     10  11
  * </pre>
- * This implementation uses breadth-first search to find a solution.
+ * This implementation uses the framework's breadth-first search, or a
+ * precomputed {@link DistanceOracle} of the whole state space. A coloring
+ * is packed into an int, with bit i set iff vertex i is green, so it is one
+ * of the C(12, 6) = 924 6-subsets of the vertices, ranked by the combinatorial
+ * number system, and the search tracks the colorings it has seen with a
+ * {@link RankedPuzzleStateCache} of 924 bits.
  */
 public class CirclePuzzle {
 
@@ -39,10 +54,22 @@ public class CirclePuzzle {
         Color.GREEN, Color.GREEN
     );
 
-    /** Attempt to solve a circle puzzle from the given initial position. */
+    /**
+     * Attempt to solve a circle puzzle from the given initial position,
+     * by search or, if a file is given, with a distance table kept in
+     * that file, which is built if it doesn't exist.
+     */
     public static void main(String args[]) {
         CirclePuzzle puzzle = new CirclePuzzle(INITIAL_POSITION);
-        Optional<Position> solution = puzzle.solve();
+        Optional<Position> solution;
+        if (args.length > 0) {
+            Path file = Paths.get(args[0]);
+            solution = puzzle.solve(Files.exists(file)
+                ? DistanceOracle.open(file)
+                : DistanceOracle.build(file, Position::unrank));
+        } else {
+            solution = puzzle.solve();
+        }
         if (solution.isPresent()) {
             System.out.println("Solved: " + solution.get());
         } else {
@@ -51,31 +78,29 @@ public class CirclePuzzle {
     }
 
 
-    final Queue<Position> queue;
-    final Set<ImmutableList<Color>> seen;
+    final Position initialPosition;
 
     CirclePuzzle(Position initialPosition) {
-        this.queue = new ArrayDeque<>();
-        this.seen = new HashSet<>();
-        queue.add(initialPosition);
+        this.initialPosition = initialPosition;
     }
 
     /**
-     * Breadth-first search using a queue and a set of already-seen positions.
+     * Breadth-first search, tracking already-seen colorings by rank.
      */
     Optional<Position> solve() {
-        for (Position position; (position = queue.poll()) != null; ) {
-            if (position.isSolution()) {
-                return Optional.of(position);
-            }
-            if (!seen.contains(position.coloring)) {
-                seen.add(position.coloring);
-                Rotation.ALL_ROTATIONS.stream()
-                    .map(position::rotate)
-                    .forEach(newPosition -> queue.add(newPosition));
-            }
-        }
-        return Optional.empty();
+        return solve(new BfsPuzzleSolver<Position>(
+            () -> new RankedPuzzleStateCache<>(Position.RANK_COUNT)));
+    }
+
+    /**
+     * Solve with the given solver, such as a {@link DistanceOracle},
+     * which answers with no search at all.
+     */
+    Optional<Position> solve(PuzzleSolver<Position> solver) {
+        List<Position> solution = solver.solution(initialPosition);
+        return solution.isEmpty()
+            ? Optional.empty()
+            : Optional.of(solution.get(solution.size() - 1));
     }
 
 
@@ -98,17 +123,34 @@ public class CirclePuzzle {
 
 
         final String circleId;
-        final ImmutableList<Integer> circle;
         final Direction direction;
+        final int mask;       // vertices of the circle
+        final int[] from;     // vertex whose color moves to the next one
+        final int[] to;
 
         Rotation(String circleId, ImmutableList<Integer> circle, Direction direction) {
             this.circleId = circleId;
-            this.circle = circle;
             this.direction = direction;
+            ImmutableList<Integer> indices = direction == Direction.CW ? circle : circle.reverse();
+            int n = indices.size();
+            this.from = new int[n];
+            this.to = new int[n];
+            int mask = 0;
+            for (int i = 0; i < n; ++i) {
+                from[i] = indices.get(i);
+                to[i] = indices.get((i + 1) % n);
+                mask |= 1 << from[i];
+            }
+            this.mask = mask;
         }
 
-        ImmutableList<Integer> indices() {
-            return direction == Direction.CW ? circle : circle.reverse();
+        /** The coloring after this rotation of the given one. */
+        int apply(int coloring) {
+            int result = coloring & ~mask;
+            for (int i = 0; i < from.length; ++i) {
+                result |= (coloring >>> from[i] & 1) << to[i];
+            }
+            return result;
         }
 
         @Override public String toString() {
@@ -135,49 +177,80 @@ public class CirclePuzzle {
      * the previous position, and the rotation from the previous
      * position into this one.
      */
-    static class Position {
-        /** The indices of the triangle that must all be green for the goal position. */
-        static final ImmutableList<Integer> TRIANGLE = ImmutableList.of(1, 4, 5, 7, 8, 9);
+    static class Position implements RankablePuzzleState<Position> {
+        static final int VERTICES = 12;
+        static final int GREENS = 6;
+        static final long RANK_COUNT = Combinations.count(VERTICES, GREENS);
 
-        final ImmutableList<Color> coloring;
+        /** The vertices of the triangle that must all be green for the goal position. */
+        static final int TRIANGLE = 1 << 1 | 1 << 4 | 1 << 5 | 1 << 7 | 1 << 8 | 1 << 9;
+
+        final int coloring; // bit i set iff vertex i is green
         final Position parent;
         final Rotation rotation;
 
-        Position(List<Color> coloring, Position parent, Rotation rotation) {
-            this.coloring = ImmutableList.copyOf(coloring);
+        Position(int coloring, Position parent, Rotation rotation) {
+            this.coloring = coloring;
             this.parent = parent;
             this.rotation = rotation;
         }
 
         /** Create an initial position from an array of 12 colors. */
         static Position of(Color... colors) {
-            if (colors.length != 12) {
+            if (colors.length != VERTICES) {
                 throw new IllegalArgumentException("Supply exactly 12 colors");
             }
-            List<Color> coloring = ImmutableList.copyOf(colors);
-            if (coloring.stream().filter(c -> c == Color.GREEN).collect(counting()) != 6) {
+            int coloring = 0;
+            for (int i = 0; i < VERTICES; ++i) {
+                if (colors[i] == Color.GREEN) {
+                    coloring |= 1 << i;
+                }
+            }
+            if (Integer.bitCount(coloring) != GREENS) {
                 throw new IllegalArgumentException("Supply exactly 6 greens");
             }
             return new Position(coloring, null, null);
         }
 
+        /** The initial position whose coloring has the given rank. */
+        static Position unrank(long rank) {
+            return new Position((int) Combinations.unrank(rank, GREENS), null, null);
+        }
+
         /** Creates a new position from this one under the given rotation. */
         Position rotate(Rotation rotation) {
-            Color[] colors = coloring.toArray(new Color[coloring.size()]);
-            ImmutableList<Integer> indices = rotation.indices();
-            int n = indices.size();
-            for (int i = 0; i < n; ++i) {
-                int j = (i+1) % n;
-                colors[indices.get(j)] = coloring.get(indices.get(i));
-            }
-            return new Position(ImmutableList.copyOf(colors), this, rotation);
+            return new Position(rotation.apply(coloring), this, rotation);
+        }
+
+        /** True if all vertices of TRIANGLE are green. */
+        @Override public boolean isSolution() {
+            return coloring == TRIANGLE;
+        }
+
+        @Override public Stream<Position> successors() {
+            return Rotation.ALL_ROTATIONS.stream().map(this::rotate);
+        }
+
+        @Override public Optional<Position> predecessor() {
+            return Optional.ofNullable(parent);
+        }
+
+        @Override public long rank() {
+            return Combinations.rank(coloring);
+        }
+
+        @Override public long rankCount() {
+            return RANK_COUNT;
+        }
+
+        @Override public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Position)) return false;
+            return this.coloring == ((Position) obj).coloring;
         }
 
-        /** True if all vertices indexed by TRIANGLE are green. */
-        boolean isSolution() {
-            return TRIANGLE.stream()
-                .mapToInt(i -> i)
-                .allMatch(i -> coloring.get(i) == Color.GREEN);
+        @Override public int hashCode() {
+            return coloring;
         }
 
         /** Chain back through the parent links to collect rotations in reverse order. */
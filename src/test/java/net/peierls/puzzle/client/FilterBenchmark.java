@@ -0,0 +1,70 @@
+package net.peierls.puzzle.client;
+
+import net.peierls.puzzle.BloomPuzzleStateCache;
+import net.peierls.puzzle.CounterState;
+import net.peierls.puzzle.CuckooPuzzleStateCache;
+import net.peierls.puzzle.Diagnostics;
+import net.peierls.puzzle.PuzzleStateCache;
+
+
+/**
+ * Compares {@link CuckooPuzzleStateCache} with {@link BloomPuzzleStateCache}
+ * sized for the same number of states and false positive probability,
+ * printing bits per state and put throughput for each. Run it with
+ * {@code ant bench-filters}:
+ * <pre>
+ * FilterBenchmark [--states N] [--repeat N]
+ * </pre>
+ * Each cache is filled with states of the counter puzzle of {@link
+ * CounterState} once unmeasured, so that it is timed with compiled code,
+ * then repeat times (default 3) into fresh caches, keeping the fastest.
+ * Cache diagnostics are made quiet.
+ */
+public class FilterBenchmark {
+
+    static final double[] FPPS = { 0.001, 0.0001 };
+
+    interface CacheFactory {
+        PuzzleStateCache<CounterState> create(long expectedInsertions, double fpp);
+    }
+
+
+    public static void main(String... args) {
+        long states = 1_000_000L;
+        int repeat = 3;
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--states": states = Long.parseLong(args[++i]); break;
+                case "--repeat": repeat = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("unknown argument: " + args[i]);
+            }
+        }
+        Diagnostics.setQuiet(true);
+        for (double fpp : FPPS) {
+            report("cuckoo", fpp, states, repeat,
+                (n, p) -> new CuckooPuzzleStateCache<>(CounterState.funnel(), n, p));
+            report("bloom", fpp, states, repeat,
+                (n, p) -> new BloomPuzzleStateCache<>(CounterState.funnel(), n, p));
+        }
+    }
+
+    static void report(String name, double fpp, long states, int repeat, CacheFactory factory) {
+        long bestNanos = Long.MAX_VALUE;
+        long bytes = 0L;
+        for (int i = 0; i <= repeat; ++i) {
+            try (PuzzleStateCache<CounterState> cache = factory.create(states, fpp)) {
+                long start = System.nanoTime();
+                for (long count = 0; count < states; ++count) {
+                    cache.put(new CounterState(count, null));
+                }
+                long nanos = System.nanoTime() - start;
+                if (i > 0) {
+                    bestNanos = Math.min(bestNanos, nanos);
+                }
+                bytes = cache.memoryFootprintBytes();
+            }
+        }
+        System.out.printf("fpp %.4f: %s %.2f bits/state, %.2f Mput/s%n",
+            fpp, name, (double) bytes * Byte.SIZE / states, states * 1e3 / bestNanos);
+    }
+}
@@ -7,6 +7,10 @@ import java.util.concurrent.*;
 import java.util.stream.*;
 import one.util.streamex.*;
 
+import net.peierls.puzzle.BfsPuzzleSolver;
+import net.peierls.puzzle.GraphPuzzleState;
+import net.peierls.puzzle.LongGraphSolver;
+
 
 /**
  * Demonstrate usage of puzzle framework.
@@ -33,6 +37,11 @@ public class SampleUsage {
         }
     }
 
+    /**
+     * Stream of the nodes reachable from start, in breadth-first order.
+     * To search a graph for a goal, use {@link GraphPuzzleState} or
+     * {@link LongGraphSolver}, as in main.
+     */
     public static <T> Stream<T> bfs(T start, SuccessorsFunction<T> graph) {
         Map<T, Integer> seen = new HashMap<>();
         Queue<T> queue = new ArrayDeque<>();
@@ -58,5 +67,18 @@ public class SampleUsage {
         Stream<Node> nodes = bfs(Node.of(1), Node::successors);
         System.out.printf("first %d nodes: %s%n", limit,
             StreamEx.of(nodes).limit(limit).mapToLong(node -> node.n).joining(", "));
+
+        long goal = 100;
+        List<Node> path = GraphPuzzleState.path(Node.of(1), Node::successors, node -> node.n == goal,
+            new BfsPuzzleSolver<>(GraphPuzzleState.longKeyCaches(node -> node.n)));
+        System.out.printf("path to %d: %s%n", goal,
+            StreamEx.of(path).mapToLong(node -> node.n).joining(", "));
+
+        LongGraphSolver solver = new LongGraphSolver((n, action) -> {
+            action.accept(3 * n - 1);
+            action.accept(n / 2);
+        });
+        System.out.printf("path to %d: %s%n", goal,
+            LongStreamEx.of(solver.path(1, n -> n == goal)).joining(", "));
     }
 }
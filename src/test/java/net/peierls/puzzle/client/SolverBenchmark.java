@@ -0,0 +1,480 @@
+package net.peierls.puzzle.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Funnel;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import net.peierls.puzzle.*;
+import net.peierls.puzzle.pegs.PegsPuzzle;
+
+
+/**
+ * End-to-end comparison of every solver with every cache that applies,
+ * over a fixed corpus of puzzles: cross peg puzzles of sizes 5 to 9 (arms
+ * of 3 on odd boards and 4 on even ones), of which the 5x5 cross has no
+ * solution, so that every search must exhaust it, depth-first search
+ * solves the 7x7 within the default budget, and the rest run into it;
+ * triangular peg puzzles of sizes 5 and 6, which every search solves;
+ * the counter puzzle of {@link CounterState}; and {@link CirclePuzzle}.
+ * For each run it records the outcome, wall time, states expanded, peak
+ * heap use, and cache size, and writes them as CSV. Run it with {@code ant
+ * bench}:
+ * <pre>
+ * SolverBenchmark [--out file] [--baseline file] [--fail-on-regression]
+ *                 [--check-time-and-heap]
+ *                 [--max-states N] [--max-millis N] [--warmup N] [--repeat N]
+ * </pre>
+ * Each run is stopped after expanding max-states states (default 2M) or
+ * after max-millis milliseconds (default 60s), with status "budget", so
+ * that runs are comparable even when a search would not finish. Each run
+ * is first made warmup times (default 1) unmeasured, so that it is timed
+ * with compiled code, then repeat times (default 3), keeping the fastest.
+ * Solver and cache diagnostics are made quiet.
+ * <p>
+ * If a baseline, a CSV file written by an earlier run, is given, each run
+ * is compared with its counterpart there, and a regression is reported if
+ * its status differs from a baseline run that finished, or if it expands
+ * more states or uses more cache than the baseline by more than a
+ * tolerance; with --fail-on-regression, the exit status is then 1. These
+ * do not depend on the machine. Wall time and peak heap do, so they are
+ * compared only with --check-time-and-heap, against a baseline made on
+ * the same machine with {@code ant bench-baseline}.
+ */
+public class SolverBenchmark {
+
+    static final String CSV_HEADER =
+        "puzzle,solver,cache,status,solved,solution_length,wall_millis,expansions,peak_heap_bytes,cache_bytes";
+
+    static final double FPP = 0.0001;
+    static final long TIERED_BYTE_BUDGET = 64L << 20;
+    static final int TRANSPOSITION_CAPACITY = 1 << 20;
+    static final long SCALABLE_INITIAL_INSERTIONS = 1L << 16;
+
+    // Regression tolerances: a value regresses if it exceeds
+    // the baseline value times the ratio plus the slack.
+    static final double EXPANSIONS_RATIO = 1.10;
+    static final long EXPANSIONS_SLACK = 100L;
+    static final double MILLIS_RATIO = 1.50;
+    static final long MILLIS_SLACK = 100L;
+    static final double HEAP_RATIO = 1.50;
+    static final long HEAP_SLACK = 32L << 20;
+    static final double CACHE_RATIO = 1.10;
+    static final long CACHE_SLACK = 1L << 10;
+
+
+    enum Search {
+        BFS {
+            @Override <T extends PuzzleState<T>> PuzzleSolver<T> solver(Supplier<PuzzleStateCache<T>> caches) {
+                return new BfsPuzzleSolver<>(caches);
+            }
+        },
+        DFS {
+            @Override <T extends PuzzleState<T>> PuzzleSolver<T> solver(Supplier<PuzzleStateCache<T>> caches) {
+                return new DfsPuzzleSolver<>(caches);
+            }
+        };
+
+        abstract <T extends PuzzleState<T>> PuzzleSolver<T> solver(Supplier<PuzzleStateCache<T>> caches);
+    }
+
+    /**
+     * The caches compared. Each returns null for puzzles it does not
+     * apply to: the key-based caches need a key function, the ranked
+     * cache a rankable state, and the transposition table, which forgets
+     * states, an acyclic state graph.
+     */
+    enum Cache {
+        EXACT {
+            @Override <T extends PuzzleState<T>> PuzzleStateCache<T> create(Case<T> c, long maxStates, Path dir) {
+                return new ExactPuzzleStateCache<>();
+            }
+        },
+        LONG_KEY {
+            @Override <T extends PuzzleState<T>> PuzzleStateCache<T> create(Case<T> c, long maxStates, Path dir) {
+                return new LongKeyPuzzleStateCache<>(c.key);
+            }
+        },
+        BLOOM {
+            @Override <T extends PuzzleState<T>> PuzzleStateCache<T> create(Case<T> c, long maxStates, Path dir) {
+                return new BloomPuzzleStateCache<>(c.funnel, maxStates, FPP);
+            }
+        },
+        CONCURRENT_BLOOM {
+            @Override <T extends PuzzleState<T>> PuzzleStateCache<T> create(Case<T> c, long maxStates, Path dir) {
+                return new ConcurrentBloomPuzzleStateCache<>(c.funnel, maxStates, FPP);
+            }
+        },
+        SCALABLE_BLOOM {
+            @Override <T extends PuzzleState<T>> PuzzleStateCache<T> create(Case<T> c, long maxStates, Path dir) {
+                return new ScalableBloomPuzzleStateCache<>(c.funnel, SCALABLE_INITIAL_INSERTIONS, FPP);
+            }
+        },
+        CUCKOO {
+            @Override <T extends PuzzleState<T>> PuzzleStateCache<T> create(Case<T> c, long maxStates, Path dir) {
+                return new CuckooPuzzleStateCache<>(c.funnel, maxStates, FPP);
+            }
+        },
+        FINGERPRINT {
+            @Override <T extends PuzzleState<T>> PuzzleStateCache<T> create(Case<T> c, long maxStates, Path dir) {
+                return new FingerprintPuzzleStateCache<>(c.funnel, maxStates, FPP);
+            }
+        },
+        TIERED {
+            @Override <T extends PuzzleState<T>> PuzzleStateCache<T> create(Case<T> c, long maxStates, Path dir) {
+                return new TieredPuzzleStateCache<>(c.key, TIERED_BYTE_BUDGET, FPP);
+            }
+        },
+        TRANSPOSITION {
+            @Override <T extends PuzzleState<T>> PuzzleStateCache<T> create(Case<T> c, long maxStates, Path dir) {
+                return c.acyclic ? new TranspositionTablePuzzleStateCache<>(c.key, TRANSPOSITION_CAPACITY) : null;
+            }
+        },
+        PERSISTENT {
+            @Override <T extends PuzzleState<T>> PuzzleStateCache<T> create(Case<T> c, long maxStates, Path dir) {
+                return new PersistentPuzzleStateCache<>(dir, c.key, maxStates);
+            }
+        },
+        RANKED {
+            @Override <T extends PuzzleState<T>> PuzzleStateCache<T> create(Case<T> c, long maxStates, Path dir) {
+                return c.ranked == null ? null : c.ranked.get();
+            }
+        };
+
+        /**
+         * A new cache for the given case, or null if this cache
+         * does not apply to it.
+         */
+        abstract <T extends PuzzleState<T>> PuzzleStateCache<T> create(Case<T> c, long maxStates, Path dir);
+    }
+
+    /**
+     * A puzzle of the corpus, with what the caches need to know about
+     * its states.
+     */
+    static final class Case<T extends PuzzleState<T>> {
+        final String name;
+        final Supplier<T> initialState;
+        final Funnel<T> funnel;
+        final ToLongFunction<T> key;
+        final Supplier<PuzzleStateCache<T>> ranked;
+        final boolean acyclic;
+
+        Case(String name, Supplier<T> initialState, Funnel<T> funnel, ToLongFunction<T> key,
+                Supplier<PuzzleStateCache<T>> ranked, boolean acyclic) {
+            this.name = name;
+            this.initialState = initialState;
+            this.funnel = funnel;
+            this.key = key;
+            this.ranked = ranked;
+            this.acyclic = acyclic;
+        }
+    }
+
+    static List<Case<?>> corpus() {
+        ImmutableList.Builder<Case<?>> corpus = ImmutableList.builder();
+        for (int size = 5; size <= 9; ++size) {
+            corpus.add(pegs("cross-" + size, PegsPuzzle.makeCross(size, size % 2 == 0 ? 4 : 3, 1)));
+        }
+        corpus.add(pegs("triangle-5", PegsPuzzle.makeTriangle(5, 1)));
+        corpus.add(pegs("triangle-6", PegsPuzzle.makeTriangle(6, 1)));
+        corpus.add(new Case<CounterState>("counter",
+            () -> new CounterState(CounterState.INIT, null),
+            CounterState.funnel(), state -> state.getCount(), null, false));
+        corpus.add(new Case<CirclePuzzle.Position>("circle",
+            () -> CirclePuzzle.INITIAL_POSITION,
+            (position, into) -> into.putInt(position.coloring), position -> position.coloring,
+            () -> new RankedPuzzleStateCache<>(CirclePuzzle.Position.RANK_COUNT), false));
+        return corpus.build();
+    }
+
+    static Case<PegsPuzzle.State> pegs(String name, PegsPuzzle puzzle) {
+        return new Case<>(name,
+            () -> puzzle.solve(initial -> ImmutableList.of(initial)).get(0),
+            PegsPuzzle.stateFunnel(), PegsPuzzle.stateKey(), null, true);
+    }
+
+
+    /**
+     * The measurements of one run.
+     */
+    static final class Result {
+        final String puzzle;
+        final String solver;
+        final String cache;
+        final String status;
+        final int solutionLength;
+        final long wallMillis;
+        final long expansions;
+        final long peakHeapBytes;
+        final long cacheBytes;
+
+        Result(String puzzle, String solver, String cache, String status, int solutionLength,
+                long wallMillis, long expansions, long peakHeapBytes, long cacheBytes) {
+            this.puzzle = puzzle;
+            this.solver = solver;
+            this.cache = cache;
+            this.status = status;
+            this.solutionLength = solutionLength;
+            this.wallMillis = wallMillis;
+            this.expansions = expansions;
+            this.peakHeapBytes = peakHeapBytes;
+            this.cacheBytes = cacheBytes;
+        }
+
+        String id() {
+            return puzzle + "/" + solver + "/" + cache;
+        }
+
+        boolean solved() {
+            return "solved".equals(status);
+        }
+
+        String toCsv() {
+            return String.join(",", puzzle, solver, cache, status, String.valueOf(solved()),
+                String.valueOf(solutionLength), String.valueOf(wallMillis), String.valueOf(expansions),
+                String.valueOf(peakHeapBytes), String.valueOf(cacheBytes));
+        }
+
+        static Result fromCsv(String line) {
+            String[] f = line.split(",", -1);
+            if (f.length != 10) {
+                throw new IllegalArgumentException("not a benchmark result: " + line);
+            }
+            return new Result(f[0], f[1], f[2], f[3], Integer.parseInt(f[5]),
+                Long.parseLong(f[6]), Long.parseLong(f[7]), Long.parseLong(f[8]), Long.parseLong(f[9]));
+        }
+    }
+
+
+    final long maxStates;
+    final long maxMillis;
+    final int warmup;
+    final int repeat;
+
+    SolverBenchmark(long maxStates, long maxMillis, int warmup, int repeat) {
+        this.maxStates = maxStates;
+        this.maxMillis = maxMillis;
+        this.warmup = warmup;
+        this.repeat = repeat;
+    }
+
+    /**
+     * Runs every applicable combination of corpus puzzle, solver, and
+     * cache, passing each result to the given consumer as it is made.
+     */
+    void run(List<Case<?>> corpus, Consumer<Result> results) {
+        for (Case<?> c : corpus) {
+            for (Search search : Search.values()) {
+                for (Cache cache : Cache.values()) {
+                    Result best = null;
+                    for (int i = 0; i < warmup + repeat; ++i) {
+                        Result result = run(c, search, cache);
+                        if (result == null) {
+                            break;
+                        }
+                        if (i >= warmup && (best == null || result.wallMillis < best.wallMillis)) {
+                            best = result;
+                        }
+                    }
+                    if (best != null) {
+                        results.accept(best);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs one combination, or returns null if the cache doesn't apply.
+     */
+    <T extends PuzzleState<T>> Result run(Case<T> c, Search search, Cache cacheType) {
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory("bench");
+            PuzzleStateCache<T> probe = cacheType.create(c, maxStates, dir);
+            if (probe == null) {
+                return null;
+            }
+            probe.close();
+            MoreFiles.deleteDirectoryContents(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+
+            Path cacheDir = dir;
+            List<BudgetedPuzzleStateCache<T>> caches = new ArrayList<>();
+            T initialState = c.initialState.get();
+            System.gc();
+            List<MemoryPoolMXBean> heap = heapPools();
+            heap.forEach(MemoryPoolMXBean::resetPeakUsage);
+            long start = System.nanoTime();
+            PuzzleSolver<T> solver = search.solver(() -> {
+                BudgetedPuzzleStateCache<T> cache = new BudgetedPuzzleStateCache<>(
+                    cacheType.create(c, maxStates, cacheDir), maxStates, start, maxMillis);
+                caches.add(cache);
+                return cache;
+            });
+
+            String status;
+            int length = 0;
+            try {
+                List<T> solution = solver.solution(initialState);
+                status = solution.isEmpty() ? "unsolved" : "solved";
+                length = solution.size();
+            } catch (BudgetedPuzzleStateCache.BudgetExceededException e) {
+                status = "budget";
+            } catch (RuntimeException | OutOfMemoryError e) {
+                status = "error " + e.getClass().getSimpleName();
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long peak = heap.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+            BudgetedPuzzleStateCache<T> cache = caches.get(0);
+            return new Result(c.name, search.name().toLowerCase(), cacheType.name().toLowerCase(),
+                status, length, millis, cache.addedCount(), peak, cache.memoryFootprintBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (dir != null) {
+                try {
+                    MoreFiles.deleteRecursively(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+                } catch (IOException e) {
+                    // leave it for the OS to clean up
+                }
+            }
+        }
+    }
+
+    static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+
+    /**
+     * Compares results with a baseline, returning a description of each
+     * regression.
+     */
+    static List<String> regressions(List<Result> results, Map<String, Result> baseline,
+            boolean checkTimeAndHeap) {
+        List<String> regressions = new ArrayList<>();
+        for (Result r : results) {
+            Result b = baseline.get(r.id());
+            if (b == null) {
+                continue;
+            }
+            if (!r.status.equals(b.status) && !"budget".equals(b.status)) {
+                regressions.add(String.format("%s: %s, was %s", r.id(), r.status, b.status));
+            }
+            check(regressions, r, "expansions", r.expansions, b.expansions, EXPANSIONS_RATIO, EXPANSIONS_SLACK);
+            check(regressions, r, "cache bytes", r.cacheBytes, b.cacheBytes, CACHE_RATIO, CACHE_SLACK);
+            if (checkTimeAndHeap) {
+                check(regressions, r, "wall millis", r.wallMillis, b.wallMillis, MILLIS_RATIO, MILLIS_SLACK);
+                check(regressions, r, "peak heap bytes", r.peakHeapBytes, b.peakHeapBytes, HEAP_RATIO, HEAP_SLACK);
+            }
+        }
+        return regressions;
+    }
+
+    private static void check(List<String> regressions, Result r, String what,
+            long value, long baseline, double ratio, long slack) {
+        if (value > baseline * ratio + slack) {
+            regressions.add(String.format("%s: %s %d, baseline %d", r.id(), what, value, baseline));
+        }
+    }
+
+    static Map<String, Result> readBaseline(Path file) throws IOException {
+        Map<String, Result> baseline = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.isEmpty() && !line.equals(CSV_HEADER)) {
+                Result result = Result.fromCsv(line);
+                baseline.put(result.id(), result);
+            }
+        }
+        return baseline;
+    }
+
+
+    public static void main(String... args) throws IOException {
+        Path out = Paths.get("build", "bench", "results.csv");
+        Path baselineFile = null;
+        boolean failOnRegression = false;
+        boolean checkTimeAndHeap = false;
+        long maxStates = 2_000_000L;
+        long maxMillis = 60_000L;
+        int warmup = 1;
+        int repeat = 3;
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--out": out = Paths.get(args[++i]); break;
+                case "--baseline": baselineFile = Paths.get(args[++i]); break;
+                case "--fail-on-regression": failOnRegression = true; break;
+                case "--check-time-and-heap": checkTimeAndHeap = true; break;
+                case "--max-states": maxStates = Long.parseLong(args[++i]); break;
+                case "--max-millis": maxMillis = Long.parseLong(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--repeat": repeat = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("unknown argument: " + args[i]);
+            }
+        }
+
+        Diagnostics.setQuiet(true);
+
+        if (out.getParent() != null) {
+            Files.createDirectories(out.getParent());
+        }
+        List<Result> results = new ArrayList<>();
+        try (Writer writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+            new SolverBenchmark(maxStates, maxMillis, warmup, repeat).run(corpus(), result -> {
+                results.add(result);
+                System.out.println(result.toCsv());
+                try {
+                    writer.write(result.toCsv());
+                    writer.write('\n');
+                    writer.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        System.out.printf("Wrote %d results to %s%n", results.size(), out);
+
+        if (baselineFile != null) {
+            if (!Files.exists(baselineFile)) {
+                System.out.printf("No baseline at %s%n", baselineFile);
+                return;
+            }
+            List<String> regressions = regressions(results, readBaseline(baselineFile), checkTimeAndHeap);
+            for (String regression : regressions) {
+                System.out.println("REGRESSION " + regression);
+            }
+            System.out.printf("%d regressions from baseline %s%n", regressions.size(), baselineFile);
+            if (failOnRegression && !regressions.isEmpty()) {
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package net.peierls.puzzle.pegs;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import net.peierls.puzzle.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ * Ceilings on the bytes allocated by the hot paths of a search, per state
+ * expanded or put, measured by the allocation counter of the current
+ * thread. The ceilings are about 1.5 times what was measured when they
+ * were set, so a failure means a real regression, not noise; lower them
+ * when the hot paths get leaner.
+ */
+public class AllocationTest {
+
+    static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static final int SAMPLES = 2000;
+    static final int ROUNDS = 20;
+
+    @BeforeClass public static void supported() {
+        Assume.assumeTrue(THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test public void successors() {
+        assertSuccessorsWithin(640, PegsPuzzle.makeCross(7, 3, 1));   // SmallState, measured 420
+        assertSuccessorsWithin(1280, PegsPuzzle.makeCross(9, 3, 1));  // LargeState, measured 820
+        assertSuccessorsWithin(640, PegsPuzzle.makeTriangle(6, 1));   // BoardState, measured 400
+    }
+
+    @Test public void cachePuts() {
+        List<PegsPuzzle.State> states = sample(PegsPuzzle.makeCross(7, 3, 1)).stream()
+            .distinct()
+            .collect(Collectors.toList());
+        assertPutsWithin(8, states, () -> new LongKeyPuzzleStateCache<>(PegsPuzzle.stateKey(), SAMPLES));
+        assertPutsWithin(8, states, () -> new LongKeyPuzzleStateCache<>(PegsPuzzle.stateHash(), SAMPLES));
+        assertPutsWithin(96, states, ExactPuzzleStateCache::new);
+        // Guava's hashing allocates a Hasher and a HashCode per put.
+        assertPutsWithin(352, states, () -> new BloomPuzzleStateCache<>(PegsPuzzle.stateFunnel(), SAMPLES, 0.001));
+        assertPutsWithin(288, states, () -> new ConcurrentBloomPuzzleStateCache<>(PegsPuzzle.stateFunnel(), SAMPLES, 0.001));
+        assertPutsWithin(288, states, () -> new FingerprintPuzzleStateCache<>(PegsPuzzle.stateFunnel(), SAMPLES, 0.001));
+        assertPutsWithin(288, states, () -> new CuckooPuzzleStateCache<>(PegsPuzzle.stateFunnel(), SAMPLES, 0.001));
+    }
+
+    @Test public void dfs() {
+        // 1.27M states, measured 415
+        assertSolveWithin(640, PegsPuzzle.makeCross(7, 3, 1), DfsPuzzleSolver::new);
+    }
+
+    @Test public void bfs() {
+        // 30K states, measured 430
+        assertSolveWithin(640, PegsPuzzle.makeCross(5, 3, 1), BfsPuzzleSolver::new);
+    }
+
+
+    static void assertSuccessorsWithin(long ceiling, PegsPuzzle puzzle) {
+        List<PegsPuzzle.State> states = sample(puzzle);
+        long bytes = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; ++i) {
+            bytes = Math.min(bytes, allocated(() -> {
+                for (PegsPuzzle.State state : states) {
+                    state.successors().forEach(s -> { });
+                }
+            }));
+        }
+        assertWithin(ceiling, bytes, states.size(), states.get(0).getClass().getSimpleName() + ".successors()");
+    }
+
+    static void assertPutsWithin(long ceiling, List<PegsPuzzle.State> states,
+            Supplier<PuzzleStateCache<PegsPuzzle.State>> caches) {
+        long bytes = Long.MAX_VALUE;
+        String name = null;
+        for (int i = 0; i < ROUNDS; ++i) {
+            PuzzleStateCache<PegsPuzzle.State> cache = caches.get();
+            name = cache.getClass().getSimpleName() + ".put";
+            bytes = Math.min(bytes, allocated(() -> states.forEach(cache::put)));
+        }
+        assertWithin(ceiling, bytes, states.size(), name);
+    }
+
+    static void assertSolveWithin(long ceiling, PegsPuzzle puzzle,
+            Function<Supplier<PuzzleStateCache<PegsPuzzle.State>>, PuzzleSolver<PegsPuzzle.State>> solvers) {
+        List<PuzzleStateCache<PegsPuzzle.State>> caches = new ArrayList<>();
+        PuzzleSolver<PegsPuzzle.State> solver = solvers.apply(() -> {
+            PuzzleStateCache<PegsPuzzle.State> cache = new LongKeyPuzzleStateCache<>(PegsPuzzle.stateKey());
+            caches.add(cache);
+            return cache;
+        });
+        long bytes = allocated(() -> puzzle.solve(solver));
+        assertWithin(ceiling, bytes, caches.get(0).approximateElementCount(),
+            solver.getClass().getSimpleName() + " state");
+    }
+
+    static void assertWithin(long ceiling, long bytes, long count, String what) {
+        double perItem = (double) bytes / count;
+        assertTrue(String.format("%s allocates %.1f bytes, more than %d", what, perItem, ceiling),
+            perItem <= ceiling);
+    }
+
+    static long allocated(Runnable action) {
+        long id = Thread.currentThread().getId();
+        long before = THREADS.getThreadAllocatedBytes(id);
+        action.run();
+        return THREADS.getThreadAllocatedBytes(id) - before;
+    }
+
+    /**
+     * States met along random playouts from the puzzle's initial state.
+     */
+    static List<PegsPuzzle.State> sample(PegsPuzzle puzzle) {
+        Random random = new Random(1);
+        List<PegsPuzzle.State> states = new ArrayList<>();
+        PegsPuzzle.State state = puzzle.state(puzzle.pegs());
+        while (states.size() < SAMPLES) {
+            List<PegsPuzzle.State> next = state.successors().collect(Collectors.toList());
+            if (next.isEmpty()) {
+                state = puzzle.state(puzzle.pegs());
+            } else {
+                state = next.get(random.nextInt(next.size()));
+                states.add(state);
+            }
+        }
+        return states;
+    }
+}
@@ -0,0 +1,86 @@
+package net.peierls.puzzle.pegs;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import net.peierls.puzzle.DfsPuzzleSolver;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class PegBoardTest {
+
+    @Test public void matchesGrid() {
+        Random random = new Random(1);
+        PegsPuzzle grid = PegsPuzzle.makeCross(7, 3, 1);
+        PegBoard board = PegBoard.compile(grid.holes(), PegBoard.ORTHOGONAL);
+        PegsPuzzle compiled = new PegsPuzzle(board, grid.pegs(), 1, grid.solutionRequires());
+        assertEquals(76, board.jumpCount());
+        for (int i = 0; i < 200; ++i) {
+            Set<Position> pegs = randomPegs(grid.holes(), random);
+            assertEquals(
+                PegsPuzzleTest.successors(grid.state(pegs)),
+                PegsPuzzleTest.successors(compiled.state(pegs)));
+        }
+        assertEquals(
+            grid.solve(new DfsPuzzleSolver<>()).size(),
+            compiled.solve(new DfsPuzzleSolver<>()).size());
+    }
+
+    @Test public void randomStatesMatchPositions() {
+        Random random = new Random(2);
+        Set<Position> triangle = PegsPuzzle.makeTriangle(6, 1).holes();
+        Set<Position> square = PegsPuzzle.rowMajorPositions(6, 6).toSet();
+        for (Set<Position> directions : ImmutableSet.of(PegBoard.TRIANGULAR, PegBoard.DIAGONAL)) {
+            Set<Position> holes = directions == PegBoard.TRIANGULAR ? triangle : square;
+            PegsPuzzle puzzle = new PegsPuzzle(PegBoard.compile(holes, directions), holes, 1, ImmutableSet.of());
+            for (int i = 0; i < 200; ++i) {
+                Set<Position> pegs = randomPegs(holes, random);
+                PegsPuzzle.State state = puzzle.state(pegs);
+                assertEquals(pegs, state.pegs());
+                assertEquals(expectedSuccessors(holes, directions, pegs), PegsPuzzleTest.successors(state));
+            }
+        }
+    }
+
+    @Test public void solveTriangle() {
+        PegsPuzzle puzzle = PegsPuzzle.makeTriangle(5, 1);
+        List<PegsPuzzle.State> solution = puzzle.solve(new DfsPuzzleSolver<>());
+        assertEquals(14, solution.size());
+        assertTrue(solution.get(13).isSolution());
+        assertTrue(solution.get(13).toString().contains("#pegs=1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyHoles() {
+        PegBoard.compile(PegsPuzzle.rowMajorPositions(9, 9).toSet(), PegBoard.ORTHOGONAL);
+    }
+
+    static Set<Position> randomPegs(Set<Position> holes, Random random) {
+        return holes.stream().filter(h -> random.nextBoolean()).collect(Collectors.toSet());
+    }
+
+    static Set<Set<Position>> expectedSuccessors(Set<Position> holes, Set<Position> directions, Set<Position> pegs) {
+        Set<Set<Position>> result = new HashSet<>();
+        for (Position from : pegs) {
+            for (Position d : directions) {
+                Position mid = from.move(d);
+                Position to = mid.move(d);
+                if (pegs.contains(mid) && holes.contains(to) && !pegs.contains(to)) {
+                    Set<Position> next = new HashSet<>(pegs);
+                    next.remove(from);
+                    next.remove(mid);
+                    next.add(to);
+                    result.add(next);
+                }
+            }
+        }
+        return result;
+    }
+}
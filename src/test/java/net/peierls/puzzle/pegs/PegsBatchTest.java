@@ -0,0 +1,64 @@
+package net.peierls.puzzle.pegs;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class PegsBatchTest {
+
+    static final String BATCH = String.join("\n",
+        "# comment",
+        "small   cross 5 3",
+        "",
+        "tri5    triangle 5   # solvable",
+        "corner  grid XXXX/XXXX/.XXX/XXXX",
+        "bad     hexagon 3",
+        "english cross 7 3");
+
+    static List<String> run(PegsBatch batch) throws Exception {
+        StringWriter out = new StringWriter();
+        assertEquals(5, batch.run(new BufferedReader(new StringReader(BATCH)), out));
+        return Arrays.asList(out.toString().split("\n"));
+    }
+
+    static String line(List<String> lines, String name) {
+        return lines.stream().filter(l -> l.startsWith(name + ",") || l.startsWith("{\"name\":\"" + name + "\""))
+            .findFirst().orElseThrow(AssertionError::new);
+    }
+
+    @Test public void jsonLines() throws Exception {
+        List<String> lines = run(new PegsBatch(3, PegsBatch.Search.DFS, PegsBatch.Format.JSONL, 0, 0, 0));
+        assertEquals(5, lines.size());
+        assertTrue(line(lines, "small").contains("\"status\":\"unsolvable\""));
+        assertTrue(line(lines, "small").contains("\"states\":30532"));
+        assertTrue(line(lines, "tri5").contains("\"status\":\"solved\""));
+        assertTrue(line(lines, "corner").contains("\"moves\":[\"0:0-2:0\","));
+        assertTrue(line(lines, "bad").contains("\"error\":\"unknown kind of puzzle: hexagon\""));
+    }
+
+    @Test public void csvWithBudgets() throws Exception {
+        List<String> lines = run(new PegsBatch(2, PegsBatch.Search.DFS, PegsBatch.Format.CSV, 1000, 10_000, 1 << 20));
+        assertEquals(PegsBatch.CSV_HEADER, lines.get(0));
+        assertEquals(6, lines.size());
+        assertTrue(line(lines, "small").startsWith("small,budget,20,,"));
+        assertTrue(line(lines, "english").startsWith("english,budget,32,,"));
+        assertTrue(line(lines, "tri5").startsWith("tri5,solved,14,2:2-0:0 "));
+        for (String line : lines) {
+            assertEquals(line, PegsBatch.CSV_HEADER.split(",").length, line.split(",", -1).length);
+        }
+    }
+
+    @Test public void parse() {
+        PegsPuzzle puzzle = PegsBatch.parse("x", "grid", "-X./XX.", "2");
+        assertEquals(5, puzzle.holes().size());
+        assertEquals(3, puzzle.pegs().size());
+        assertEquals(2, puzzle.solutionCount());
+        assertEquals(PegsPuzzle.makeCross(7, 3, 1).holes(), PegsBatch.parse("x", "cross", "7", "3").holes());
+    }
+}
@@ -0,0 +1,82 @@
+package net.peierls.puzzle.pegs;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+import net.peierls.puzzle.DfsPuzzleSolver;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+
+public class PegsCensusTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    static PegsPuzzle fullRectangle(int nrows, int ncols, Position empty) {
+        Set<Position> holes = PegsPuzzle.rowMajorPositions(nrows, ncols).toSet();
+        Set<Position> pegs = new HashSet<>(holes);
+        pegs.remove(empty);
+        return new PegsPuzzle(nrows, ncols, holes, pegs, 1, Collections.emptySet());
+    }
+
+    @Test public void countsMatchSearch() throws Exception {
+        for (PegsPuzzle puzzle : new PegsPuzzle[] {
+                fullRectangle(4, 5, new Position(0, 0)),
+                fullRectangle(4, 4, new Position(0, 0)),
+                PegsPuzzle.makeCross(5, 3, 1) }) {
+            List<PegsCensus.Level> levels =
+                new PegsCensus(puzzle, folder.newFolder().toPath(), 1 << 20, false).run();
+
+            assertEquals(reachable(puzzle), levels.stream().mapToLong(PegsCensus.Level::stateCount).sum());
+            assertEquals(puzzle.pegs().size(), levels.get(0).pegCount());
+            assertEquals(1L, levels.get(0).stateCount());
+            boolean solvable = !puzzle.solve(new DfsPuzzleSolver<>()).isEmpty();
+            assertEquals(solvable ? 1L : 0L, levels.get(0).solvableCount());
+        }
+    }
+
+    @Test public void spillsToDisk() throws Exception {
+        PegsPuzzle puzzle = fullRectangle(4, 5, new Position(0, 1));
+        Path inMemory = folder.newFolder().toPath();
+        Path spilled = folder.newFolder().toPath();
+        List<PegsCensus.Level> expected = new PegsCensus(puzzle, inMemory, 1 << 20, false).run();
+        PegsCensus census = new PegsCensus(puzzle, spilled, 1 << 10, true);
+        List<PegsCensus.Level> levels = census.run();
+
+        assertEquals(expected.toString(), levels.toString());
+        assertEquals(
+            Files.readAllLines(inMemory.resolve(PegsCensus.COUNTS_FILE)),
+            Files.readAllLines(spilled.resolve(PegsCensus.COUNTS_FILE)));
+        assertFalse(Files.exists(new PegsCensus(puzzle, inMemory, 1 << 20, false).stateFile(puzzle.pegs().size())));
+        for (PegsCensus.Level level : levels) {
+            SortedKeyFile states = SortedKeyFile.open(census.stateFile(level.pegCount()));
+            SortedKeyFile solvable = SortedKeyFile.open(census.solvableFile(level.pegCount()));
+            assertEquals(level.stateCount(), states.size());
+            assertEquals(level.solvableCount(), solvable.size());
+            for (long i = 0; i < solvable.size(); ++i) {
+                assertTrue(states.contains(solvable.get(i)));
+                assertEquals(level.pegCount(), Long.bitCount(solvable.get(i)));
+            }
+        }
+    }
+
+    static long reachable(PegsPuzzle puzzle) {
+        PegsPuzzle.State initial = puzzle.state(puzzle.pegs());
+        Set<PegsPuzzle.State> seen = new HashSet<>();
+        Queue<PegsPuzzle.State> queue = new ArrayDeque<>();
+        seen.add(initial);
+        queue.add(initial);
+        while (!queue.isEmpty()) {
+            queue.remove().successors().filter(seen::add).forEach(queue::add);
+        }
+        return seen.size();
+    }
+}
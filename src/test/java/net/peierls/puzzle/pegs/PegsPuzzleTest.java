@@ -0,0 +1,92 @@
+package net.peierls.puzzle.pegs;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import net.peierls.puzzle.DfsPuzzleSolver;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class PegsPuzzleTest {
+
+    @Test public void documentedExample() {
+        Set<Position> holes = PegsPuzzle.rowMajorPositions(4, 4)
+            .remove(c -> (c.row() == 0 || c.row() == 3) && (c.col() == 0 || c.col() == 3))
+            .toSet();
+        Set<Position> pegs = ImmutableSet.of(
+            new Position(1, 1), new Position(1, 2), new Position(2, 2), new Position(2, 3));
+        PegsPuzzle puzzle = new PegsPuzzle(4, 4, holes, pegs);
+        PegsPuzzle.State initial = puzzle.state(pegs);
+        assertEquals(expectedSuccessors(holes, pegs), successors(initial));
+    }
+
+    @Test public void randomStatesMatchPositions() {
+        Random random = new Random(1);
+        for (int[] size : new int[][] { { 5, 3 }, { 6, 4 }, { 7, 3 }, { 8, 4 }, { 9, 3 }, { 11, 3 } }) {
+            // 9x9 and 11x11 need more than one word
+            PegsPuzzle puzzle = PegsPuzzle.makeCross(size[0], size[1], 1);
+            for (int i = 0; i < 200; ++i) {
+                Set<Position> pegs = puzzle.holes().stream()
+                    .filter(h -> random.nextBoolean())
+                    .collect(Collectors.toSet());
+                PegsPuzzle.State state = puzzle.state(pegs);
+                assertEquals(pegs, state.pegs());
+                assertEquals(expectedSuccessors(puzzle.holes(), pegs), successors(state));
+                for (PegsPuzzle.State succ : state.successors().collect(Collectors.toList())) {
+                    assertNotEquals(state, succ);
+                    assertNotEquals(state.key(), succ.key());
+                    // incremental hash matches one computed from scratch
+                    assertEquals(puzzle.state(succ.pegs()).hash(), succ.hash());
+                }
+            }
+        }
+    }
+
+    @Test public void solveCross() {
+        PegsPuzzle puzzle = PegsPuzzle.makeCross(5, 1, 1);
+        List<PegsPuzzle.State> solution = puzzle.solve(new DfsPuzzleSolver<>());
+        assertTrue(solution.isEmpty());
+    }
+
+    @Test public void evenCross() {
+        PegsPuzzle puzzle = PegsPuzzle.makeCross(8, 4, 1);
+        assertEquals(8 * 8 - 4 * 2 * 2, puzzle.holes().size());
+        assertFalse(puzzle.holes().contains(new Position(1, 1)));
+        assertTrue(puzzle.holes().contains(new Position(2, 2)));
+        try {
+            PegsPuzzle.makeCross(8, 3, 1);
+            fail("arm size of different parity should be rejected");
+        } catch (IllegalArgumentException expected) {
+            // arms can't be centered
+        }
+    }
+
+    static Set<Set<Position>> successors(PegsPuzzle.State state) {
+        return state.successors().map(PegsPuzzle.State::pegs).collect(Collectors.toSet());
+    }
+
+    static Set<Set<Position>> expectedSuccessors(Set<Position> holes, Set<Position> pegs) {
+        Set<Set<Position>> result = new HashSet<>();
+        for (Position from : pegs) {
+            for (JumpType jump : JumpType.values()) {
+                Position mid = jump.jumped(from);
+                Position to = jump.target(from);
+                if (pegs.contains(mid) && holes.contains(to) && !pegs.contains(to)) {
+                    Set<Position> next = new HashSet<>(pegs);
+                    next.remove(from);
+                    next.remove(mid);
+                    next.add(to);
+                    result.add(next);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,55 @@
+package net.peierls.puzzle.pegs;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import net.peierls.puzzle.DfsPuzzleSolver;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+
+public class PegsTablebaseTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void agreesWithCensus() throws Exception {
+        PegsPuzzle puzzle = PegsCensusTest.fullRectangle(4, 5, new Position(0, 0));
+        int maxPegs = 12;
+        PegsTablebase tablebase = PegsTablebase.build(puzzle, maxPegs, folder.newFolder().toPath(), 1 << 10);
+        PegsCensus census = new PegsCensus(puzzle, folder.newFolder().toPath(), 1 << 20, true);
+
+        for (PegsCensus.Level level : census.run()) {
+            if (level.pegCount() > maxPegs) {
+                continue;
+            }
+            assertTrue(level.solvableCount() <= tablebase.winnableCount(level.pegCount()));
+            SortedKeyFile states = SortedKeyFile.open(census.stateFile(level.pegCount()));
+            SortedKeyFile solvable = SortedKeyFile.open(census.solvableFile(level.pegCount()));
+            for (long i = 0; i < states.size(); ++i) {
+                long pegs = states.get(i);
+                assertEquals(solvable.contains(pegs), !tablebase.isHopeless(pegs));
+            }
+        }
+    }
+
+    @Test public void solveWithTablebase() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        PegsPuzzle puzzle = PegsPuzzle.makeCross(7, 3, 1);
+        PegsTablebase.build(puzzle, 8, directory, 1 << 20);
+        PegsPuzzle consulting = puzzle.withTablebase(PegsTablebase.load(puzzle, directory));
+
+        List<PegsPuzzle.State> solution = consulting.solve(new DfsPuzzleSolver<>());
+        assertFalse(solution.isEmpty());
+        assertTrue(solution.get(solution.size() - 1).isSolution());
+        assertTrue(solution.stream().noneMatch(PegsPuzzle.State::isHopeless));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherPuzzle() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        PegsTablebase.build(PegsPuzzle.makeCross(7, 3, 1), 4, directory, 1 << 20);
+        PegsTablebase.load(PegsPuzzle.makeCross(7, 3, 2), directory);
+    }
+}